@@ -0,0 +1,323 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * An 8-bit image stored in a Java array, so the morphological transformations can run without the native library of
+ * OpenCV. The pixels are stored in row-major order with the channels interleaved, like a continuous Mat.
+ * The images are read and written without OpenCV too: binary PGM and PPM files with {@link PnmReader} and {@link PnmWriter},
+ * and the other formats (PNG, BMP, JPEG...) with javax.imageio. Like Imgcodecs.imread, the color images read with
+ * javax.imageio are stored as BGR without alpha, but the gray images keep a single channel (scaled to 8 bits if they have
+ * more or fewer bits per sample, e.g., a 16-bit PNG). The RGB samples of the PPM files are swapped to BGR when they are read
+ * and back to RGB when they are written, so the color images are BGR whatever their format, like the Mats of OpenCV.
+ * Since an array keeps no position, the same image can be read and written from several threads (different rows).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class ArrayImage implements PixelBuffer {
+
+	private final int rows;
+	private final int cols;
+	private final int channels;
+	private final byte[] pixels;
+
+	/**
+	 * Creates an image with all its pixels at 0.
+	 *
+	 * @param rows the number of rows.
+	 * @param cols the number of columns.
+	 * @param channels the number of channels.
+	 */
+	public ArrayImage(int rows, int cols, int channels) {
+		this(rows, cols, channels, new byte[rows * cols * channels]);
+	}
+
+	/**
+	 * Creates an image over an array. The array is not copied.
+	 *
+	 * @param rows the number of rows.
+	 * @param cols the number of columns.
+	 * @param channels the number of channels.
+	 * @param pixels the pixels, in row-major order with the channels interleaved. It must have rows * cols * channels elements.
+	 */
+	public ArrayImage(int rows, int cols, int channels, byte[] pixels) {
+		if(rows < 0 || cols < 0 || channels < 1)
+			throw new IllegalArgumentException("Invalid size of the image: " + rows + "x" + cols + "x" + channels);
+		if(pixels.length != rows * cols * channels)
+			throw new IllegalArgumentException("The image must have " + rows * cols * channels + " values: " + pixels.length);
+		this.rows = rows;
+		this.cols = cols;
+		this.channels = channels;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * Creates a single-channel image with all its pixels at 1, e.g., a rectangular structural element.
+	 *
+	 * @param rows the number of rows.
+	 * @param cols the number of columns.
+	 * @return the new image.
+	 */
+	public static ArrayImage ones(int rows, int cols) {
+		byte[] pixels = new byte[rows * cols];
+		Arrays.fill(pixels, (byte)1);
+		return new ArrayImage(rows, cols, 1, pixels);
+	}
+
+	/**
+	 * Copies an 8-bit Mat into a new image.
+	 *
+	 * @param src the image to copy.
+	 * @return the new image.
+	 */
+	public static ArrayImage copyOf(Mat src) {
+		ArrayImage image = new ArrayImage(src.rows(), src.cols(), src.channels());
+		MatBuffer.wrap(src).get(image.pixels);
+		return image;
+	}
+
+	/**
+	 * Copies the image into a new 8-bit Mat. It needs the native library of OpenCV.
+	 *
+	 * @return the new Mat.
+	 */
+	public Mat toMat() {
+		Mat dst = new Mat(rows, cols, CvType.CV_8UC(channels));
+		MatBuffer.wrap(dst).put(pixels);
+		return dst;
+	}
+
+	/**
+	 * Reads an image file. PGM and PPM files (.pgm, .ppm and .pnm) are read with {@link PnmReader} and the other formats
+	 * with javax.imageio. Like Imgcodecs.imread, the samples of a PGM or PPM file whose max value is not 255 are scaled to
+	 * 0-255, since the image keeps no max value and it is written with 255.
+	 *
+	 * @param path the file to read.
+	 * @return the image.
+	 * @throws IOException if the file cannot be read or its format is not supported.
+	 */
+	public static ArrayImage read(Path path) throws IOException {
+		if(isPnm(path)) {
+			try(PnmReader reader = new PnmReader(path)) {
+				ArrayImage image = new ArrayImage(reader.rows(), reader.cols(), reader.channels());
+				byte[] row = new byte[image.rowLength()];
+				byte[] scale = reader.maxValue() != 255 ? scale(reader.maxValue()) : null;
+				for(int i = 0; i<image.rows; i++) {
+					reader.readRow(row);
+					if(scale != null) {
+						for(int j = 0; j<row.length; j++) {
+							row[j] = scale[row[j] & 0xFF];
+						}
+					}
+					if(image.channels == 3)
+						swapRedBlue(row);
+					image.putRow(i, row, 0);
+				}
+				return image;
+			}
+		}
+
+		BufferedImage buffered = ImageIO.read(path.toFile());
+		if(buffered == null)
+			throw new IOException("The format of the image is not supported: " + path);
+		int rows = buffered.getHeight();
+		int cols = buffered.getWidth();
+		Raster raster = buffered.getRaster();
+		if(buffered.getColorModel().getNumComponents() == 1) {
+			//The samples of the gray images are read as they are, without the color conversion of getRGB (which would give
+			//3 channels), and scaled to 8 bits: the 16-bit ones are shifted, like Imgcodecs.imread does, and the ones with
+			//fewer bits are stretched to 0-255.
+			int bits = raster.getSampleModel().getSampleSize(0);
+			int[] samples = raster.getSamples(0, 0, cols, rows, 0, (int[])null);
+			byte[] pixels = new byte[samples.length];
+			if(bits > 8) {
+				for(int n = 0; n<samples.length; n++) {
+					pixels[n] = (byte)(samples[n] >> (bits - 8));
+				}
+			}
+			else {
+				int max = (1 << bits) - 1;
+				for(int n = 0; n<samples.length; n++) {
+					pixels[n] = (byte)(samples[n] * 255 / max);
+				}
+			}
+			return new ArrayImage(rows, cols, 1, pixels);
+		}
+
+		//The color images are converted to BGR, like Imgcodecs.imread does.
+		ArrayImage image = new ArrayImage(rows, cols, 3);
+		int[] argb = new int[cols];
+		for(int i = 0; i<rows; i++) {
+			buffered.getRGB(0, i, cols, 1, argb, 0, cols);
+			int o = i * cols * 3;
+			for(int j = 0; j<cols; j++) {
+				image.pixels[o++] = (byte)argb[j];
+				image.pixels[o++] = (byte)(argb[j] >> 8);
+				image.pixels[o++] = (byte)(argb[j] >> 16);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Writes the image into a file. The format is given by the extension of the file: PGM and PPM files (.pgm, .ppm and .pnm)
+	 * are written with {@link PnmWriter} and the other formats with javax.imageio.
+	 *
+	 * @param path the file to write.
+	 * @throws IOException if the file cannot be written, or its format does not support the channels of the image.
+	 */
+	public void write(Path path) throws IOException {
+		if(isPnm(path)) {
+			try(PnmWriter writer = new PnmWriter(path, rows, cols, channels)) {
+				byte[] row = new byte[rowLength()];
+				for(int i = 0; i<rows; i++) {
+					getRow(i, row, 0);
+					if(channels == 3)
+						swapRedBlue(row);
+					writer.writeRow(row);
+				}
+			}
+			return;
+		}
+
+		//The gray and the BGR images have the same layout as the rasters of BufferedImage, so the pixels are copied at once.
+		int type;
+		if(channels == 1)
+			type = BufferedImage.TYPE_BYTE_GRAY;
+		else if(channels == 3)
+			type = BufferedImage.TYPE_3BYTE_BGR;
+		else
+			throw new IOException("Only 1 or 3 channels can be written with javax.imageio");
+		if(rows == 0 || cols == 0)
+			throw new IOException("An empty image cannot be written");
+		BufferedImage buffered = new BufferedImage(cols, rows, type);
+		byte[] data = ((DataBufferByte)buffered.getRaster().getDataBuffer()).getData();
+		System.arraycopy(pixels, 0, data, 0, pixels.length);
+		String name = path.getFileName().toString();
+		String format = name.substring(name.lastIndexOf('.') + 1);
+		if(!ImageIO.write(buffered, format, path.toFile()))
+			throw new IOException("The format of the image is not supported: " + path);
+	}
+
+	/**
+	 * Swaps the first and the third channel of every pixel of a row, converting RGB into BGR and BGR into RGB.
+	 *
+	 * @param row the pixels of a row with 3 channels.
+	 */
+	private static void swapRedBlue(byte[] row) {
+		for(int j = 0; j + 2<row.length; j += 3) {
+			byte first = row[j];
+			row[j] = row[j + 2];
+			row[j + 2] = first;
+		}
+	}
+
+	/**
+	 * Creates the table that scales the samples of an image to 0-255.
+	 *
+	 * @param maxValue the max value of the samples of the image.
+	 * @return the scaled value of every sample, rounded. The samples greater than the max value are 255.
+	 */
+	private static byte[] scale(int maxValue) {
+		byte[] table = new byte[256];
+		for(int v = 0; v<table.length; v++) {
+			table[v] = (byte)((Math.min(v, maxValue) * 255 + maxValue / 2) / maxValue);
+		}
+		return table;
+	}
+
+	/**
+	 * Indicates if a file is a PGM or a PPM file, according to its extension.
+	 *
+	 * @param path the file.
+	 * @return true for the .pgm, .ppm and .pnm files.
+	 */
+	private static boolean isPnm(Path path) {
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		return name.endsWith(".pgm") || name.endsWith(".ppm") || name.endsWith(".pnm");
+	}
+
+	/**
+	 * Gets the array with the pixels of the image. It is not copied, so the changes are seen by the image.
+	 *
+	 * @return the pixels, in row-major order with the channels interleaved.
+	 */
+	public byte[] getPixels() {
+		return pixels;
+	}
+
+	@Override
+	public int rows() {
+		return rows;
+	}
+
+	@Override
+	public int cols() {
+		return cols;
+	}
+
+	@Override
+	public int channels() {
+		return channels;
+	}
+
+	/**
+	 * The rows of an array are always accessed directly.
+	 *
+	 * @return true.
+	 */
+	@Override
+	public boolean isDirect() {
+		return true;
+	}
+
+	/**
+	 * An array keeps no position, so the same image is used by all the threads.
+	 *
+	 * @return this image.
+	 */
+	@Override
+	public ArrayImage view() {
+		return this;
+	}
+
+	@Override
+	public boolean overlaps(PixelBuffer other) {
+		return other instanceof ArrayImage && ((ArrayImage)other).pixels == pixels;
+	}
+
+	@Override
+	public void getRow(int row, byte[] dst, int offset) {
+		System.arraycopy(pixels, row * rowLength(), dst, offset, rowLength());
+	}
+
+	@Override
+	public void get(int row, int from, byte[] dst, int offset, int length) {
+		System.arraycopy(pixels, row * rowLength() + from, dst, offset, length);
+	}
+
+	@Override
+	public void put(int row, int from, byte[] src, int offset, int length) {
+		System.arraycopy(src, offset, pixels, row * rowLength() + from, length);
+	}
+
+	@Override
+	public byte[] get(byte[] pixels) {
+		System.arraycopy(this.pixels, 0, pixels, 0, this.pixels.length);
+		return pixels;
+	}
+
+	@Override
+	public void put(byte[] pixels) {
+		System.arraycopy(pixels, 0, this.pixels, 0, this.pixels.length);
+	}
+}
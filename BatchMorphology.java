@@ -0,0 +1,363 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies a morphological transformation to many images in a single run, so the JVM startup, the load of the native
+ * library and the warmup are paid only once. The images are processed by a pipeline of three stages (decoding, processing
+ * and encoding), every one with its own threads, connected by bounded queues. Several images are in flight at the same
+ * time and the memory is bounded by the size of the queues.
+ * The transformation is compiled once (see {@link MorphologicalOperator}) and shared by all the processing threads.
+ * If an image cannot be read, processed or written, the error is reported and the rest of the batch continues. Every
+ * stage catches any error of an image (even an Error, e.g., an OutOfMemoryError with a large image) and hands the image on
+ * to the next stage, so every stage always receives all the images and the pipeline always finishes.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public class BatchMorphology {
+
+	/**
+	 * An image moving through the pipeline. If any stage fails, the error is kept and the next stages skip the image.
+	 */
+	private static final class Item {
+		private final Path input;
+		private final Path output;
+		private Mat image;
+		private String error;
+
+		private Item(Path input, Path output) {
+			this.input = input;
+			this.output = output;
+		}
+	}
+
+	private final MorphologicalOperator operator;
+	private final Path outputDirectory;
+	private final int threads;
+	private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+
+	public static void main(String[] args) {
+		if(args == null || args.length < 3) {
+			System.out.println("You must enter three arguments: the transformation (dilation, erotion, opening, closing, gradient, top_hat or black_hat), "
+					+ "the input images (a directory, a glob pattern or a text file with one path per line) and the output directory");
+			System.out.println("An optional fourth argument gives the size of the structural element (5 by default) and a fifth one "
+					+ "the number of threads per stage (the number of processors by default)");
+			return;
+		}
+		System.loadLibrary( Core.NATIVE_LIBRARY_NAME );
+
+		MorphologicalOperator.Type type;
+		try {
+			type = MorphologicalOperator.Type.valueOf(args[0].toUpperCase(Locale.ROOT));
+		} catch(IllegalArgumentException e) {
+			System.out.println("Unknown transformation: " + args[0]);
+			return;
+		}
+		int size = parseInt(args, 3, 5);
+		int threads = parseInt(args, 4, Runtime.getRuntime().availableProcessors());
+
+		List<Path> inputs;
+		try {
+			inputs = listInputs(args[1]);
+			Files.createDirectories(Paths.get(args[2]));
+		} catch(IOException e) {
+			System.out.println("The input images could not be listed: " + e.getMessage());
+			return;
+		}
+
+		MorphologicalOperator operator = MorphologicalOperator.compile(type, Mat.ones(size, size, CvType.CV_8UC1), null);
+		BatchMorphology batch = new BatchMorphology(operator, Paths.get(args[2]), threads);
+
+		System.out.println("Beginning batch " + args[0] + " of " + inputs.size() + " images");
+		long elapsed;
+		try {
+			elapsed = batch.process(inputs);
+		} catch(IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		List<String> failures = batch.getFailures();
+		for(String failure : failures) {
+			System.out.println(failure);
+		}
+		double rate = elapsed > 0 ? inputs.size() * 1000.0 / elapsed : 0;
+		System.out.println("Batch finished. Time elapsed: " + elapsed + " ms (" + String.format(Locale.ROOT, "%.1f", rate)
+				+ " images/s). Failed images: " + failures.size());
+	}
+
+	/**
+	 * Creates a batch that writes the processed images into a directory, using the same filenames as the input images.
+	 * If several input images have the same filename (e.g., images of different directories given in a text file), only
+	 * the first one is processed and the others fail, so no processed image is overwritten. The output directory cannot
+	 * contain any input image (see {@link #process(List)}), so no input image is overwritten either.
+	 *
+	 * @param operator the compiled transformation.
+	 * @param outputDirectory the directory where the processed images are written.
+	 * @param threads the number of threads of every stage.
+	 */
+	public BatchMorphology(MorphologicalOperator operator, Path outputDirectory, int threads) {
+		this.operator = operator;
+		this.outputDirectory = outputDirectory;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Processes all the images and waits until all of them are written (or have failed).
+	 * Before any image is read, the run is rejected if the output directory is the directory of an input image (or the
+	 * same directory through another path, e.g., a link) or an output path is the path of an input image, since the
+	 * input image would be overwritten while it may still be read.
+	 *
+	 * @param inputs the images to process.
+	 * @return the time to process all the images, in milliseconds.
+	 * @throws IllegalArgumentException if an output image would overwrite an input image.
+	 */
+	public long process(List<Path> inputs) {
+		long begin = System.currentTimeMillis();
+
+		Set<Path> inputPaths = new HashSet<>();
+		Set<Path> directories = new HashSet<>();
+		for(Path input : inputs) {
+			Path absolute = input.toAbsolutePath().normalize();
+			inputPaths.add(absolute);
+			//Every directory is compared once, since many images usually share it.
+			Path directory = absolute.getParent();
+			if(directory != null && directories.add(directory) && isSameFile(outputDirectory, directory))
+				throw new IllegalArgumentException("The output directory " + outputDirectory + " is the directory of the input image "
+						+ input + ", which would be overwritten");
+		}
+
+		ConcurrentLinkedQueue<Item> pending = new ConcurrentLinkedQueue<>();
+		Map<Path, Path> outputs = new HashMap<>();
+		for(Path input : inputs) {
+			Item item = new Item(input, outputDirectory.resolve(input.getFileName()));
+			if(inputPaths.contains(item.output.toAbsolutePath().normalize()))
+				throw new IllegalArgumentException("The output " + item.output + " of " + input + " is an input image, which would be overwritten");
+			//The images whose output is already used by another image fail without being read.
+			Path previous = outputs.putIfAbsent(item.output, input);
+			if(previous != null)
+				item.error = "the output " + item.output + " is also the output of " + previous;
+			pending.add(item);
+		}
+		//The queues are bounded, so the decoders wait when the processors are slower and the memory used is bounded.
+		BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(2 * threads);
+		BlockingQueue<Item> processed = new ArrayBlockingQueue<>(2 * threads);
+		//Every stage handles all the images (even the failed ones), so every stage knows when it is finished.
+		AtomicInteger toProcess = new AtomicInteger(inputs.size());
+		AtomicInteger toEncode = new AtomicInteger(inputs.size());
+
+		List<Thread> workers = new ArrayList<>();
+		for(int t = 0; t<threads; t++) {
+			workers.add(new Thread(() -> decode(pending, decoded), "batch-decode-" + t));
+			workers.add(new Thread(() -> transform(toProcess, decoded, processed), "batch-process-" + t));
+			workers.add(new Thread(() -> encode(toEncode, processed), "batch-encode-" + t));
+		}
+		for(Thread worker : workers) {
+			worker.start();
+		}
+		for(Thread worker : workers) {
+			try {
+				worker.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for(Thread other : workers) {
+					other.interrupt();
+				}
+				break;
+			}
+		}
+
+		long end = System.currentTimeMillis();
+		return end - begin;
+	}
+
+	/**
+	 * Indicates if two paths locate the same file. If any of them does not exist (e.g., the output directory of a new
+	 * batch), their absolute normalized paths are compared instead.
+	 *
+	 * @param first the first path.
+	 * @param second the second path.
+	 * @return true if both paths locate the same file.
+	 */
+	private static boolean isSameFile(Path first, Path second) {
+		try {
+			return Files.isSameFile(first, second);
+		} catch(IOException e) {
+			return first.toAbsolutePath().normalize().equals(second.toAbsolutePath().normalize());
+		}
+	}
+
+	/**
+	 * Gets the errors of the images that failed, one message per image.
+	 *
+	 * @return the error messages.
+	 */
+	public List<String> getFailures() {
+		List<String> list = new ArrayList<>(failures);
+		Collections.sort(list);
+		return list;
+	}
+
+	/**
+	 * Reads images until there are no more images to read.
+	 *
+	 * @param pending the images that have not been read yet.
+	 * @param decoded the queue of the read images.
+	 */
+	private void decode(ConcurrentLinkedQueue<Item> pending, BlockingQueue<Item> decoded) {
+		try {
+			Item item;
+			while((item = pending.poll()) != null) {
+				if(item.error == null) {
+					try {
+						item.image = Imgcodecs.imread(item.input.toString(), Dilation.READ_FLAGS);
+						if(item.image.empty())
+							item.error = "the image could not be read";
+					} catch(Throwable e) {
+						//Any error is kept with the image, since the next stages wait for all the images.
+						item.error = e.toString();
+					}
+				}
+				decoded.put(item);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Processes images until all of them have been processed.
+	 *
+	 * @param remaining the number of images that have not been taken by any processing thread.
+	 * @param decoded the queue of the read images.
+	 * @param processed the queue of the processed images.
+	 */
+	private void transform(AtomicInteger remaining, BlockingQueue<Item> decoded, BlockingQueue<Item> processed) {
+		try {
+			while(remaining.getAndDecrement() > 0) {
+				Item item = decoded.take();
+				if(item.error == null) {
+					try {
+						Mat result = operator.apply(item.image);
+						item.image.release();
+						item.image = result;
+					} catch(Throwable e) {
+						item.error = e.toString();
+					}
+				}
+				processed.put(item);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes images until all of them have been written.
+	 *
+	 * @param remaining the number of images that have not been taken by any encoding thread.
+	 * @param processed the queue of the processed images.
+	 */
+	private void encode(AtomicInteger remaining, BlockingQueue<Item> processed) {
+		try {
+			while(remaining.getAndDecrement() > 0) {
+				Item item = processed.take();
+				if(item.error == null) {
+					try {
+						if(!Imgcodecs.imwrite(item.output.toString(), item.image))
+							item.error = "the image could not be written";
+					} catch(Throwable e) {
+						item.error = e.toString();
+					}
+				}
+				if(item.image != null)
+					item.image.release();
+				if(item.error != null)
+					failures.add(item.input + ": " + item.error);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Lists the images to process. The argument can be a directory (all its files are used), a glob pattern in the last
+	 * part of the path (e.g., "scans/*.png") or a text file with the path of one image per line. The relative paths of the
+	 * text file are resolved against the directory of the text file, not the working directory, so the same text file
+	 * gives the same images wherever the batch is run from.
+	 *
+	 * @param spec the images to process.
+	 * @return the paths of the images, sorted.
+	 * @throws IOException if the directory or the text file cannot be read.
+	 */
+	public static List<Path> listInputs(String spec) throws IOException {
+		List<Path> inputs = new ArrayList<>();
+		Path path = Paths.get(spec);
+		String name = path.getFileName() != null ? path.getFileName().toString() : "";
+		if(name.contains("*") || name.contains("?") || name.contains("[") || name.contains("{")) {
+			Path directory = path.getParent() != null ? path.getParent() : Paths.get(".");
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, name)) {
+				for(Path file : stream) {
+					if(Files.isRegularFile(file))
+						inputs.add(file);
+				}
+			}
+		}
+		else if(Files.isDirectory(path)) {
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+				for(Path file : stream) {
+					if(Files.isRegularFile(file))
+						inputs.add(file);
+				}
+			}
+		}
+		else {
+			//A manifest: one path per line. Empty lines and lines beginning with # are ignored.
+			Path directory = path.toAbsolutePath().getParent();
+			for(String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+				line = line.trim();
+				if(!line.isEmpty() && !line.startsWith("#"))
+					inputs.add(directory.resolve(line).normalize());
+			}
+		}
+		Collections.sort(inputs);
+		return inputs;
+	}
+
+	/**
+	 * Parses an optional integer argument.
+	 *
+	 * @param args the arguments of the main method.
+	 * @param index the index of the argument.
+	 * @param defaultValue the value used if the argument is not given or it is not a number.
+	 * @return the value of the argument.
+	 */
+	private static int parseInt(String[] args, int index, int defaultValue) {
+		if(args.length <= index)
+			return defaultValue;
+		try {
+			return Integer.parseInt(args[index]);
+		} catch(NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * Performs black-hat transformation of an image. This class loads an image and process the black-hat transformation
+ * with a specific kernel. The black-hat is the closing of the image minus the image, which keeps the dark details smaller than the structural element.
+ * If no kernel information is given, a default will be used (a 5x5 square). When the
+ * the transformation is finished, the image will be saved in the location of the user preference. 
+ * 
+ * This transformation can be applied to grayscale or color images, where the transformation is applied
+ * to the RGB channels.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public class BlackHat extends Dilation{
+
+	public static void main(String[] args) {
+		loadLibrary(args);
+		BlackHat blackHat = new BlackHat(args);
+
+		System.out.println("Beginning black-hat");
+		long elapsed = blackHat.isStreaming() ? blackHat.performStreaming() : blackHat.perform();
+		blackHat.saveImage();
+		System.out.println("Black-hat finished. Time elapsed: " + elapsed + " ms");
+	}
+
+	/**
+	 * Creates a black-hat object with a square flat structural element. The anchor point of this transformation will be the center of the structural element.
+	 *
+	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
+	 *             An optional third element can be used for giving the size of the structural element. If not, a 5x5 square will be used.
+	 */
+	public BlackHat(String[] args) {
+		super(args);
+	}
+
+	/**
+	 * Creates a black-hat object with a given structural element. The anchor point of this transformation will be the center of the structural element.
+	 *
+	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
+	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 */
+	public BlackHat(String[] args, Mat structuralElement){
+		super(args, structuralElement);
+	}
+
+	/**
+	 * Creates a black-hat object with a given structural element and an anchor point (the center of the structural element).
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
+	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
+	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public BlackHat(String[] args, Mat structuralElement, Point anchorPoint) {
+		super(args, structuralElement, anchorPoint);
+	}
+
+	/**
+	 * Creates a black-hat object with a given structural element and an anchor point (the center of the structural element).
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param src a Mat object containing the image.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
+	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public BlackHat(Mat src, Mat structuralElement, Point anchorPoint) {
+		super(src, structuralElement, anchorPoint);
+	}
+
+	/**
+	 * Creates a black-hat object over an image stored in a Java array, so it is performed without the native library of OpenCV.
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param src the image to process.
+	 * @param structuralElement the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeightValues(int[])}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public BlackHat(ArrayImage src, ArrayImage structuralElement, Point anchorPoint) {
+		super(src, structuralElement, anchorPoint);
+	}
+
+	/**
+	 * Performs the transformation. 
+	 *
+	 * @return the time to do the processing, in milliseconds.
+	 */
+	@Override
+	public long perform() {
+		//The black-hat can be defined as: h = (f . b) - f.
+		long begin = System.currentTimeMillis();
+		//The closing is fused over a rolling window of rows and the source row is subtracted from every finished row,
+		//so neither the dilated image nor the closing is stored.
+		Instrumentation.Recorder recorder = startRecording();
+		MorphologicalOperator operator = compile(recorder);
+		fuse(operator, recorder);
+		long end = System.currentTimeMillis();
+		return end - begin;
+	}
+
+	/**
+	 * Gets the transformation performed by this class. It is used to compile the structural element.
+	 *
+	 * @return the type of the transformation.
+	 */
+	@Override
+	protected MorphologicalOperator.Type getType() {
+		return MorphologicalOperator.Type.BLACK_HAT;
+	}
+}
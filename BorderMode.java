@@ -0,0 +1,120 @@
+import org.opencv.core.Core;
+
+import java.util.Arrays;
+
+/**
+ * How a transformation reads the pixels outside the image, e.g., the neighbors of the pixels of the first row.
+ * With {@link #IGNORE} the outside pixels are not part of the neighborhood, so the kernels clip every offset to the image
+ * (see {@link MorphologyEngine}). With the other modes, every step of the transformation reads its input image extended
+ * by the extent of its structural element (e.g., the erotion and the dilation of an opening are extended separately),
+ * so the kernels process the extended image as a whole and the limits of the image are never checked.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public enum BorderMode {
+	/**
+	 * The pixels outside the image are ignored: the max and the min are computed only with the neighbors within the image.
+	 * It is the default mode.
+	 */
+	IGNORE,
+	/**
+	 * The pixels outside the image take a constant value, e.g., 0 so the dilation is not affected and the erotion makes
+	 * the objects that touch the limits of the image smaller.
+	 */
+	CONSTANT,
+	/**
+	 * The pixels outside the image take the value of the closest pixel of the image: aaa|abcd|ddd.
+	 */
+	REPLICATE,
+	/**
+	 * The pixels outside the image are the reflection of the image around its first and last pixels, which are not
+	 * repeated: dcb|abcd|cba. An image with a single row (or column) is replicated instead.
+	 */
+	REFLECT;
+
+	/**
+	 * Indicates if the pixels outside the image take their values from the pixels of the image, so a change near the
+	 * limits of the image also changes the pixels outside.
+	 *
+	 * @return true for REPLICATE and REFLECT.
+	 */
+	boolean readsImage() {
+		return this == REPLICATE || this == REFLECT;
+	}
+
+	/**
+	 * Gets the border type of OpenCV that extends an image like this mode (see Core.copyMakeBorder).
+	 *
+	 * @return the border type.
+	 * @throws IllegalStateException if the mode is IGNORE, which does not extend the image.
+	 */
+	int toBorderType() {
+		switch(this) {
+		case CONSTANT:
+			return Core.BORDER_CONSTANT;
+		case REPLICATE:
+			return Core.BORDER_REPLICATE;
+		case REFLECT:
+			return Core.BORDER_REFLECT_101;
+		default:
+			throw new IllegalStateException("The image is not extended when the pixels outside are ignored");
+		}
+	}
+
+	/**
+	 * Gets the index of the pixel of the image read by a position outside the image.
+	 *
+	 * @param p the position, which can be outside the image.
+	 * @param n the number of positions of the image.
+	 * @return the index of the pixel within the image, or -1 if the position takes the constant value.
+	 */
+	int source(int p, int n) {
+		if(p >= 0 && p < n)
+			return p;
+		if(this == CONSTANT)
+			return -1;
+		if(this == REPLICATE || n == 1)
+			return Math.max(0, Math.min(n - 1, p));
+		//The reflections repeat every 2 * (n - 1) positions, so the positions far from the image are reflected again.
+		int period = 2 * (n - 1);
+		p = Math.floorMod(p, period);
+		return p < n ? p : period - p;
+	}
+
+	/**
+	 * Extends an 8-bit image by some pixels on every side. The pixels of every row of the image are copied at once, and
+	 * only the pixels of the border are computed one by one.
+	 *
+	 * @param src the pixels of the image.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param top the number of rows added above the image.
+	 * @param bottom the number of rows added below the image.
+	 * @param left the number of columns added before the image.
+	 * @param right the number of columns added after the image.
+	 * @param value the value of the pixels outside the image in the CONSTANT mode.
+	 * @param dst the buffer where the extended image is written, with (rows + top + bottom) * (cols + left + right) * channels values.
+	 */
+	void extend(byte[] src, int rows, int cols, int channels, int top, int bottom, int left, int right, byte value, byte[] dst) {
+		int rowLength = cols * channels;
+		int extendedLength = (cols + left + right) * channels;
+		for(int i = 0; i<rows + top + bottom; i++) {
+			int o = i * extendedLength;
+			int r = source(i - top, rows);
+			if(r < 0) {
+				Arrays.fill(dst, o, o + extendedLength, value);
+				continue;
+			}
+			System.arraycopy(src, r * rowLength, dst, o + left * channels, rowLength);
+			for(int j = 0; j<left + right; j++) {
+				//The columns before the image are the first ones of the extended row and the columns after it are the last ones.
+				int q = j < left ? j : cols + j;
+				int c = source(q - left, cols);
+				for(int k = 0; k<channels; k++) {
+					dst[o + q * channels + k] = c < 0 ? value : src[r * rowLength + c * channels + k];
+				}
+			}
+		}
+	}
+}
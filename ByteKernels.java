@@ -0,0 +1,140 @@
+/**
+ * The loops over rows of unsigned bytes shared by the morphological transformations: the max (or the min) of two rows,
+ * the max (or the min) of a row plus a constant, and the saturated difference of two rows. Since the channels of a pixel
+ * are interleaved, the same loops process grayscale and color images.
+ * Every loop has a scalar implementation and a vectorized one (see {@link VectorKernels}), which processes as many
+ * bytes with every instruction as a SIMD register holds (32 with AVX2, 64 with AVX-512). The vectorized loops are used
+ * when the module jdk.incubator.vector is loaded, i.e., when the JVM is started with "--add-modules jdk.incubator.vector";
+ * otherwise the scalar ones are used. Both give the same results. The scalar loops can also be chosen with the system
+ * property "morphology.kernels=scalar" (see {@link #KERNELS_PROPERTY}), e.g., to compare both in the same JVM options.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+final class ByteKernels {
+
+	/**
+	 * The system property that chooses the loops: "scalar" uses the scalar ones even if the Vector API is present. It is
+	 * read when the class is loaded, so it must be set before the first transformation.
+	 */
+	static final String KERNELS_PROPERTY = "morphology.kernels";
+
+	//True if the loops are computed with the Vector API.
+	private static final boolean VECTORIZED = loadVectorKernels();
+
+	private ByteKernels() {
+	}
+
+	/**
+	 * Checks if the Vector API can be used. The class of the vectorized loops is only loaded if its module is present
+	 * and the scalar loops are not chosen, so the JVM never resolves the classes of the Vector API when it is not.
+	 *
+	 * @return true if the vectorized loops are used.
+	 */
+	private static boolean loadVectorKernels() {
+		if("scalar".equals(System.getProperty(KERNELS_PROPERTY)))
+			return false;
+		if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+			return false;
+		try {
+			//Without SIMD registers of 128 bits at least, the Vector API is emulated and it is slower than the scalar loops.
+			return VectorKernels.lanes() >= 16;
+		} catch(LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Indicates if the loops are computed with the Vector API.
+	 *
+	 * @return true if the vectorized loops are used, false if the scalar ones are used.
+	 */
+	static boolean isVectorized() {
+		return VECTORIZED;
+	}
+
+	/**
+	 * Gets the minimum number of bytes that is worth processing with a vectorized loop.
+	 *
+	 * @return the number of bytes of a SIMD register, or Integer.MAX_VALUE if the scalar loops are used.
+	 */
+	static int vectorLength() {
+		return VECTORIZED ? VectorKernels.lanes() : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Computes the max (or the min) of two rows of unsigned bytes. The output row can be one of the input rows.
+	 *
+	 * @param a the first input buffer.
+	 * @param aOffset the index of the first value in the first input buffer.
+	 * @param b the second input buffer.
+	 * @param bOffset the index of the first value in the second input buffer.
+	 * @param dst the output buffer.
+	 * @param dstOffset the index of the first value in the output buffer.
+	 * @param length the number of values.
+	 * @param max true for computing the max, false for the min.
+	 */
+	static void extreme(byte[] a, int aOffset, byte[] b, int bOffset, byte[] dst, int dstOffset, int length, boolean max) {
+		if(VECTORIZED) {
+			VectorKernels.extreme(a, aOffset, b, bOffset, dst, dstOffset, length, max);
+			return;
+		}
+		for(int t = 0; t<length; t++) {
+			dst[dstOffset + t] = MorphologyEngine.extreme(a[aOffset + t], b[bOffset + t], max);
+		}
+	}
+
+	/**
+	 * Reduces a row with a row of source values plus a constant, saturating the sums to 0 and 255. It is the inner loop of
+	 * the non-flat structural elements.
+	 *
+	 * @param src the source buffer.
+	 * @param srcOffset the index of the first source value.
+	 * @param dst the buffer of the reduced row, where the result is written.
+	 * @param dstOffset the index of the first value of the reduced row.
+	 * @param length the number of values.
+	 * @param height the constant added to the source values (negative in the erotion).
+	 * @param max true for computing the max, false for the min.
+	 */
+	static void weighted(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length, int height, boolean max) {
+		if(VECTORIZED) {
+			VectorKernels.weighted(src, srcOffset, dst, dstOffset, length, height, max);
+			return;
+		}
+		if(max) {
+			for(int t = 0; t<length; t++) {
+				int v = Math.min(255, Math.max(0, (src[srcOffset + t] & 0xFF) + height));
+				if(v > (dst[dstOffset + t] & 0xFF))
+					dst[dstOffset + t] = (byte)v;
+			}
+		}
+		else {
+			for(int t = 0; t<length; t++) {
+				int v = Math.min(255, Math.max(0, (src[srcOffset + t] & 0xFF) + height));
+				if(v < (dst[dstOffset + t] & 0xFF))
+					dst[dstOffset + t] = (byte)v;
+			}
+		}
+	}
+
+	/**
+	 * Subtracts a row of unsigned bytes from another, saturating the differences to 0. The output row can be one of the
+	 * input rows.
+	 *
+	 * @param a the buffer of the minuend.
+	 * @param aOffset the index of the first minuend.
+	 * @param b the buffer of the subtrahend.
+	 * @param bOffset the index of the first subtrahend.
+	 * @param dst the output buffer.
+	 * @param dstOffset the index of the first value in the output buffer.
+	 * @param length the number of values.
+	 */
+	static void difference(byte[] a, int aOffset, byte[] b, int bOffset, byte[] dst, int dstOffset, int length) {
+		if(VECTORIZED) {
+			VectorKernels.difference(a, aOffset, b, bOffset, dst, dstOffset, length);
+			return;
+		}
+		for(int t = 0; t<length; t++) {
+			dst[dstOffset + t] = (byte)Math.max(0, (a[aOffset + t] & 0xFF) - (b[bOffset + t] & 0xFF));
+		}
+	}
+}
@@ -0,0 +1,359 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+/**
+ * Runs the morphological transformations over images whose depth is not 8 bits: 16-bit unsigned (CV_16U, e.g., microscopy
+ * images), 16-bit signed (CV_16S), 32-bit floating point (CV_32F, e.g., depth maps) and 64-bit floating point (CV_64F).
+ * The image is copied from the Mat into an array of its own primitive type with a single bulk get, processed by the kernels
+ * of that type ({@link ShortMorphology}, {@link FloatMorphology} or {@link DoubleMorphology}) and written back with a single
+ * put, so the values are never converted to 8 bits, boxed or processed through generic code.
+ * The unsigned 16-bit values are moved to the signed range flipping their highest bit (v ^ 0x8000 = v - 32768), which
+ * keeps their order, so they are processed by the same kernels as the signed ones.
+ * The integer depths are saturated like the 8-bit images: the pixels that are not reached by the structural element become
+ * the min (dilation) or the max (erotion) of the depth, and the heights of a non-flat structural element are saturated to its range.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class DepthMorphology {
+
+	private DepthMorphology() {
+	}
+
+	/**
+	 * Indicates if the images of a depth are processed by this class.
+	 *
+	 * @param depth the depth of the image (e.g., CvType.CV_16U).
+	 * @return true for CV_16U, CV_16S, CV_32F and CV_64F.
+	 */
+	public static boolean isSupported(int depth) {
+		return depth == CvType.CV_16U || depth == CvType.CV_16S || depth == CvType.CV_32F || depth == CvType.CV_64F;
+	}
+
+	/**
+	 * Applies several transformations, one after the other, to an image and combines the result with the source image.
+	 * The destination can be the source image itself.
+	 *
+	 * @param src the image to process. Its depth must be CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @param dst the Mat where the processed image is written. It is created with the size and the type of the source image.
+	 * @param steps the transformations to apply, in order. There must be at least one.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 */
+	public static void apply(Mat src, Mat dst, RollingStage.Step[] steps, MorphologyEngine.Residue residue, RowBands bands) {
+		int depth = src.depth();
+		if(!isSupported(depth))
+			throw new IllegalArgumentException("The depth of the image is not supported: " + depth);
+		if(src.total() == 0) {
+			src.copyTo(dst);
+			return;
+		}
+		int rows = src.rows();
+		int cols = src.cols();
+		int channels = src.channels();
+		int length = (int)src.total() * channels;
+
+		//The source image is read before the destination is created, so both can be the same Mat.
+		if(depth == CvType.CV_16U || depth == CvType.CV_16S) {
+			boolean unsigned = depth == CvType.CV_16U;
+			short[] pixels = read(src, new short[length]);
+			if(unsigned)
+				flip(pixels);
+			short[] result = new short[length];
+			ShortMorphology.apply(pixels, result, rows, cols, channels, steps, residue, unsigned, bands);
+			if(unsigned)
+				flip(result);
+			dst.create(rows, cols, src.type());
+			write(dst, result);
+		}
+		else if(depth == CvType.CV_32F) {
+			float[] pixels = read(src, new float[length]);
+			float[] result = new float[length];
+			FloatMorphology.apply(pixels, result, rows, cols, channels, steps, residue, bands);
+			dst.create(rows, cols, src.type());
+			write(dst, result);
+		}
+		else {
+			double[] pixels = read(src, new double[length]);
+			double[] result = new double[length];
+			DoubleMorphology.apply(pixels, result, rows, cols, channels, steps, residue, bands);
+			dst.create(rows, cols, src.type());
+			write(dst, result);
+		}
+	}
+
+	/**
+	 * Applies several transformations, one after the other, extending the input of every step by the extent of its
+	 * structural elements with a border mode (see {@link BorderMode}). Every extended image is processed as a whole and
+	 * only the pixels of the image are kept, so the kernels never reach the limits of the image.
+	 *
+	 * @param src the image to process. Its depth must be CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @param dst the Mat where the processed image is written. It is created with the size and the type of the source image.
+	 * @param steps the transformations to apply, in order. There must be at least one.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param margins the extent of every step (see {@link Footprint}).
+	 * @param border how the pixels outside the image are read.
+	 * @param value the value of the pixels outside the image in the CONSTANT mode.
+	 */
+	static void apply(Mat src, Mat dst, RollingStage.Step[] steps, MorphologyEngine.Residue residue, RowBands bands,
+			Footprint[] margins, BorderMode border, double value) {
+		if(border == BorderMode.IGNORE || src.total() == 0) {
+			apply(src, dst, steps, residue, bands);
+			return;
+		}
+		if(!isSupported(src.depth()))
+			throw new IllegalArgumentException("The depth of the image is not supported: " + src.depth());
+
+		Mat input = src;
+		for(int n = 0; n<steps.length; n++) {
+			Footprint margin = margins[n];
+			Mat extended = new Mat();
+			Core.copyMakeBorder(input, extended, margin.top(), margin.bottom(), margin.left(), margin.right(), border.toBorderType(),
+					Scalar.all(value));
+			Mat processed = new Mat();
+			apply(extended, processed, new RollingStage.Step[] { steps[n] }, MorphologyEngine.Residue.NONE, bands);
+			input = processed.submat(new Rect(margin.left(), margin.top(), src.cols(), src.rows()));
+		}
+		combine(src, input, residue, dst);
+	}
+
+	/**
+	 * Combines a processed image with its source image, like the transformations do it with the kernels of every depth.
+	 *
+	 * @param src the source image.
+	 * @param result the processed image. It must not be the destination.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param dst the Mat where the combination is written. It can be the source image.
+	 */
+	private static void combine(Mat src, Mat result, MorphologyEngine.Residue residue, Mat dst) {
+		if(residue == MorphologyEngine.Residue.NONE) {
+			result.copyTo(dst);
+			return;
+		}
+		int depth = src.depth();
+		int length = (int)src.total() * src.channels();
+		if(depth == CvType.CV_16U || depth == CvType.CV_16S) {
+			boolean unsigned = depth == CvType.CV_16U;
+			short[] pixels = read(src, new short[length]);
+			short[] values = read(result, new short[length]);
+			if(unsigned) {
+				flip(pixels);
+				flip(values);
+			}
+			ShortMorphology.combine(pixels, values, residue, unsigned);
+			if(unsigned)
+				flip(values);
+			dst.create(src.rows(), src.cols(), src.type());
+			write(dst, values);
+		}
+		else if(depth == CvType.CV_32F) {
+			float[] pixels = read(src, new float[length]);
+			float[] values = read(result, new float[length]);
+			FloatMorphology.combine(pixels, values, residue);
+			dst.create(src.rows(), src.cols(), src.type());
+			write(dst, values);
+		}
+		else {
+			double[] pixels = read(src, new double[length]);
+			double[] values = read(result, new double[length]);
+			DoubleMorphology.combine(pixels, values, residue);
+			dst.create(src.rows(), src.cols(), src.type());
+			write(dst, values);
+		}
+	}
+
+	/**
+	 * Gets a short name of a depth, used by the instrumentation.
+	 *
+	 * @param depth the depth of the image.
+	 * @return the name of the depth, e.g., "16U".
+	 */
+	static String describe(int depth) {
+		switch(depth) {
+		case CvType.CV_16U:
+			return "16U";
+		case CvType.CV_16S:
+			return "16S";
+		case CvType.CV_32F:
+			return "32F";
+		case CvType.CV_64F:
+			return "64F";
+		default:
+			return "8U";
+		}
+	}
+
+	/**
+	 * Copies all the values of an image of any supported depth (or an 8-bit image) into a double array. Every value is
+	 * represented exactly, so the algorithms that only compare the values give the same results as with the original type.
+	 *
+	 * @param src the image.
+	 * @return the values, in row-major order with the channels interleaved.
+	 */
+	static double[] toDoubles(Mat src) {
+		int length = (int)src.total() * src.channels();
+		double[] values = new double[length];
+		switch(src.depth()) {
+		case CvType.CV_8U:
+			byte[] bytes = MorphologyEngine.toArray(src);
+			for(int o = 0; o<length; o++) {
+				values[o] = bytes[o] & 0xFF;
+			}
+			break;
+		case CvType.CV_16U:
+		case CvType.CV_16S:
+			short[] shorts = read(src, new short[length]);
+			boolean unsigned = src.depth() == CvType.CV_16U;
+			for(int o = 0; o<length; o++) {
+				values[o] = unsigned ? shorts[o] & 0xFFFF : shorts[o];
+			}
+			break;
+		case CvType.CV_32F:
+			float[] floats = read(src, new float[length]);
+			for(int o = 0; o<length; o++) {
+				values[o] = floats[o];
+			}
+			break;
+		default:
+			read(src, values);
+		}
+		return values;
+	}
+
+	/**
+	 * Writes values obtained with {@link #toDoubles(Mat)} into a new Mat with the type of another one. The values must be
+	 * within the range of the type.
+	 *
+	 * @param values the values, in row-major order with the channels interleaved.
+	 * @param like the Mat whose size and type are used.
+	 * @return a new Mat with the values.
+	 */
+	static Mat toMat(double[] values, Mat like) {
+		Mat dst = new Mat(like.rows(), like.cols(), like.type());
+		switch(like.depth()) {
+		case CvType.CV_8U:
+			byte[] bytes = new byte[values.length];
+			for(int o = 0; o<values.length; o++) {
+				bytes[o] = (byte)(int)values[o];
+			}
+			MatBuffer.wrap(dst).put(bytes);
+			break;
+		case CvType.CV_16U:
+		case CvType.CV_16S:
+			short[] shorts = new short[values.length];
+			for(int o = 0; o<values.length; o++) {
+				shorts[o] = (short)(int)values[o];
+			}
+			write(dst, shorts);
+			break;
+		case CvType.CV_32F:
+			float[] floats = new float[values.length];
+			for(int o = 0; o<values.length; o++) {
+				floats[o] = (float)values[o];
+			}
+			write(dst, floats);
+			break;
+		default:
+			write(dst, values);
+		}
+		return dst;
+	}
+
+	/**
+	 * Flips the highest bit of every value, moving the unsigned values to the signed range and back.
+	 *
+	 * @param values the values, flipped in place.
+	 */
+	private static void flip(short[] values) {
+		for(int o = 0; o<values.length; o++) {
+			values[o] ^= Short.MIN_VALUE;
+		}
+	}
+
+	//The values are read and written with a single call for the continuous Mats and row by row for the regions of interest,
+	//whose rows are separated by the step of their parent.
+
+	private static short[] read(Mat src, short[] values) {
+		if(src.isContinuous()) {
+			src.get(0, 0, values);
+			return values;
+		}
+		int rowLength = src.cols() * src.channels();
+		short[] row = new short[rowLength];
+		for(int i = 0; i<src.rows(); i++) {
+			src.get(i, 0, row);
+			System.arraycopy(row, 0, values, i * rowLength, rowLength);
+		}
+		return values;
+	}
+
+	private static float[] read(Mat src, float[] values) {
+		if(src.isContinuous()) {
+			src.get(0, 0, values);
+			return values;
+		}
+		int rowLength = src.cols() * src.channels();
+		float[] row = new float[rowLength];
+		for(int i = 0; i<src.rows(); i++) {
+			src.get(i, 0, row);
+			System.arraycopy(row, 0, values, i * rowLength, rowLength);
+		}
+		return values;
+	}
+
+	private static double[] read(Mat src, double[] values) {
+		if(src.isContinuous()) {
+			src.get(0, 0, values);
+			return values;
+		}
+		int rowLength = src.cols() * src.channels();
+		double[] row = new double[rowLength];
+		for(int i = 0; i<src.rows(); i++) {
+			src.get(i, 0, row);
+			System.arraycopy(row, 0, values, i * rowLength, rowLength);
+		}
+		return values;
+	}
+
+	private static void write(Mat dst, short[] values) {
+		if(dst.isContinuous()) {
+			dst.put(0, 0, values);
+			return;
+		}
+		int rowLength = dst.cols() * dst.channels();
+		short[] row = new short[rowLength];
+		for(int i = 0; i<dst.rows(); i++) {
+			System.arraycopy(values, i * rowLength, row, 0, rowLength);
+			dst.put(i, 0, row);
+		}
+	}
+
+	private static void write(Mat dst, float[] values) {
+		if(dst.isContinuous()) {
+			dst.put(0, 0, values);
+			return;
+		}
+		int rowLength = dst.cols() * dst.channels();
+		float[] row = new float[rowLength];
+		for(int i = 0; i<dst.rows(); i++) {
+			System.arraycopy(values, i * rowLength, row, 0, rowLength);
+			dst.put(i, 0, row);
+		}
+	}
+
+	private static void write(Mat dst, double[] values) {
+		if(dst.isContinuous()) {
+			dst.put(0, 0, values);
+			return;
+		}
+		int rowLength = dst.cols() * dst.channels();
+		double[] row = new double[rowLength];
+		for(int i = 0; i<dst.rows(); i++) {
+			System.arraycopy(values, i * rowLength, row, 0, rowLength);
+			dst.put(i, 0, row);
+		}
+	}
+}
@@ -2,11 +2,18 @@ import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.core.Scalar;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Performs dilation transformation of an image. This class loads an image and process the dilation transformation
@@ -15,26 +22,73 @@ import java.util.ArrayList;
  * This class is the parent of all the other morphological transformations, since all of them can be derived from this 
  * transformation.
  * This and all derived transformations can be applied to grayscale or color images, where the transformation is applied
- * to the RGB channels.
+ * to the RGB channels. Besides the 8-bit images, the 16-bit (unsigned or signed) and the floating point images are
+ * processed with their own depth (see {@link DepthMorphology}).
+ * The structural element is flat by default. If heights are given (see {@link #setHeights(Mat)}), the transformation becomes
+ * a grayscale one: the heights are added to the pixels in the dilation and subtracted in the erotion (e.g., for the
+ * rolling-ball background subtraction). All the derived transformations use the heights.
+ * If the "--stream" option is given after the file names, the image is read, processed and written row by row (only binary
+ * PGM and PPM files), so images that do not fit in memory can be processed.
+ * If the "--java" option is given, the native library of OpenCV is not loaded: the image is read, processed and written as
+ * a Java array (see {@link ArrayImage}), so only PGM/PPM files and the formats of javax.imageio (e.g., PNG) are supported.
+ * The same backend is used when the transformation is created with an ArrayImage.
+ * The inner loops are vectorized when the JVM is started with "--add-modules jdk.incubator.vector" (see {@link ByteKernels}),
+ * and the rows of the Mats are accessed without native calls when it is started with "--add-modules jdk.incubator.foreign
+ * --enable-native-access=ALL-UNNAMED" (see {@link MatBuffer}). The options to compile and run are listed in README.md.
+ * By default, the transformation is performed in the calling thread. A parallelism greater than 1 splits the rows of the
+ * image into bands that are processed at the same time (see {@link RowBands}), giving the same result.
+ * For a sequence of images that only change in some regions (e.g., the frames of a camera), the processed image can be
+ * updated recomputing only the pixels affected by the changes (see {@link #performIncremental(Mat, Rect...)}).
  *
  * @author Brian Kostadinov Shalon Isaac Medina
  */
 public class Dilation {
 
+	/**
+	 * The option of the main methods used to process the image row by row.
+	 */
+	public static final String STREAM_OPTION = "--stream";
+	/**
+	 * The option of the main methods used to process the image without the native library of OpenCV.
+	 */
+	public static final String JAVA_OPTION = "--java";
+	/**
+	 * The flags used to read the images: the color images are read as BGR (and the grayscale ones are converted to BGR),
+	 * but the depth of the file is kept, so the 16-bit images are not truncated to 8 bits.
+	 */
+	public static final int READ_FLAGS = Imgcodecs.IMREAD_COLOR | Imgcodecs.IMREAD_ANYDEPTH;
+
 	protected Mat image;
 	protected Mat structuralElement;
 	protected Point anchorPoint;
+	protected Mat heights;
 	protected Mat dst;
-
+	//The image, the structural element, its heights and the processed image when the Java backend is used.
+	protected ArrayImage arrayImage;
+	protected ArrayImage arrayStructuralElement;
+	protected int[] heightValues;
+	protected ArrayImage arrayDst;
+	protected int parallelism = 1;
+	protected ExecutorService executor;
+	protected BorderMode borderMode = BorderMode.IGNORE;
+	protected double borderValue;
+
+	private MorphologicalOperator operator;
+	//The recorder of the stages, created when the image is read so the reading is included in the metrics of perform.
+	private Instrumentation.Recorder recorder;
+
+	private String input;
 	private String output;
 	private int size;
+	private boolean streaming;
+	private boolean javaBackend;
 
 	public static void main(String[] args) {	
-		System.loadLibrary( Core.NATIVE_LIBRARY_NAME );
+		loadLibrary(args);
 		Dilation dilation = new Dilation(args);
 
 		System.out.println("Beginning dilation");
-		long elapsed = dilation.perform();
+		long elapsed = dilation.isStreaming() ? dilation.performStreaming() : dilation.perform();
 		dilation.saveImage();
 		System.out.println("Dilation finished. Time elapsed: " + elapsed + " ms");
 	}
@@ -44,6 +98,8 @@ public class Dilation {
 	 *
 	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
 	 *             An optional third element can be used for giving the size of the structural element. If not, a 5x5 square will be used.
+	 *             If any element is "--stream", the image will not be loaded and it must be processed with {@link #performStreaming()}.
+	 *             If any element is "--java", the image is read and processed as a Java array, without OpenCV.
 	 */
 	public Dilation(String[] args) {
 		this(args, null);
@@ -54,7 +110,7 @@ public class Dilation {
 	 *
 	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
 	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 */
 	public Dilation(String[] args, Mat structuralElement)
@@ -69,7 +125,7 @@ public class Dilation {
 	 *
 	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
 	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
 	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
@@ -80,8 +136,10 @@ public class Dilation {
 			return;
 		}
 
-		String input = args[0];
+		input = args[0];
 		output = args[1];
+		streaming = Arrays.asList(args).contains(STREAM_OPTION);
+		javaBackend = Arrays.asList(args).contains(JAVA_OPTION);
 
 		//If more than two arguments are given, uses the third element as the size of the structural element.
 		if(args.length > 2) {
@@ -94,10 +152,22 @@ public class Dilation {
 		else {
 			size = 5;
 		}
-		image = Imgcodecs.imread(input);
+		//In streaming mode the image is read row by row when it is processed.
+		if(!streaming) {
+			recorder = Instrumentation.start();
+			if(javaBackend)
+				arrayImage = readArrayImage(input);
+			else
+				image = Imgcodecs.imread(input, READ_FLAGS);
+			if(recorder != null)
+				recorder.mark(Instrumentation.Stage.READ);
+		}
 
 		//If the structuralElement param is null, uses a 5x5 square.
-		if(structuralElement == null) {
+		if(javaBackend) {
+			this.arrayStructuralElement = structuralElement == null ? ArrayImage.ones(size, size) : ArrayImage.copyOf(structuralElement);
+		}
+		else if(structuralElement == null) {
 			this.structuralElement = Mat.ones(size, size, CvType.CV_8UC1);
 		}
 		else {
@@ -106,8 +176,8 @@ public class Dilation {
 
 		//If anchorPoint is null, uses the center of the image.
 		if(anchorPoint == null)	    {
-			int width = this.structuralElement.cols();
-			int height = this.structuralElement.rows();
+			int width = javaBackend ? arrayStructuralElement.cols() : this.structuralElement.cols();
+			int height = javaBackend ? arrayStructuralElement.rows() : this.structuralElement.rows();
 			this.anchorPoint = new Point((width - 1) / 2, (height - 1) / 2);
 		}
 		else	    {
@@ -122,7 +192,7 @@ public class Dilation {
 	 * If the structural element is null, a 5x5 square will be used.
 	 *
 	 * @param src a Mat object containing the image.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
 	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
@@ -133,6 +203,24 @@ public class Dilation {
 		this.anchorPoint = anchorPoint;
 	}
 
+	/**
+	 * Creates a dilation object over an image stored in a Java array, so it is performed without the native library of OpenCV.
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param src the image to process.
+	 * @param structuralElement the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeightValues(int[])}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public Dilation(ArrayImage src, ArrayImage structuralElement, Point anchorPoint) {
+		this.arrayImage = src;
+		this.arrayStructuralElement = structuralElement != null ? structuralElement : ArrayImage.ones(5, 5);
+		this.anchorPoint = anchorPoint != null ? anchorPoint
+				: new Point((arrayStructuralElement.cols() - 1) / 2, (arrayStructuralElement.rows() - 1) / 2);
+		this.javaBackend = true;
+	}
+
 	/**
 	 * Gets the image after processing. Since the transform is not performing at the beginning (i.e., it is performed after the use of the perform method), this method can return null.
 	 *
@@ -142,6 +230,24 @@ public class Dilation {
 		return this.dst;
 	}
 
+	/**
+	 * Gets the image after processing with the Java backend (see {@link #isJavaBackend()}).
+	 *
+	 * @return the image after processing. Null if it has not been processed yet, or if it was processed as a Mat.
+	 */
+	public ArrayImage getProcessedArrayImage() {
+		return this.arrayDst;
+	}
+
+	/**
+	 * Indicates if the image is processed as a Java array, without the native library of OpenCV.
+	 *
+	 * @return true if the "--java" option was given or the transformation was created with an ArrayImage.
+	 */
+	public boolean isJavaBackend() {
+		return javaBackend;
+	}
+
 	/**
 	 * Performs the transformation. 
 	 *
@@ -152,69 +258,536 @@ public class Dilation {
 		//The dilation can be defined as: [f + b](x, y) = max{f(x - s, y - t)} for all (s, t) in b.
 		long begin = System.currentTimeMillis();
 
-		//First, the dilation of the structural element is obtained.
-		Mat reflectedElement = getReflection(structuralElement);
-		//Because the coordinates of the anchor point is changed after reflection, it is needed to obtain the reflected anchor point.
-		Point point = getReflectedPoint(structuralElement, anchorPoint);
-
-		dst = image.clone();
-
-		int x = (int)point.x;
-		int y = (int)point.y;
-
-		//The following loops are for applying the transformation.
-		//The first two for loops are used to access the pixels of the image.
-		for(int i = 0; i<dst.rows(); i++) {
-			for(int j = 0; j<dst.cols(); j++) {
-
-				//A byte array is created for storing the max values.
-				byte[] max = new byte[image.channels()];
-
-				//The following two loops are for accesing the structural element pixels and checking the source image.
-				for(int p = -y; p<reflectedElement.rows() - y; p++) {
-					for(int q = -x; q<reflectedElement.cols() - x; q++) {
-
-						//In order to avoid an IndexOutOfBorderException, it is needed to check if the index are within the limits of the image.
-						if(i + p >= 0 && i + p < image.rows() &&
-								j + q >= 0 && j + q < image.cols()) {
-
-							//The value of the pixel in the structural element at the given index is gotten.
-							byte[] sPixel = new byte[1];
-							reflectedElement.get(p+y, q+x, sPixel);
-
-							//The value will be processed only if the value of the pixel in the structural element is different from 0 (i.e., the structural element is flat).
-							if(sPixel[0] != 0x00)
-							{
-								//The pixel from the image is obtained.
-								byte[] _pixel = new byte[image.channels()];
-								image.get(i + p, j + q, _pixel);
-								//This loop is for checking the max value at every channel.
-								for(int k = 0; k<_pixel.length; k++) {
-									int pixel = _pixel[k] & 0xFF; //Converting from byte to integer.
-									if(pixel > (max[k] & 0xFF)) { //If the current pixel is greater than the already stored maximum value, a new maximum is assigned.
-										max[k] = (byte)pixel;
-									}
-								}
-							}
-						}						
-					}
-				}
-				//Writing the resulting image in the dst Mat
-				dst.put(i, j, max);
+		//The structural element is reflected and compiled into the offsets of its non-zero cells only when it changes.
+		//The rows are read from the memory of the image and written into the memory of dst, without copying the images.
+		Instrumentation.Recorder recorder = startRecording();
+		apply(compile(recorder), recorder);
+		long end = System.currentTimeMillis();
+		//The processing time is calculated and returned
+		return end - begin;
+	}
+
+	/**
+	 * Performs the transformation over a new version of the image that only changed in some regions, e.g., the next frame
+	 * of a video. The processed image of the previous version is updated in place, recomputing only the pixels that
+	 * depend on the changed regions (see {@link MorphologicalOperator#update(Mat, Mat, Rect...)}), so the time depends on
+	 * the size of the changes instead of the size of the image. If there is no processed image of the same size yet,
+	 * the whole image is processed.
+	 *
+	 * @param frame the new version of the image.
+	 * @param dirty the regions of the image that changed since the last time it was processed.
+	 * @return the time to do the processing, in milliseconds.
+	 * @throws IllegalStateException if the transformation uses the Java backend (see {@link #isJavaBackend()}).
+	 */
+	public long performIncremental(Mat frame, Rect... dirty) {
+		if(javaBackend)
+			throw new IllegalStateException("The transformation processes Java arrays");
+		long begin = System.currentTimeMillis();
+		this.image = frame;
+		if(dst == null || dst == frame || dst.rows() != frame.rows() || dst.cols() != frame.cols() || dst.type() != frame.type())
+			return perform();
+		Instrumentation.Recorder recorder = startRecording();
+		Rect[] regions = compile(recorder).update(frame, dst, dirty);
+		finishIncremental(recorder, regions, frame.rows(), frame.cols(), frame.channels());
+		long end = System.currentTimeMillis();
+		return end - begin;
+	}
+
+	/**
+	 * Performs the transformation over a new version of an image stored in a Java array that only changed in some regions
+	 * (see {@link #performIncremental(Mat, Rect...)}).
+	 *
+	 * @param frame the new version of the image.
+	 * @param dirty the regions of the image that changed since the last time it was processed.
+	 * @return the time to do the processing, in milliseconds.
+	 * @throws IllegalStateException if the transformation does not use the Java backend (see {@link #isJavaBackend()}).
+	 */
+	public long performIncremental(ArrayImage frame, Rect... dirty) {
+		if(!javaBackend)
+			throw new IllegalStateException("The transformation processes Mats");
+		long begin = System.currentTimeMillis();
+		this.arrayImage = frame;
+		if(arrayDst == null || arrayDst.overlaps(frame) || arrayDst.rows() != frame.rows() || arrayDst.cols() != frame.cols()
+				|| arrayDst.channels() != frame.channels())
+			return perform();
+		Instrumentation.Recorder recorder = startRecording();
+		Rect[] regions = compile(recorder).update(frame, arrayDst, dirty);
+		finishIncremental(recorder, regions, frame.rows(), frame.cols(), frame.channels());
+		long end = System.currentTimeMillis();
+		return end - begin;
+	}
 
+	/**
+	 * Finishes recording an incremental transformation, giving the number of recomputed regions as its mode.
+	 *
+	 * @param recorder the recorder of the stages, or null.
+	 * @param regions the recomputed regions.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 */
+	private void finishIncremental(Instrumentation.Recorder recorder, Rect[] regions, int rows, int cols, int channels) {
+		if(recorder == null)
+			return;
+		recorder.mark(Instrumentation.Stage.PROCESS);
+		recorder.setMode("incremental, " + regions.length + " regions");
+		recorder.publish(getClass().getSimpleName(), rows, cols, channels);
+	}
+
+	/**
+	 * Performs the transformation reading the input file and writing the output file row by row, keeping in memory only a
+	 * window of rows as high as the structural element. Only binary PGM (P5) and PPM (P6) files are supported.
+	 * The processed image is written directly, so {@link #getProcessedImage()} returns null after this method.
+	 *
+	 * @return the time to do the processing, including reading and writing the files, in milliseconds.
+	 * @throws IllegalStateException if the pixels outside the image are not ignored (see {@link #setBorderMode(BorderMode)}).
+	 */
+	public long performStreaming() {
+		if(borderMode != BorderMode.IGNORE)
+			throw new IllegalStateException("The border mode " + borderMode + " is not supported in streaming mode");
+		long begin = System.currentTimeMillis();
+		//The reading, the processing and the writing of the rows are interleaved, so every one is marked when it finishes.
+		Instrumentation.Recorder recorder = Instrumentation.start();
+		try(PnmReader reader = new PnmReader(Paths.get(input));
+				PnmWriter writer = new PnmWriter(Paths.get(output), reader.rows(), reader.cols(), reader.channels(),
+						reader.maxValue())) {
+			if(recorder != null) {
+				recorder.mark(Instrumentation.Stage.READ);
+				recorder.setMode("streaming, " + MorphologicalOperator.describe(getRowBands()));
+			}
+			RollingStage.Sink sink = (row, data) -> {
+				if(recorder != null)
+					recorder.mark(Instrumentation.Stage.PROCESS);
+				try {
+					writer.writeRow(data);
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				if(recorder != null)
+					recorder.mark(Instrumentation.Stage.WRITE);
+			};
+			//The top-hat and the black-hat combine every processed row with its source row, so all the rows are read.
+			MorphologyEngine.Residue residue = compile(recorder).getResidue();
+			RollingStage.ResidueSink residueSink = residue != MorphologyEngine.Residue.NONE
+					? new RollingStage.ResidueSink(residue, reader.cols() * reader.channels(), getSteps(), sink) : null;
+			RollingStage stage = RollingStage.chain(reader.rows(), reader.cols(), reader.channels(), getSteps(), 0, reader.rows(),
+					residueSink != null ? residueSink : sink);
+
+			//The rows are read in order. The rows that are not needed by the structural element are skipped.
+			byte[] row = new byte[reader.cols() * reader.channels()];
+			int last = residueSink != null ? reader.rows() - 1 : stage.lastInput();
+			for(int r = 0; r<=last; r++) {
+				reader.readRow(row);
+				if(recorder != null)
+					recorder.mark(Instrumentation.Stage.READ);
+				if(residueSink != null)
+					residueSink.source(row);
+				if(r >= stage.firstInput() && r <= stage.lastInput())
+					stage.push(row);
+				if(recorder != null)
+					recorder.mark(Instrumentation.Stage.PROCESS);
 			}
+			if(recorder != null)
+				recorder.publish(getClass().getSimpleName(), reader.rows(), reader.cols(), reader.channels());
+		} catch(IOException e) {
+			System.out.println("The image could not be processed: " + e.getMessage());
+		} catch(UncheckedIOException e) {
+			System.out.println("The image could not be processed: " + e.getCause().getMessage());
 		}
 		long end = System.currentTimeMillis();
-		//The processing time is calculated and returned
 		return end - begin;
 	}
 
+	/**
+	 * Gets the transformations applied over the rows of the image in streaming mode.
+	 *
+	 * @return the steps of the compiled transformation.
+	 */
+	protected RollingStage.Step[] getSteps() {
+		return getOperator().getSteps();
+	}
+
+	/**
+	 * Gets the transformation performed by this class. It is used to compile the structural element.
+	 *
+	 * @return the type of the transformation.
+	 */
+	protected MorphologicalOperator.Type getType() {
+		return MorphologicalOperator.Type.DILATION;
+	}
+
+	/**
+	 * Gets the transformation compiled with the current structural element, anchor point and parallel configuration.
+	 * The compiled operator is kept and it is only compiled again if any of them changes, so calling perform several times
+	 * does not reflect the structural element again.
+	 *
+	 * @return the compiled operator.
+	 */
+	public MorphologicalOperator getOperator() {
+		RowBands bands = getRowBands();
+		if(javaBackend) {
+			if(operator == null || !operator.isCompiledFrom(getType(), arrayStructuralElement, heightValues, anchorPoint, bands))
+				operator = MorphologicalOperator.compile(getType(), arrayStructuralElement, heightValues, anchorPoint, bands);
+		}
+		else if(operator == null || !operator.isCompiledFrom(getType(), structuralElement, heights, anchorPoint, bands))
+			operator = MorphologicalOperator.compile(getType(), structuralElement, heights, anchorPoint, bands);
+		//The border does not change the compiled structural elements, so the operator is only copied with the new border.
+		operator = operator.withBorder(borderMode, borderValue);
+		return operator;
+	}
+
+	/**
+	 * Sets how the pixels outside the image are read. With the default mode ({@link BorderMode#IGNORE}), only the
+	 * neighbors within the image are used. The other modes extend the image, so they are not supported by
+	 * {@link #performStreaming()}.
+	 *
+	 * @param borderMode the border mode.
+	 */
+	public void setBorderMode(BorderMode borderMode) {
+		this.borderMode = Objects.requireNonNull(borderMode, "borderMode");
+	}
+
+	/**
+	 * Gets how the pixels outside the image are read.
+	 *
+	 * @return the border mode.
+	 */
+	public BorderMode getBorderMode() {
+		return borderMode;
+	}
+
+	/**
+	 * Sets the value of the pixels outside the image in the {@link BorderMode#CONSTANT} mode. The default value is 0.
+	 *
+	 * @param borderValue the value. It is rounded and saturated to the range of the 8-bit and 16-bit images.
+	 */
+	public void setBorderValue(double borderValue) {
+		this.borderValue = borderValue;
+	}
+
+	/**
+	 * Gets the value of the pixels outside the image in the {@link BorderMode#CONSTANT} mode.
+	 *
+	 * @return the value.
+	 */
+	public double getBorderValue() {
+		return borderValue;
+	}
+
+	/**
+	 * Sets the heights of the structural element, making it non-flat. The result of the dilation is max{f(x - s, y - t) + h(s, t)}
+	 * and the result of the erotion is min{f(x + s, y + t) - h(s, t)}, saturated to 0 and 255.
+	 *
+	 * @param heights a Mat with the same size as the structural element and the height of every cell. Only the cells of the
+	 *                structural element different from 0 are used. If it is null, the structural element is flat.
+	 */
+	public void setHeights(Mat heights) {
+		this.heights = heights;
+	}
+
+	/**
+	 * Gets the heights of the structural element.
+	 *
+	 * @return the heights, or null if the structural element is flat.
+	 */
+	public Mat getHeights() {
+		return heights;
+	}
+
+	/**
+	 * Sets the heights of the structural element used by the Java backend (see {@link #setHeights(Mat)}).
+	 *
+	 * @param heights the height of every cell of the structural element, in row-major order. If it is null, the structural element is flat.
+	 */
+	public void setHeightValues(int[] heights) {
+		this.heightValues = heights;
+	}
+
+	/**
+	 * Gets the heights of the structural element used by the Java backend.
+	 *
+	 * @return the heights, or null if the structural element is flat.
+	 */
+	public int[] getHeightValues() {
+		return heightValues;
+	}
+
+	/**
+	 * Indicates if the "--stream" option was given, so the transformation must be performed with {@link #performStreaming()}.
+	 *
+	 * @return true if the image must be processed row by row.
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sets the number of bands of rows processed at the same time. A value of 1 (the default) performs the transformation in the calling thread.
+	 *
+	 * @param parallelism the number of bands processed at the same time.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Gets the number of bands of rows processed at the same time.
+	 *
+	 * @return the parallelism of the transformation.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the executor where the bands of rows are processed when the parallelism is greater than 1.
+	 *
+	 * @param executor the executor to use. If it is null, the common ForkJoinPool will be used.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the parallel configuration used to process the rows of the image.
+	 *
+	 * @return the parallel configuration.
+	 */
+	protected RowBands getRowBands() {
+		return RowBands.of(parallelism, executor);
+	}
+
+	/**
+	 * Copies the parallel configuration, the heights of the structural element and the border of this transformation into another one. It is used by the transformations that are
+	 * obtained from other transformations.
+	 *
+	 * @param transformation the transformation to configure.
+	 * @return the same transformation.
+	 */
+	protected <T extends Dilation> T configure(T transformation) {
+		transformation.setParallelism(parallelism);
+		transformation.setExecutor(executor);
+		transformation.setHeights(heights);
+		transformation.setHeightValues(heightValues);
+		transformation.setBorderMode(borderMode);
+		transformation.setBorderValue(borderValue);
+		return transformation;
+	}
+
 	/**
 	 * Writes the image using the given output filename.
 	 */
 	public void saveImage() {
-		if(dst != null)
+		if(arrayDst != null) {
+			Instrumentation.Recorder recorder = Instrumentation.start();
+			try {
+				arrayDst.write(Paths.get(output));
+			} catch(IOException e) {
+				System.out.println("The image could not be written: " + e.getMessage());
+			}
+			if(recorder != null) {
+				recorder.mark(Instrumentation.Stage.WRITE);
+				recorder.setMode("write");
+				recorder.publish(getClass().getSimpleName(), arrayDst.rows(), arrayDst.cols(), arrayDst.channels());
+			}
+		}
+		else if(dst != null) {
+			Instrumentation.Recorder recorder = Instrumentation.start();
 			Imgcodecs.imwrite(output, dst);
+			if(recorder != null) {
+				recorder.mark(Instrumentation.Stage.WRITE);
+				recorder.setMode("write");
+				recorder.publish(getClass().getSimpleName(), dst.rows(), dst.cols(), dst.channels());
+			}
+		}
+	}
+
+	/**
+	 * Starts recording the stages of the transformation (see {@link Instrumentation}). If the image was read by the
+	 * constructor, the reading is included.
+	 *
+	 * @return the recorder, or null if the instrumentation is disabled.
+	 */
+	protected Instrumentation.Recorder startRecording() {
+		Instrumentation.Recorder current = recorder != null ? recorder : Instrumentation.start();
+		recorder = null;
+		if(current != null)
+			current.restart();
+		return current;
+	}
+
+	/**
+	 * Gets the compiled transformation, recording the time to compile it.
+	 *
+	 * @param recorder the recorder of the stages, or null.
+	 * @return the compiled operator.
+	 */
+	protected MorphologicalOperator compile(Instrumentation.Recorder recorder) {
+		MorphologicalOperator compiled = getOperator();
+		if(recorder != null)
+			recorder.mark(Instrumentation.Stage.COMPILE);
+		return compiled;
+	}
+
+	/**
+	 * Finishes recording a transformation fused over a rolling window of rows (see {@link MorphologyEngine#fuse(PixelBuffer, PixelBuffer, RowBands, RollingStage.Step...)}).
+	 * The reading and the writing of the rows of the Mats are included in the processing.
+	 *
+	 * @param recorder the recorder of the stages, or null.
+	 * @param src the processed image.
+	 */
+	protected void finishFused(Instrumentation.Recorder recorder, PixelBuffer src) {
+		if(recorder == null)
+			return;
+		recorder.mark(Instrumentation.Stage.PROCESS);
+		recorder.setMode("fused, " + MorphologicalOperator.describe(getRowBands()));
+		finishRecording(recorder, src);
+	}
+
+	/**
+	 * Finishes recording a transformation and gives its metrics to the listeners of the instrumentation.
+	 *
+	 * @param recorder the recorder of the stages, or null.
+	 * @param src the processed image.
+	 */
+	protected void finishRecording(Instrumentation.Recorder recorder, PixelBuffer src) {
+		if(recorder != null)
+			recorder.publish(getClass().getSimpleName(), src.rows(), src.cols(), src.channels());
+	}
+
+	/**
+	 * Applies a compiled transformation to the image and keeps the processed image. The 8-bit images are read and written
+	 * through their buffers (see {@link #getSource()}), and the images of other depths are processed by the operator with
+	 * the kernels of their depth.
+	 *
+	 * @param operator the compiled transformation.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 */
+	protected void apply(MorphologicalOperator operator, Instrumentation.Recorder recorder) {
+		if(isDeep()) {
+			applyDeep(operator, recorder);
+			return;
+		}
+		PixelBuffer source = getSource();
+		operator.apply(source, createTarget(), recorder);
+		finishRecording(recorder, source);
+	}
+
+	/**
+	 * Applies the steps of a compiled transformation over a rolling window of rows (see
+	 * {@link MorphologicalOperator#fuse(PixelBuffer, PixelBuffer)}), combining the result with the source image as the
+	 * transformation does, and keeps the processed image.
+	 * The images whose depth is not 8 bits, and the images whose border is not ignored, are processed as a whole by the operator.
+	 *
+	 * @param operator the compiled transformation.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 */
+	protected void fuse(MorphologicalOperator operator, Instrumentation.Recorder recorder) {
+		if(isDeep()) {
+			applyDeep(operator, recorder);
+			return;
+		}
+		//The rolling window reads the rows of the image only, so the image is extended by the operator instead.
+		if(operator.getBorderMode() != BorderMode.IGNORE) {
+			apply(operator, recorder);
+			return;
+		}
+		PixelBuffer source = getSource();
+		operator.fuse(source, createTarget());
+		finishFused(recorder, source);
+	}
+
+	/**
+	 * Applies a compiled transformation to an image whose depth is not 8 bits (see {@link DepthMorphology}).
+	 *
+	 * @param operator the compiled transformation.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 */
+	private void applyDeep(MorphologicalOperator operator, Instrumentation.Recorder recorder) {
+		dst = new Mat();
+		operator.apply(image, dst, recorder);
+		if(recorder != null)
+			recorder.publish(getClass().getSimpleName(), image.rows(), image.cols(), image.channels());
+	}
+
+	/**
+	 * Indicates if the image is a Mat whose depth is not 8 bits, so it cannot be accessed through a {@link PixelBuffer}.
+	 *
+	 * @return true for the 16-bit and the floating point images.
+	 */
+	protected boolean isDeep() {
+		return !javaBackend && image != null && image.depth() != CvType.CV_8U;
+	}
+
+	/**
+	 * Gets the image to process, with the backend of the transformation.
+	 *
+	 * @return the buffer of the Mat, or the Java array.
+	 */
+	protected PixelBuffer getSource() {
+		return javaBackend ? arrayImage : MatBuffer.wrap(image);
+	}
+
+	/**
+	 * Creates the processed image, with the size and the backend of the image to process, and keeps it as the result of the transformation.
+	 *
+	 * @return the buffer of the new processed image.
+	 */
+	protected PixelBuffer createTarget() {
+		if(javaBackend) {
+			arrayDst = new ArrayImage(arrayImage.rows(), arrayImage.cols(), arrayImage.channels());
+			return arrayDst;
+		}
+		dst = new Mat(image.rows(), image.cols(), image.type());
+		return MatBuffer.wrap(dst);
+	}
+
+	/**
+	 * Reads an image as a Java array. If it cannot be read, an empty image is returned, like Imgcodecs.imread does.
+	 *
+	 * @param input the file to read.
+	 * @return the image.
+	 */
+	private static ArrayImage readArrayImage(String input) {
+		try {
+			return ArrayImage.read(Paths.get(input));
+		} catch(IOException e) {
+			System.out.println("The image could not be read: " + e.getMessage());
+			return new ArrayImage(0, 0, 1);
+		}
+	}
+
+	/**
+	 * Loads the native library of OpenCV, unless the "--java" option is given. It is called by the main methods.
+	 *
+	 * @param args the arguments of the main method.
+	 */
+	protected static void loadLibrary(String[] args) {
+		if(args == null || !Arrays.asList(args).contains(JAVA_OPTION))
+			System.loadLibrary( Core.NATIVE_LIBRARY_NAME );
+	}
+
+	/**
+	 * Adds a default size of the structural element to the arguments of the main method, if they do not give one.
+	 *
+	 * @param args the arguments of the main method.
+	 * @param size the default size of the structural element.
+	 * @return the arguments with the size as the third element.
+	 */
+	protected static String[] withDefaultSize(String[] args, int size) {
+		if(args == null || args.length < 2)
+			return args;
+		if(args.length > 2) {
+			try {
+				Integer.parseInt(args[2]);
+				return args;
+			} catch(NumberFormatException e) {
+				//The third argument is an option, so the size is inserted before it.
+			}
+		}
+		List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		arguments.add(2, String.valueOf(size));
+		return arguments.toArray(new String[0]);
 	}
 
 	/**
@@ -250,13 +823,23 @@ public class Dilation {
 	}
 
 	/**
-	 * Gets the complement of the image (MaximumValue - Image).
+	 * Gets the complement of the image (MaximumValue - Image). The 16-bit images are complemented with the max of their
+	 * depth (65535 - Image for the unsigned ones, -1 - Image for the signed ones) and the floating point images are negated.
 	 *
 	 * @param src the image to process.
 	 * @return the complement of the image.
 	 */
 	public static Mat complement(Mat src) {
 		Mat dst = src.clone();
+		if(src.depth() == CvType.CV_32F || src.depth() == CvType.CV_64F) {
+			Core.multiply(src, Scalar.all(-1), dst);
+			return dst;
+		}
+		if(src.depth() == CvType.CV_16U || src.depth() == CvType.CV_16S) {
+			//Inverting all the bits is the complement in both ranges.
+			Core.bitwise_not(src, dst);
+			return dst;
+		}
 		//Getting the channels of the image in a List.
 		List<Mat> channels = new ArrayList<>();
 		Core.split(dst, channels);
@@ -0,0 +1,315 @@
+import java.util.Arrays;
+
+/**
+ * Runs the morphological transformations over 64-bit floating point images stored in double arrays, with the same algorithms as the
+ * 8-bit kernels of {@link MorphologyEngine}: every offset of the structural element reduces whole rows, the non-flat
+ * structural elements add their heights, and the rectangles are separated into a horizontal and a vertical pass computed
+ * with the van Herk/Gil-Werman algorithm.
+ * The values are not saturated, so the pixels that are not reached by the structural element become -Infinity (dilation)
+ * or Infinity (erotion), and the heights are added as they are. The max and the min are computed with Math.max and Math.min,
+ * so a NaN pixel spreads over its neighborhood.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+final class DoubleMorphology {
+
+	//The number of values of a row processed together in the vertical pass of the separable transformations.
+	private static final int VERTICAL_STRIP = 256;
+
+	private DoubleMorphology() {
+	}
+
+	/**
+	 * Applies several transformations, one after the other, and combines the result with the source image.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src and must not be the same array.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param steps the transformations to apply, in order. There must be at least one.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 */
+	static void apply(double[] src, double[] dst, int rows, int cols, int channels, RollingStage.Step[] steps,
+			MorphologyEngine.Residue residue, RowBands bands) {
+		double[] input = src;
+		double[][] intermediates = new double[2][];
+		for(int n = 0; n<steps.length; n++) {
+			//The intermediate images alternate between two buffers, so the input of a step is never its output.
+			double[] output = dst;
+			if(n < steps.length - 1) {
+				if(intermediates[n % 2] == null)
+					intermediates[n % 2] = new double[src.length];
+				output = intermediates[n % 2];
+			}
+			RollingStage.Step step = steps[n];
+			reduce(input, output, rows, cols, channels, step.getElement(), step.isDilation(), bands);
+			if(step.isGradient()) {
+				//The gradient is the max minus the min of the neighborhood.
+				double[] lower = new double[src.length];
+				reduce(input, lower, rows, cols, channels, step.getLowerElement(), false, bands);
+				difference(output, lower, output);
+			}
+			input = output;
+		}
+		combine(src, dst, residue);
+	}
+
+	/**
+	 * Combines a processed image with its source image, in place.
+	 *
+	 * @param src the pixels of the source image.
+	 * @param dst the pixels of the processed image, where the combination is written.
+	 * @param residue how the processed image is combined with the source image.
+	 */
+	static void combine(double[] src, double[] dst, MorphologyEngine.Residue residue) {
+		if(residue == MorphologyEngine.Residue.SOURCE_MINUS_RESULT)
+			difference(src, dst, dst);
+		else if(residue == MorphologyEngine.Residue.RESULT_MINUS_SOURCE)
+			difference(dst, src, dst);
+	}
+
+	/**
+	 * Subtracts an image from another, saturating the differences to 0.
+	 *
+	 * @param a the minuend.
+	 * @param b the subtrahend.
+	 * @param dst the buffer where the difference is written. It can be one of the other buffers.
+	 */
+	private static void difference(double[] a, double[] b, double[] dst) {
+		for(int o = 0; o<dst.length; o++) {
+			dst[o] = Math.max(0, a[o] - b[o]);
+		}
+	}
+
+	/**
+	 * Computes the max (or the min) of the neighborhood of every pixel, splitting the rows of the image into bands.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 */
+	private static void reduce(double[] src, double[] dst, int rows, int cols, int channels, StructuralElement element,
+			boolean max, RowBands bands) {
+		if(element.isRectangle()) {
+			separable(src, dst, rows, cols, channels, element, max, bands);
+			return;
+		}
+		bands.forEach(rows, (band, from, to) -> reduce(src, dst, rows, cols, channels, element, max, from, to));
+	}
+
+	/**
+	 * Computes the max (or the min) of the neighborhood of the pixels of a band. Every offset of the structural element is
+	 * applied to a whole row at once: the columns whose neighbor is within the limits of the image are computed before the
+	 * loop, so the inner loop has no checks. The heights of a non-flat structural element are added to the values.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param from the first row of the band (inclusive).
+	 * @param to the last row of the band (exclusive).
+	 */
+	private static void reduce(double[] src, double[] dst, int rows, int cols, int channels, StructuralElement element,
+			boolean max, int from, int to) {
+		//The values start at the identity, so the pixels that are not reached by the structural element are -Infinity (max) or Infinity (min).
+		double identity = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		int rowLength = cols * channels;
+		for(int i = from; i<to; i++) {
+			int o = i * rowLength;
+			Arrays.fill(dst, o, o + rowLength, identity);
+			for(int n = 0; n<element.size(); n++) {
+				int r = i + element.rowOffset(n);
+				if(r < 0 || r >= rows)
+					continue;
+				int dq = element.colOffset(n);
+				int s = r * rowLength + dq * channels;
+				int begin = Math.max(0, -dq) * channels;
+				int end = Math.min(cols, cols - dq) * channels;
+				if(!element.isFlat()) {
+					int height = max ? element.height(n) : -element.height(n);
+					weighted(src, s, dst, o, begin, end, height, max);
+				}
+				else if(max) {
+					for(int t = begin; t<end; t++) {
+						dst[o + t] = Math.max(dst[o + t], src[s + t]);
+					}
+				}
+				else {
+					for(int t = begin; t<end; t++) {
+						dst[o + t] = Math.min(dst[o + t], src[s + t]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reduces a row of the processed image with a shifted row of the source image plus a constant.
+	 *
+	 * @param src the source buffer.
+	 * @param srcOffset the index in the source buffer of the value combined with the first value of the row.
+	 * @param dst the processed buffer.
+	 * @param dstOffset the index of the first value of the row in the processed buffer.
+	 * @param from the first value of the row to combine (inclusive).
+	 * @param to the last value of the row to combine (exclusive).
+	 * @param height the constant added to the source values (negative in the erotion).
+	 * @param max true for computing the max, false for the min.
+	 */
+	private static void weighted(double[] src, int srcOffset, double[] dst, int dstOffset, int from, int to, int height,
+			boolean max) {
+		for(int t = from; t<to; t++) {
+			double v = src[srcOffset + t] + height;
+			dst[dstOffset + t] = max ? Math.max(dst[dstOffset + t], v) : Math.min(dst[dstOffset + t], v);
+		}
+	}
+
+	/**
+	 * Applies a rectangular structural element as a horizontal pass followed by a vertical pass (see
+	 * {@link MorphologyEngine}). The vertical pass starts when the horizontal pass of all the bands is finished.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element. It must be a rectangle.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 */
+	private static void separable(double[] src, double[] dst, int rows, int cols, int channels, StructuralElement element,
+			boolean max, RowBands bands) {
+		int rowLength = cols * channels;
+		int height = element.maxRowOffset() - element.minRowOffset() + 1;
+		int width = element.maxColOffset() - element.minColOffset() + 1;
+
+		double[] horizontal = new double[src.length];
+		bands.forEach(rows, (band, from, to) -> {
+			double[] g = new double[(cols + width - 1) * channels];
+			double[] h = new double[g.length];
+			for(int i = from; i<to; i++) {
+				runningExtreme(src, i * rowLength, channels, cols, 0, cols, channels,
+						element.minColOffset(), element.maxColOffset(), max, g, h, horizontal, i * rowLength, channels);
+			}
+		});
+
+		int strip = Math.min(rowLength, VERTICAL_STRIP);
+		bands.forEach(rows, (band, from, to) -> {
+			double[] g = new double[(to - from + height - 1) * strip];
+			double[] h = new double[g.length];
+			for(int c = 0; c<rowLength; c += strip) {
+				int lanes = Math.min(strip, rowLength - c);
+				runningExtreme(horizontal, c, rowLength, rows, from, to, lanes,
+						element.minRowOffset(), element.maxRowOffset(), max, g, h, dst, c + from * rowLength, rowLength);
+			}
+		});
+	}
+
+	/**
+	 * Computes the max (or the min) over a sliding window using the van Herk/Gil-Werman algorithm (see
+	 * {@link MorphologyEngine#runningExtreme(byte[], int, int, int, int, int, int, int, int, boolean, byte[], byte[], byte[], int, int)}).
+	 * All the lanes of a position are reduced in the same loop, so the loops of the vertical pass are as long as a strip.
+	 *
+	 * @param src the input buffer.
+	 * @param srcOffset the index of the first lane of the first position in the input buffer.
+	 * @param stride the distance between two consecutive positions in the input buffer.
+	 * @param n the number of positions.
+	 * @param from the first output position to compute (inclusive).
+	 * @param to the last output position to compute (exclusive).
+	 * @param lanes the number of lanes per position. The lanes of a position are contiguous.
+	 * @param lo the offset of the beginning of the window.
+	 * @param hi the offset of the end of the window.
+	 * @param max true for computing the max, false for the min.
+	 * @param g a scratch buffer with at least (to - from + hi - lo) * lanes elements.
+	 * @param h a scratch buffer with at least (to - from + hi - lo) * lanes elements.
+	 * @param dst the output buffer.
+	 * @param dstOffset the index of the first lane of the output position from in the output buffer.
+	 * @param dstStride the distance between two consecutive positions in the output buffer.
+	 */
+	private static void runningExtreme(double[] src, int srcOffset, int stride, int n, int from, int to, int lanes, int lo,
+			int hi, boolean max, double[] g, double[] h, double[] dst, int dstOffset, int dstStride) {
+		int window = hi - lo + 1;
+		int length = to - from + window - 1;
+		//Positions outside the input take the identity value, so they do not change the result.
+		double identity = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+
+		//Forward pass: g is restarted at the beginning of every block.
+		for(int t = 0; t<length; t++) {
+			int p = from + t + lo;
+			int o = t * lanes;
+			int s = srcOffset + p * stride;
+			if(p < 0 || p >= n) {
+				if(t % window == 0)
+					Arrays.fill(g, o, o + lanes, identity);
+				else
+					System.arraycopy(g, o - lanes, g, o, lanes);
+			}
+			else if(t % window == 0) {
+				System.arraycopy(src, s, g, o, lanes);
+			}
+			else if(max) {
+				for(int l = 0; l<lanes; l++) {
+					g[o + l] = Math.max(g[o - lanes + l], src[s + l]);
+				}
+			}
+			else {
+				for(int l = 0; l<lanes; l++) {
+					g[o + l] = Math.min(g[o - lanes + l], src[s + l]);
+				}
+			}
+		}
+
+		//Backward pass: h is restarted at the end of every block.
+		for(int t = length - 1; t>=0; t--) {
+			int p = from + t + lo;
+			int o = t * lanes;
+			int s = srcOffset + p * stride;
+			boolean end = t % window == window - 1 || t == length - 1;
+			if(p < 0 || p >= n) {
+				if(end)
+					Arrays.fill(h, o, o + lanes, identity);
+				else
+					System.arraycopy(h, o + lanes, h, o, lanes);
+			}
+			else if(end) {
+				System.arraycopy(src, s, h, o, lanes);
+			}
+			else if(max) {
+				for(int l = 0; l<lanes; l++) {
+					h[o + l] = Math.max(h[o + lanes + l], src[s + l]);
+				}
+			}
+			else {
+				for(int l = 0; l<lanes; l++) {
+					h[o + l] = Math.min(h[o + lanes + l], src[s + l]);
+				}
+			}
+		}
+
+		//The window of the output position from + j is covered by h[j] and g[j + window - 1].
+		for(int j = 0; j<to - from; j++) {
+			int a = j * lanes;
+			int b = (j + window - 1) * lanes;
+			int d = dstOffset + j * dstStride;
+			if(max) {
+				for(int l = 0; l<lanes; l++) {
+					dst[d + l] = Math.max(h[a + l], g[b + l]);
+				}
+			}
+			else {
+				for(int l = 0; l<lanes; l++) {
+					dst[d + l] = Math.min(h[a + l], g[b + l]);
+				}
+			}
+		}
+	}
+}
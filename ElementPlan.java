@@ -0,0 +1,206 @@
+import java.util.Arrays;
+
+/**
+ * A flat structural element decomposed into horizontal lines: the offsets of every row of the element are split into runs
+ * of consecutive columns, and the max (or the min) of a run is computed with two lookups in a table of doubling windows
+ * instead of one reduction for every offset. For every source row, the table stores the max of the windows of 1, 2, 4, ...
+ * pixels starting at every column, so a run of L pixels is the max of the two windows of P pixels (the largest power of 2
+ * not greater than L) that start at its first pixel and end at its last pixel. The table is shared by all the runs that
+ * read the same source row, so a disk of radius r costs about 2 * (2r + 1) + log2(2r + 1) row reductions instead of
+ * about 3r^2. The same decomposition works for diamonds, octagons, crosses or any other union of horizontal lines.
+ * Like the offsets, the windows ignore the pixels outside the image, so the result is the same as visiting every offset.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+final class ElementPlan {
+
+	private final int[] lineRows;
+	private final int[] lineStarts;
+	private final int[] lineLengths;
+	private final int levels;
+	private final int cost;
+
+	/**
+	 * Creates a plan from the runs of a structural element.
+	 *
+	 * @param lineRows the row offset of every run.
+	 * @param lineStarts the column offset of the first pixel of every run.
+	 * @param lineLengths the number of pixels of every run.
+	 * @param levels the number of levels of the table, enough for the longest run.
+	 */
+	private ElementPlan(int[] lineRows, int[] lineStarts, int[] lineLengths, int levels) {
+		this.lineRows = lineRows;
+		this.lineStarts = lineStarts;
+		this.lineLengths = lineLengths;
+		this.levels = levels;
+
+		//Every level of the table is one row reduction (the first one is a copy), and every run needs one or two lookups.
+		int cost = levels;
+		for(int length : lineLengths) {
+			cost += length == Integer.highestOneBit(length) ? 1 : 2;
+		}
+		this.cost = cost;
+	}
+
+	/**
+	 * Decomposes a structural element into horizontal lines.
+	 *
+	 * @param element the compiled structural element.
+	 * @return the plan of the element, or null if visiting every offset is cheaper (e.g., a 3x3 cross) or if the element
+	 * is a rectangle or is not flat, since they have their own transformations.
+	 */
+	static ElementPlan of(StructuralElement element) {
+		int size = element.size();
+		if(size == 0 || !element.isFlat() || element.isRectangle())
+			return null;
+
+		//The offsets are sorted by row and then by column, so the pixels of a run are consecutive.
+		//The column is stored in the low bits with its sign bit flipped, so the keys are sorted as the offsets.
+		long[] keys = new long[size];
+		for(int n = 0; n<size; n++) {
+			keys[n] = ((long)element.rowOffset(n) << 32) | ((element.colOffset(n) ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+		}
+		Arrays.sort(keys);
+
+		int[] rows = new int[size];
+		int[] starts = new int[size];
+		int[] lengths = new int[size];
+		int count = 0;
+		int longest = 0;
+		for(int n = 0; n<size; n++) {
+			//A repeated offset does not change the result, so it is skipped.
+			if(n > 0 && keys[n] == keys[n - 1])
+				continue;
+			int row = (int)(keys[n] >> 32);
+			int col = (int)keys[n] ^ Integer.MIN_VALUE;
+			if(count > 0 && rows[count - 1] == row && starts[count - 1] + lengths[count - 1] == col) {
+				lengths[count - 1]++;
+			}
+			else {
+				rows[count] = row;
+				starts[count] = col;
+				lengths[count] = 1;
+				count++;
+			}
+			longest = Math.max(longest, lengths[count - 1]);
+		}
+
+		int levels = 32 - Integer.numberOfLeadingZeros(longest);
+		ElementPlan plan = new ElementPlan(Arrays.copyOf(rows, count), Arrays.copyOf(starts, count), Arrays.copyOf(lengths, count), levels);
+		return plan.cost < size ? plan : null;
+	}
+
+	/**
+	 * Gets the number of row reductions needed for every processed row, used to choose the plan.
+	 *
+	 * @return the number of levels of the table plus the number of lookups of the runs.
+	 */
+	int cost() {
+		return cost;
+	}
+
+	/**
+	 * Gets the length of the table of a source row. Every level stores the windows that start at the columns of the row
+	 * and also at the columns before the row that reach it, so no lookup needs to check the limits of the row.
+	 *
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @return the number of values of the table.
+	 */
+	int tableLength(int cols, int channels) {
+		return levels * (cols + padding()) * channels;
+	}
+
+	/**
+	 * Gets the number of columns stored before the first column of every level of the table.
+	 *
+	 * @return the length of the longest window minus 1.
+	 */
+	private int padding() {
+		return (1 << (levels - 1)) - 1;
+	}
+
+	/**
+	 * Computes the table of a source row. The level k stores, for every column j, the max (or the min) of the pixels from
+	 * j to j + 2^k - 1 that are within the row, and it is computed from the level k - 1 with a single row reduction.
+	 *
+	 * @param src the buffer of the source row.
+	 * @param srcOffset the index of the first value of the row.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param max true for computing the max, false for the min.
+	 * @param table the buffer where the table is written.
+	 * @param tableOffset the index of the first value of the table.
+	 */
+	void table(byte[] src, int srcOffset, int cols, int channels, boolean max, byte[] table, int tableOffset) {
+		int pad = padding() * channels;
+		int levelLength = pad + cols * channels;
+		//The columns before the row take the identity value, so they do not change the windows that reach the row.
+		Arrays.fill(table, tableOffset, tableOffset + pad, max ? 0 : (byte)0xFF);
+		System.arraycopy(src, srcOffset, table, tableOffset + pad, cols * channels);
+		for(int k = 1; k<levels; k++) {
+			int previous = tableOffset + (k - 1) * levelLength;
+			int current = previous + levelLength;
+			int shift = (1 << (k - 1)) * channels;
+			//The window of 2^k pixels at j is the window of 2^(k - 1) pixels at j and the one at j + 2^(k - 1). The last
+			//windows have no second half within the row, so they are copied.
+			System.arraycopy(table, previous, table, current, levelLength);
+			if(levelLength > shift)
+				ByteKernels.extreme(table, current, table, previous + shift, table, current, levelLength - shift, max);
+		}
+	}
+
+	/**
+	 * Computes a processed row from the tables of the source rows of its neighborhood. Every run is the max (or the min)
+	 * of the two windows of its level that cover it, which are the same window if the length of the run is a power of 2.
+	 *
+	 * @param i the index of the processed row.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param max true for computing the max, false for the min.
+	 * @param tables the ring of tables of the source rows: the table of the row r starts at floorMod(r, slots) * tableLength.
+	 * @param slots the number of tables of the ring.
+	 * @param dst the buffer where the row is written.
+	 * @param dstOffset the index of the first value of the row.
+	 */
+	void reduce(int i, int rows, int cols, int channels, boolean max, byte[] tables, int slots, byte[] dst, int dstOffset) {
+		int pad = padding();
+		int levelLength = (pad + cols) * channels;
+		Arrays.fill(dst, dstOffset, dstOffset + cols * channels, max ? 0 : (byte)0xFF);
+		for(int n = 0; n<lineRows.length; n++) {
+			int r = i + lineRows[n];
+			if(r < 0 || r >= rows)
+				continue;
+			int k = 31 - Integer.numberOfLeadingZeros(lineLengths[n]);
+			int level = Math.floorMod(r, slots) * levels * levelLength + k * levelLength;
+			int first = lineStarts[n];
+			int last = first + lineLengths[n] - (1 << k);
+			lookup(tables, level, first, pad, cols, channels, max, dst, dstOffset);
+			if(last != first)
+				lookup(tables, level, last, pad, cols, channels, max, dst, dstOffset);
+		}
+	}
+
+	/**
+	 * Reduces a processed row with the windows of a level that start at a given offset from every column. Only the columns
+	 * whose window can reach the row are reduced, so no check is needed in the loop.
+	 *
+	 * @param tables the ring of tables.
+	 * @param level the index of the first value of the level, including its padding.
+	 * @param start the column offset of the windows.
+	 * @param pad the number of columns stored before the first column of the level.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param max true for computing the max, false for the min.
+	 * @param dst the buffer of the processed row.
+	 * @param dstOffset the index of the first value of the processed row.
+	 */
+	private static void lookup(byte[] tables, int level, int start, int pad, int cols, int channels, boolean max, byte[] dst, int dstOffset) {
+		int from = Math.max(0, -pad - start);
+		int to = Math.min(cols, cols - start);
+		if(from >= to)
+			return;
+		MorphologyEngine.extremeRow(tables, level + (start + pad) * channels, dst, dstOffset, from * channels, to * channels, max);
+	}
+}
@@ -1,4 +1,3 @@
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 
@@ -15,11 +14,11 @@ import org.opencv.core.Point;
 public class Erotion extends Dilation{
 
 	public static void main(String[] args) {
-		System.loadLibrary( Core.NATIVE_LIBRARY_NAME );
+		loadLibrary(args);
 		Erotion erotion = new Erotion(args);
 
 		System.out.println("Beginning erotion");
-		long elapsed = erotion.perform();
+		long elapsed = erotion.isStreaming() ? erotion.performStreaming() : erotion.perform();
 		erotion.saveImage();
 		System.out.println("Erotion finished. Time elapsed: " + elapsed + " ms");
 	}
@@ -39,7 +38,7 @@ public class Erotion extends Dilation{
 	 *
 	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
 	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 */
 	public Erotion(String[] args, Mat structuralElement)
@@ -54,7 +53,7 @@ public class Erotion extends Dilation{
 	 *
 	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
 	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
 	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
@@ -69,7 +68,7 @@ public class Erotion extends Dilation{
 	 * If the structural element is null, a 5x5 square will be used.
 	 *
 	 * @param src a Mat object containing the image.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
 	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
@@ -78,6 +77,20 @@ public class Erotion extends Dilation{
 		super(src, structuralElement, anchorPoint);
 	}
 
+	/**
+	 * Creates an erotion object over an image stored in a Java array, so it is performed without the native library of OpenCV.
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param src the image to process.
+	 * @param structuralElement the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeightValues(int[])}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public Erotion(ArrayImage src, ArrayImage structuralElement, Point anchorPoint) {
+		super(src, structuralElement, anchorPoint);
+	}
+
 	/**
 	 * Performs the transformation. 
 	 *
@@ -85,18 +98,24 @@ public class Erotion extends Dilation{
 	 */
 	@Override
 	public long perform() {
-		//The erotion can be defined as: (f - b)c = fc + b^ (the dilation of the complement of the image using a reflected structural element is the complement of the erotion)
+		//The erotion can be defined as: [f - b](x, y) = min{f(x + s, y + t)} for all (s, t) in b.
+		//It is computed directly, giving the same result as the complement of the dilation of the complement of the image
+		//using the reflected structural element (f - b)c = fc + b^, without creating the intermediate images.
 		long begin = System.currentTimeMillis();
-		//First, the complement of the image is obtained
-		Mat src_c = Erotion.complement(image);
-		//A dilation is performed using the complement of the image and the reflected structural element, including the reflected anchor point.
-		Dilation dilation = new Dilation(src_c, getReflection(structuralElement), 
-				getReflectedPoint(structuralElement, anchorPoint));
-		dilation.perform();
-		//The complement of the dilation is obtained
-		this.dst = complement(dilation.getProcessedImage());
+		//The structural element is compiled with the anchor point that results from the reflections of the duality.
+		Instrumentation.Recorder recorder = startRecording();
+		apply(compile(recorder), recorder);
 		long end = System.currentTimeMillis();
 		return end - begin;
 	}
 
+	/**
+	 * Gets the transformation performed by this class. It is used to compile the structural element.
+	 *
+	 * @return the type of the transformation.
+	 */
+	@Override
+	protected MorphologicalOperator.Type getType() {
+		return MorphologicalOperator.Type.EROTION;
+	}
 }
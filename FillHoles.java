@@ -0,0 +1,133 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+/**
+ * Fills the holes of an image, i.e., the dark regions that cannot be reached from the border of the image. This class
+ * loads an image, fills its holes and saves the result in the location of the user preference.
+ * The holes are obtained with a reconstruction by erotion (see {@link Reconstruction}), where the structural element
+ * gives the neighborhood of a pixel. If no kernel information is given, a 3x3 square (8-connectivity) will be used.
+ * 
+ * This transformation can be applied to binary, grayscale or color images, where the transformation is applied
+ * to the RGB channels. It cannot be performed row by row.
+ * The holes are defined by the limits of the image, so the border mode (see {@link #setBorderMode(BorderMode)}) is not used.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public class FillHoles extends Dilation {
+
+	public static void main(String[] args) {
+		loadLibrary(args);
+		FillHoles fillHoles = new FillHoles(args);
+		if(fillHoles.isStreaming()) {
+			System.out.println("The holes cannot be filled row by row");
+			return;
+		}
+
+		System.out.println("Beginning hole filling");
+		long elapsed = fillHoles.perform();
+		fillHoles.saveImage();
+		System.out.println("Hole filling finished. Time elapsed: " + elapsed + " ms");
+	}
+
+	/**
+	 * Creates a hole filling object with a square neighborhood. The anchor point of this transformation will be the center of the structural element.
+	 *
+	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
+	 *             An optional third element can be used for giving the size of the neighborhood. If not, a 3x3 square will be used.
+	 */
+	public FillHoles(String[] args) {
+		super(withDefaultSize(args, 3));
+	}
+
+	/**
+	 * Creates a hole filling object with a given neighborhood and an anchor point (the center of the structural element).
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 *
+	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
+	 * @param structuralElement a Mat object indicating the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public FillHoles(String[] args, Mat structuralElement, Point anchorPoint) {
+		super(args, structuralElement, anchorPoint);
+	}
+
+	/**
+	 * Creates a hole filling object with a given neighborhood and an anchor point (the center of the structural element).
+	 *
+	 * @param src a Mat object containing the image.
+	 * @param structuralElement a Mat object indicating the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 *                          If this parameter is null, a 3x3 square will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public FillHoles(Mat src, Mat structuralElement, Point anchorPoint) {
+		super(src, structuralElement, anchorPoint);
+	}
+
+	/**
+	 * Creates a hole filling object over an image stored in a Java array, so it is performed without the native library of OpenCV.
+	 *
+	 * @param src the image to process.
+	 * @param structuralElement the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 *                          If this parameter is null, a 3x3 square will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public FillHoles(ArrayImage src, ArrayImage structuralElement, Point anchorPoint) {
+		super(src, structuralElement != null ? structuralElement : ArrayImage.ones(3, 3), anchorPoint);
+	}
+
+	/**
+	 * Performs the transformation.
+	 *
+	 * @return the time to do the processing, in milliseconds.
+	 */
+	@Override
+	public long perform() {
+		//The holes are the dark regions not connected to the border: the image is reconstructed by erotion from its border.
+		long begin = System.currentTimeMillis();
+		if(isJavaBackend())
+			Reconstruction.fillHoles(getSource(), createTarget(), Reconstruction.compile(arrayStructuralElement, anchorPoint));
+		else
+			this.dst = Reconstruction.fillHoles(image, structuralElement, anchorPoint);
+		long end = System.currentTimeMillis();
+		return end - begin;
+	}
+
+	/**
+	 * A change of a single pixel can open or close a hole as large as the image, so the reconstruction is not updated by
+	 * regions: the whole image is filled again.
+	 *
+	 * @param frame the new version of the image.
+	 * @param dirty the regions of the image that changed. They are not used.
+	 * @return the time to do the processing, in milliseconds.
+	 */
+	@Override
+	public long performIncremental(Mat frame, Rect... dirty) {
+		this.image = frame;
+		return perform();
+	}
+
+	/**
+	 * The reconstruction is not updated by regions (see {@link #performIncremental(Mat, Rect...)}).
+	 *
+	 * @param frame the new version of the image.
+	 * @param dirty the regions of the image that changed. They are not used.
+	 * @return the time to do the processing, in milliseconds.
+	 */
+	@Override
+	public long performIncremental(ArrayImage frame, Rect... dirty) {
+		this.arrayImage = frame;
+		return perform();
+	}
+
+	/**
+	 * The reconstruction needs the whole image, so it cannot be performed row by row.
+	 *
+	 * @return 0, since nothing is processed.
+	 */
+	@Override
+	public long performStreaming() {
+		System.out.println("The holes cannot be filled row by row");
+		return 0;
+	}
+}
@@ -0,0 +1,209 @@
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rows and the columns that a transformation reads around every pixel. A pixel (i, j) of the processed image only
+ * depends on the source pixels from (i + minRow, j + minCol) to (i + maxRow, j + maxCol), where the limits are the sums of
+ * the offsets of all the steps of the transformation (e.g., the erotion and the dilation of an opening). So, when a
+ * region of the source image changes, only the processed pixels within that region expanded by the opposite offsets
+ * change, and they can be recomputed from the source pixels within them expanded by the offsets again.
+ * The limits always include the pixel itself, so the residues (which also read the source pixel) are covered and the
+ * source region needed by a region of the processed image always contains it.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+final class Footprint {
+
+	private final int minRow;
+	private final int maxRow;
+	private final int minCol;
+	private final int maxCol;
+
+	/**
+	 * Computes the footprint of a transformation.
+	 *
+	 * @param steps the steps of the transformation.
+	 */
+	Footprint(RollingStage.Step[] steps) {
+		int minRow = 0, maxRow = 0, minCol = 0, maxCol = 0;
+		for(RollingStage.Step step : steps) {
+			StructuralElement element = step.getElement();
+			StructuralElement lower = step.getLowerElement();
+			//The gradient reads the neighborhoods of both structural elements in the same sweep. An anchor point outside the
+			//structural element can leave the pixel out of its offsets, so it is added: the intermediate image of a region
+			//is then always within the source region that is processed.
+			minRow += Math.min(0, lower != null ? Math.min(element.minRowOffset(), lower.minRowOffset()) : element.minRowOffset());
+			maxRow += Math.max(0, lower != null ? Math.max(element.maxRowOffset(), lower.maxRowOffset()) : element.maxRowOffset());
+			minCol += Math.min(0, lower != null ? Math.min(element.minColOffset(), lower.minColOffset()) : element.minColOffset());
+			maxCol += Math.max(0, lower != null ? Math.max(element.maxColOffset(), lower.maxColOffset()) : element.maxColOffset());
+		}
+		this.minRow = minRow;
+		this.maxRow = maxRow;
+		this.minCol = minCol;
+		this.maxCol = maxCol;
+	}
+
+	/**
+	 * Gets the number of rows read above every pixel.
+	 *
+	 * @return the number of rows, 0 or more.
+	 */
+	int top() {
+		return -minRow;
+	}
+
+	/**
+	 * Gets the number of rows read below every pixel.
+	 *
+	 * @return the number of rows, 0 or more.
+	 */
+	int bottom() {
+		return maxRow;
+	}
+
+	/**
+	 * Gets the number of columns read before every pixel.
+	 *
+	 * @return the number of columns, 0 or more.
+	 */
+	int left() {
+		return -minCol;
+	}
+
+	/**
+	 * Gets the number of columns read after every pixel.
+	 *
+	 * @return the number of columns, 0 or more.
+	 */
+	int right() {
+		return maxCol;
+	}
+
+	/**
+	 * Gets the regions of the processed image that change when some regions of the source image change. Every region is
+	 * expanded by the footprint and clipped to the image, and the regions that overlap are merged into their bounding box,
+	 * so no pixel is recomputed twice.
+	 *
+	 * @param dirty the regions of the source image that changed. Regions outside the image are ignored.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @return the regions of the processed image to recompute. They do not overlap.
+	 */
+	Rect[] affected(Rect[] dirty, int rows, int cols) {
+		return affected(dirty, rows, cols, BorderMode.IGNORE);
+	}
+
+	/**
+	 * Gets the regions of the processed image that change when some regions of the source image change, for a
+	 * transformation that extends the image with a border mode. When the pixels outside the image are copied from the
+	 * image (see {@link BorderMode#readsImage()}), a change near a limit of the image is also read through the border
+	 * by the pixels along that limit, so the regions that are closer to a limit than the extent of the footprint are
+	 * also expanded to the limit and to that extent.
+	 *
+	 * @param dirty the regions of the source image that changed. Regions outside the image are ignored.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param border how the image is extended.
+	 * @return the regions of the processed image to recompute. They do not overlap.
+	 */
+	Rect[] affected(Rect[] dirty, int rows, int cols, BorderMode border) {
+		int height = maxRow - minRow;
+		int width = maxCol - minCol;
+		List<Rect> regions = new ArrayList<>();
+		for(Rect rect : dirty) {
+			if(rect == null || rect.width <= 0 || rect.height <= 0)
+				continue;
+			//The source row r is read by the processed rows from r - maxRow to r - minRow.
+			int left = rect.x - maxCol;
+			int top = rect.y - maxRow;
+			int right = rect.x + rect.width - 1 - minCol;
+			int bottom = rect.y + rect.height - 1 - minRow;
+			if(border.readsImage()) {
+				if(top <= height) {
+					top = 0;
+					bottom = Math.max(bottom, height);
+				}
+				if(bottom >= rows - 1 - height) {
+					bottom = rows - 1;
+					top = Math.min(top, rows - 1 - height);
+				}
+				if(left <= width) {
+					left = 0;
+					right = Math.max(right, width);
+				}
+				if(right >= cols - 1 - width) {
+					right = cols - 1;
+					left = Math.min(left, cols - 1 - width);
+				}
+			}
+			Rect region = clip(left, top, right, bottom, rows, cols);
+			if(region != null)
+				add(regions, region);
+		}
+		return regions.toArray(new Rect[0]);
+	}
+
+	/**
+	 * Gets the region of the source image needed to recompute a region of the processed image.
+	 *
+	 * @param region the region of the processed image.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @return the region of the source image, clipped to the image. It contains the given region.
+	 */
+	Rect support(Rect region, int rows, int cols) {
+		return clip(region.x + minCol, region.y + minRow, region.x + region.width - 1 + maxCol, region.y + region.height - 1 + maxRow, rows, cols);
+	}
+
+	/**
+	 * Adds a region to a list of regions that do not overlap, merging it with the regions it overlaps. The merged region
+	 * can overlap other regions of the list, so it is added again until it overlaps none.
+	 *
+	 * @param regions the regions.
+	 * @param region the region to add.
+	 */
+	private static void add(List<Rect> regions, Rect region) {
+		boolean merged = true;
+		while(merged) {
+			merged = false;
+			for(int n = 0; n<regions.size(); n++) {
+				Rect other = regions.get(n);
+				if(region.x < other.x + other.width && other.x < region.x + region.width
+						&& region.y < other.y + other.height && other.y < region.y + region.height) {
+					int left = Math.min(region.x, other.x);
+					int top = Math.min(region.y, other.y);
+					int right = Math.max(region.x + region.width, other.x + other.width);
+					int bottom = Math.max(region.y + region.height, other.y + other.height);
+					region = new Rect(left, top, right - left, bottom - top);
+					regions.remove(n);
+					merged = true;
+					break;
+				}
+			}
+		}
+		regions.add(region);
+	}
+
+	/**
+	 * Clips a region to an image.
+	 *
+	 * @param left the first column of the region.
+	 * @param top the first row of the region.
+	 * @param right the last column of the region (inclusive).
+	 * @param bottom the last row of the region (inclusive).
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @return the clipped region, or null if it is outside the image.
+	 */
+	private static Rect clip(int left, int top, int right, int bottom, int rows, int cols) {
+		left = Math.max(0, left);
+		top = Math.max(0, top);
+		right = Math.min(cols - 1, right);
+		bottom = Math.min(rows - 1, bottom);
+		if(left > right || top > bottom)
+			return null;
+		return new Rect(left, top, right - left + 1, bottom - top + 1);
+	}
+}
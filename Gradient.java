@@ -0,0 +1,121 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * Performs morphological gradient transformation of an image. This class loads an image and process the morphological gradient transformation
+ * with a specific kernel. The gradient is the dilation minus the erotion, which highlights the edges of the image.
+ * If no kernel information is given, a default will be used (a 5x5 square). When the
+ * the transformation is finished, the image will be saved in the location of the user preference. 
+ * 
+ * This transformation can be applied to grayscale or color images, where the transformation is applied
+ * to the RGB channels.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public class Gradient extends Dilation{
+
+	public static void main(String[] args) {
+		loadLibrary(args);
+		Gradient gradient = new Gradient(args);
+
+		System.out.println("Beginning morphological gradient");
+		long elapsed = gradient.isStreaming() ? gradient.performStreaming() : gradient.perform();
+		gradient.saveImage();
+		System.out.println("Gradient finished. Time elapsed: " + elapsed + " ms");
+	}
+
+	/**
+	 * Creates a morphological gradient object with a square flat structural element. The anchor point of this transformation will be the center of the structural element.
+	 *
+	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
+	 *             An optional third element can be used for giving the size of the structural element. If not, a 5x5 square will be used.
+	 */
+	public Gradient(String[] args) {
+		super(args);
+	}
+
+	/**
+	 * Creates a morphological gradient object with a given structural element. The anchor point of this transformation will be the center of the structural element.
+	 *
+	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
+	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 */
+	public Gradient(String[] args, Mat structuralElement){
+		super(args, structuralElement);
+	}
+
+	/**
+	 * Creates a morphological gradient object with a given structural element and an anchor point (the center of the structural element).
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
+	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
+	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public Gradient(String[] args, Mat structuralElement, Point anchorPoint) {
+		super(args, structuralElement, anchorPoint);
+	}
+
+	/**
+	 * Creates a morphological gradient object with a given structural element and an anchor point (the center of the structural element).
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param src a Mat object containing the image.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
+	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public Gradient(Mat src, Mat structuralElement, Point anchorPoint) {
+		super(src, structuralElement, anchorPoint);
+	}
+
+	/**
+	 * Creates a gradient object over an image stored in a Java array, so it is performed without the native library of OpenCV.
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param src the image to process.
+	 * @param structuralElement the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeightValues(int[])}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public Gradient(ArrayImage src, ArrayImage structuralElement, Point anchorPoint) {
+		super(src, structuralElement, anchorPoint);
+	}
+
+	/**
+	 * Performs the transformation. 
+	 *
+	 * @return the time to do the processing, in milliseconds.
+	 */
+	@Override
+	public long perform() {
+		//The gradient can be defined as: g = (f + b) - (f - b).
+		long begin = System.currentTimeMillis();
+		//The max and the min of every neighborhood are computed in the same sweep over a rolling window of rows,
+		//so neither the dilation nor the erotion is stored.
+		Instrumentation.Recorder recorder = startRecording();
+		MorphologicalOperator operator = compile(recorder);
+		fuse(operator, recorder);
+		long end = System.currentTimeMillis();
+		return end - begin;
+	}
+
+	/**
+	 * Gets the transformation performed by this class. It is used to compile the structural element.
+	 *
+	 * @return the type of the transformation.
+	 */
+	@Override
+	protected MorphologicalOperator.Type getType() {
+		return MorphologicalOperator.Type.GRADIENT;
+	}
+}
@@ -0,0 +1,236 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Computes the openings (or the closings) of an image with squares of increasing sizes (3x3, 5x5, 7x7...) and its pattern
+ * spectrum, e.g., for texture analysis.
+ * Since a (2k + 1) x (2k + 1) square is a 3x3 square dilated k times, the erotion with the square of a scale is obtained
+ * eroding the erotion of the previous scale with a 3x3 square, instead of eroding the original image again. The dilation
+ * of every scale is computed with the separable transformation, whose cost per pixel does not depend on the size of the
+ * square, so every scale costs about two passes over the image, whatever its size. The closings are obtained in the same
+ * way, exchanging the erotions and the dilations.
+ * The area of an image is the sum of all its values. The pattern spectrum gives the area removed by every scale.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class Granulometry {
+
+	private final boolean closing;
+	private final long[] areas;
+	private final Mat[] images;
+
+	private Granulometry(boolean closing, long[] areas, Mat[] images) {
+		this.closing = closing;
+		this.areas = areas;
+		this.images = images;
+	}
+
+	public static void main(String[] args) {
+		if(args == null || args.length < 2) {
+			System.out.println("You must enter two arguments: the image to process and the size of the largest square (an odd number)");
+			System.out.println("An optional third argument \"closing\" computes the closings instead of the openings");
+			return;
+		}
+		System.loadLibrary( Core.NATIVE_LIBRARY_NAME );
+		Mat image = Imgcodecs.imread(args[0]);
+		int maxSize;
+		try {
+			maxSize = Integer.parseInt(args[1]);
+		} catch(NumberFormatException e) {
+			System.out.println("The size must be a number: " + args[1]);
+			return;
+		}
+		boolean closing = args.length > 2 && args[2].equalsIgnoreCase("closing");
+
+		System.out.println("Beginning granulometry");
+		long begin = System.currentTimeMillis();
+		Granulometry granulometry = closing ? closings(image, maxSize, RowBands.SERIAL, false)
+				: openings(image, maxSize, RowBands.SERIAL, false);
+		long end = System.currentTimeMillis();
+		long[] spectrum = granulometry.getPatternSpectrum();
+		for(int scale = 1; scale<granulometry.getScales(); scale++) {
+			System.out.println(getSize(scale) + "\t" + granulometry.getArea(scale) + "\t" + spectrum[scale - 1]);
+		}
+		System.out.println("Granulometry finished. Time elapsed: " + (end - begin) + " ms");
+	}
+
+	/**
+	 * Computes the openings of an image with all the squares from 3x3 to a given size.
+	 *
+	 * @param src the image to process. It must be an 8-bit image.
+	 * @param maxSize the size of the largest square. It must be an odd number greater than 1.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param keepImages true if the opened images must be kept (see {@link #getImage(int)}), false if only their areas are needed.
+	 * @return the granulometry.
+	 * @throws IllegalArgumentException if the size is not valid or the image is not an 8-bit image.
+	 */
+	public static Granulometry openings(Mat src, int maxSize, RowBands bands, boolean keepImages) {
+		return compute(src, maxSize, bands, keepImages, false);
+	}
+
+	/**
+	 * Computes the closings of an image with all the squares from 3x3 to a given size.
+	 *
+	 * @param src the image to process. It must be an 8-bit image.
+	 * @param maxSize the size of the largest square. It must be an odd number greater than 1.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param keepImages true if the closed images must be kept (see {@link #getImage(int)}), false if only their areas are needed.
+	 * @return the granulometry.
+	 * @throws IllegalArgumentException if the size is not valid or the image is not an 8-bit image.
+	 */
+	public static Granulometry closings(Mat src, int maxSize, RowBands bands, boolean keepImages) {
+		return compute(src, maxSize, bands, keepImages, true);
+	}
+
+	/**
+	 * Computes the openings or the closings of all the scales.
+	 *
+	 * @param src the image to process. It must be an 8-bit image.
+	 * @param maxSize the size of the largest square.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param keepImages true if the processed images must be kept.
+	 * @param closing true for the closings, false for the openings.
+	 * @return the granulometry.
+	 */
+	private static Granulometry compute(Mat src, int maxSize, RowBands bands, boolean keepImages, boolean closing) {
+		if(maxSize < 3 || maxSize % 2 == 0)
+			throw new IllegalArgumentException("The size of the largest square must be an odd number greater than 1: " + maxSize);
+		//The areas and the scales are computed on the bytes of the image, so the deeper images are rejected instead of being read as bytes.
+		if(src.depth() != CvType.CV_8U)
+			throw new IllegalArgumentException("The granulometry needs an 8-bit image (CV_8U), but the depth of the image is " + src.depth());
+
+		int scales = (maxSize - 1) / 2 + 1;
+		long[] areas = new long[scales];
+		Mat[] images = keepImages ? new Mat[scales] : null;
+		byte[] pixels = MorphologyEngine.toArray(src);
+		areas[0] = area(pixels);
+		if(images != null)
+			images[0] = src.clone();
+		if(pixels.length == 0) {
+			for(int scale = 1; scale<scales; scale++) {
+				if(images != null)
+					images[scale] = src.clone();
+			}
+			return new Granulometry(closing, areas, images);
+		}
+
+		int rows = src.rows();
+		int cols = src.cols();
+		int channels = src.channels();
+		Workspace workspace = new Workspace();
+		Mat square = Mat.ones(3, 3, CvType.CV_8UC1);
+		Point center = new Point(1, 1);
+		StructuralElement step = closing ? StructuralElement.forDilation(square, center) : StructuralElement.forErotion(square, center);
+
+		//The first transformation of the current scale (the erotion of the openings), obtained from the previous scale.
+		byte[] first = pixels.clone();
+		byte[] next = new byte[pixels.length];
+		byte[] result = new byte[pixels.length];
+		for(int scale = 1; scale<scales; scale++) {
+			//(f - b[2k + 1]) = (f - b[2k - 1]) - b[3]
+			if(closing)
+				MorphologyEngine.dilate(first, next, rows, cols, channels, step, bands, workspace);
+			else
+				MorphologyEngine.erode(first, next, rows, cols, channels, step, bands, workspace);
+			byte[] swap = first;
+			first = next;
+			next = swap;
+
+			//The second transformation uses the whole square, with the separable transformation.
+			int size = getSize(scale);
+			Mat element = Mat.ones(size, size, CvType.CV_8UC1);
+			Point anchorPoint = new Point(scale, scale);
+			if(closing)
+				MorphologyEngine.erode(first, result, rows, cols, channels, StructuralElement.forErotion(element, anchorPoint), bands, workspace);
+			else
+				MorphologyEngine.dilate(first, result, rows, cols, channels, StructuralElement.forDilation(element, anchorPoint), bands, workspace);
+
+			areas[scale] = area(result);
+			if(images != null)
+				images[scale] = MorphologyEngine.toMat(result, src);
+		}
+		return new Granulometry(closing, areas, images);
+	}
+
+	/**
+	 * Gets the sum of all the values of an image.
+	 *
+	 * @param pixels the pixels of the image.
+	 * @return the area of the image.
+	 */
+	private static long area(byte[] pixels) {
+		long area = 0;
+		for(byte pixel : pixels) {
+			area += pixel & 0xFF;
+		}
+		return area;
+	}
+
+	/**
+	 * Gets the size of the square of a scale.
+	 *
+	 * @param scale the index of the scale. The scale 0 is the original image.
+	 * @return the size of the square, 2 * scale + 1.
+	 */
+	public static int getSize(int scale) {
+		return 2 * scale + 1;
+	}
+
+	/**
+	 * Gets the number of scales, including the original image (the scale 0).
+	 *
+	 * @return the number of scales.
+	 */
+	public int getScales() {
+		return areas.length;
+	}
+
+	/**
+	 * Indicates if the granulometry was computed with closings.
+	 *
+	 * @return true for closings, false for openings.
+	 */
+	public boolean isClosing() {
+		return closing;
+	}
+
+	/**
+	 * Gets the area (the sum of all the values) of the image processed with the square of a scale.
+	 *
+	 * @param scale the index of the scale. The scale 0 is the original image.
+	 * @return the area of the processed image.
+	 */
+	public long getArea(int scale) {
+		return areas[scale];
+	}
+
+	/**
+	 * Gets the image processed with the square of a scale.
+	 *
+	 * @param scale the index of the scale. The scale 0 is the original image.
+	 * @return the processed image.
+	 * @throws IllegalStateException if the images were not kept.
+	 */
+	public Mat getImage(int scale) {
+		if(images == null)
+			throw new IllegalStateException("The images of the granulometry were not kept");
+		return images[scale];
+	}
+
+	/**
+	 * Gets the pattern spectrum: the area removed (by the openings) or added (by the closings) by every scale. The value n
+	 * is the difference between the scales n and n + 1, so it measures the details as large as the square of the scale n + 1.
+	 *
+	 * @return a new array with getScales() - 1 values, all of them non-negative.
+	 */
+	public long[] getPatternSpectrum() {
+		long[] spectrum = new long[areas.length - 1];
+		for(int n = 0; n<spectrum.length; n++) {
+			spectrum[n] = closing ? areas[n + 1] - areas[n] : areas[n] - areas[n + 1];
+		}
+		return spectrum;
+	}
+}
@@ -0,0 +1,300 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records where the time of the morphological transformations goes (reading the image, compiling the structural element,
+ * copying the pixels, processing them and writing the result), the number of pixels processed per second, the bytes
+ * allocated and the execution mode that was chosen, and gives these metrics to the registered listeners (e.g.,
+ * {@link MorphologyMetrics}, which exposes them through JMX).
+ * The instrumentation is disabled while no listener is registered: the transformations only check a volatile flag and
+ * no recorder is created, so the cost is negligible.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class Instrumentation {
+
+	/**
+	 * The stages of a transformation.
+	 */
+	public enum Stage {
+		/**
+		 * Reading and decoding the image.
+		 */
+		READ,
+		/**
+		 * Reflecting and compiling the structural element.
+		 */
+		COMPILE,
+		/**
+		 * Copying the pixels from the Mat into the buffers.
+		 */
+		COPY_IN,
+		/**
+		 * The morphological transformation itself.
+		 */
+		PROCESS,
+		/**
+		 * Copying the processed pixels back into a Mat.
+		 */
+		COPY_OUT,
+		/**
+		 * Encoding and writing the image.
+		 */
+		WRITE
+	}
+
+	/**
+	 * Receives the metrics of every instrumented operation.
+	 */
+	public interface Listener {
+		/**
+		 * Receives the metrics of an operation. It is called from the thread that performed the operation, so it must be
+		 * thread-safe and fast.
+		 *
+		 * @param metrics the metrics of the operation.
+		 */
+		void onMetrics(Metrics metrics);
+	}
+
+	/**
+	 * The metrics of an instrumented operation (a transformation, or the writing of its result).
+	 */
+	public static final class Metrics {
+		private final String transformation;
+		private final int rows;
+		private final int cols;
+		private final int channels;
+		private final String mode;
+		private final long[] nanos;
+		private final long allocatedBytes;
+
+		private Metrics(String transformation, int rows, int cols, int channels, String mode, long[] nanos, long allocatedBytes) {
+			this.transformation = transformation;
+			this.rows = rows;
+			this.cols = cols;
+			this.channels = channels;
+			this.mode = mode;
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		/**
+		 * Gets the name of the transformation.
+		 *
+		 * @return the name of the transformation (e.g., "Dilation").
+		 */
+		public String getTransformation() {
+			return transformation;
+		}
+
+		/**
+		 * Gets the number of rows of the image.
+		 *
+		 * @return the number of rows.
+		 */
+		public int getRows() {
+			return rows;
+		}
+
+		/**
+		 * Gets the number of columns of the image.
+		 *
+		 * @return the number of columns.
+		 */
+		public int getCols() {
+			return cols;
+		}
+
+		/**
+		 * Gets the number of channels of the image.
+		 *
+		 * @return the number of channels.
+		 */
+		public int getChannels() {
+			return channels;
+		}
+
+		/**
+		 * Gets the execution mode chosen for the operation, e.g., "separable, serial" or "binary, 4 bands".
+		 *
+		 * @return the execution mode.
+		 */
+		public String getMode() {
+			return mode;
+		}
+
+		/**
+		 * Gets the time spent in a stage.
+		 *
+		 * @param stage the stage.
+		 * @return the time, in nanoseconds. It is 0 if the stage was not performed.
+		 */
+		public long getNanos(Stage stage) {
+			return nanos[stage.ordinal()];
+		}
+
+		/**
+		 * Gets the time spent in all the stages.
+		 *
+		 * @return the time, in nanoseconds.
+		 */
+		public long getTotalNanos() {
+			long total = 0;
+			for(long value : nanos) {
+				total += value;
+			}
+			return total;
+		}
+
+		/**
+		 * Gets the number of pixels processed per second by the transformation itself (the PROCESS stage).
+		 *
+		 * @return the pixels per second, or 0 if nothing was processed.
+		 */
+		public double getPixelsPerSecond() {
+			long process = getNanos(Stage.PROCESS);
+			return process > 0 ? (double)rows * cols * 1e9 / process : 0;
+		}
+
+		/**
+		 * Gets the bytes allocated by the calling thread during the operation. The bytes allocated by the threads that
+		 * process the bands of rows in parallel are not included.
+		 *
+		 * @return the allocated bytes, or -1 if the JVM does not measure them.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder(transformation).append(' ').append(rows).append('x').append(cols)
+					.append('x').append(channels).append(" [").append(mode).append(']');
+			for(Stage stage : Stage.values()) {
+				if(getNanos(stage) > 0)
+					builder.append(' ').append(stage).append('=').append(getNanos(stage)).append("ns");
+			}
+			return builder.append(" allocated=").append(allocatedBytes).toString();
+		}
+	}
+
+	/**
+	 * Measures the stages of an operation. Every mark assigns the time since the previous mark to a stage, so the stages
+	 * can be interleaved (e.g., reading, processing and writing every row). A recorder is used by one thread.
+	 */
+	static final class Recorder {
+		private final long[] nanos = new long[Stage.values().length];
+		private final long allocatedStart;
+		private long last;
+		private String mode = "";
+
+		private Recorder() {
+			this.allocatedStart = allocatedBytes();
+			this.last = System.nanoTime();
+		}
+
+		/**
+		 * Assigns the time since the previous mark to a stage.
+		 *
+		 * @param stage the stage that has just finished.
+		 */
+		void mark(Stage stage) {
+			long now = System.nanoTime();
+			nanos[stage.ordinal()] += now - last;
+			last = now;
+		}
+
+		/**
+		 * Restarts the clock, so the time since the previous mark is not assigned to any stage.
+		 */
+		void restart() {
+			last = System.nanoTime();
+		}
+
+		/**
+		 * Sets the execution mode of the operation.
+		 *
+		 * @param mode a short description of the execution mode.
+		 */
+		void setMode(String mode) {
+			this.mode = mode;
+		}
+
+		/**
+		 * Finishes the operation and gives its metrics to the listeners.
+		 *
+		 * @param transformation the name of the transformation.
+		 * @param rows the number of rows of the image.
+		 * @param cols the number of columns of the image.
+		 * @param channels the number of channels of the image.
+		 */
+		void publish(String transformation, int rows, int cols, int channels) {
+			long allocated = allocatedStart >= 0 ? allocatedBytes() - allocatedStart : -1;
+			Metrics metrics = new Metrics(transformation, rows, cols, channels, mode, nanos.clone(), allocated);
+			for(Listener listener : LISTENERS) {
+				listener.onMetrics(metrics);
+			}
+		}
+	}
+
+	private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+	private static volatile boolean enabled;
+
+	private Instrumentation() {
+	}
+
+	/**
+	 * Registers a listener, enabling the instrumentation.
+	 *
+	 * @param listener the listener to register.
+	 */
+	public static synchronized void addListener(Listener listener) {
+		LISTENERS.add(listener);
+		enabled = true;
+	}
+
+	/**
+	 * Removes a listener. The instrumentation is disabled when there are no listeners.
+	 *
+	 * @param listener the listener to remove.
+	 */
+	public static synchronized void removeListener(Listener listener) {
+		LISTENERS.remove(listener);
+		enabled = !LISTENERS.isEmpty();
+	}
+
+	/**
+	 * Indicates if any listener is registered.
+	 *
+	 * @return true if the operations are instrumented.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts recording an operation.
+	 *
+	 * @return a new recorder, or null if the instrumentation is disabled.
+	 */
+	static Recorder start() {
+		return enabled ? new Recorder() : null;
+	}
+
+	/**
+	 * Gets the bytes allocated by the calling thread since it started, if the JVM measures them.
+	 *
+	 * @return the allocated bytes, or -1 if they are not available.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean)threads;
+			if(allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled())
+				return allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
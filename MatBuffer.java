@@ -0,0 +1,419 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Reads and writes the rows of an 8-bit Mat straight from its native memory. The data of the Mat is wrapped as a direct
+ * ByteBuffer that starts at its data address and covers all its rows, so no copy of the image is made and no native call
+ * is done for every row: reading a row is a single memory copy into a buffer that stays in the cache.
+ * The rows of a non-continuous Mat (e.g., a region of interest obtained with submat) are separated by the step of the Mat
+ * instead of by the length of a row, so every row is addressed with the step.
+ * The buffer is created with the foreign memory API of the JDK, which on Java 17 needs the JVM options
+ * "--add-modules jdk.incubator.foreign --enable-native-access=ALL-UNNAMED". If the JVM does not allow wrapping a native
+ * address, or the Mat is not an 8-bit image, the rows are read and written with Mat.get and Mat.put instead, which gives
+ * the same results (see {@link #isDirect()}).
+ * The buffer keeps a position, so it must be used by one thread; the other threads get their own with {@link #view()}.
+ * The Mat must not be released or reallocated while its buffer is used.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class MatBuffer implements PixelBuffer {
+
+	//Creates direct buffers over native addresses, or is null if the JVM does not allow it.
+	private static final DirectBuffers DIRECT_BUFFERS = DirectBuffers.create();
+
+	private final Mat mat;
+	private final int rows;
+	private final int cols;
+	private final int channels;
+	private final int rowLength;
+	private final int step;
+	//The native memory of the Mat, used to know if two buffers overlap even if they are not direct.
+	private final long address;
+	private final long extent;
+	private final ByteBuffer buffer;
+
+	//A row used when the Mat is accessed with get and put and the caller's buffer does not hold exactly one row.
+	private byte[] scratch;
+
+	private MatBuffer(Mat mat, int rows, int cols, int channels, int step, long address, long extent, ByteBuffer buffer) {
+		this.mat = mat;
+		this.rows = rows;
+		this.cols = cols;
+		this.channels = channels;
+		this.rowLength = cols * channels;
+		this.step = step;
+		this.address = address;
+		this.extent = extent;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Wraps the memory of a Mat. The Mat is not copied.
+	 *
+	 * @param mat the image. If it is not an 8-bit image, it is accessed with Mat.get and Mat.put, which reject it.
+	 * @return the buffer of the image.
+	 */
+	public static MatBuffer wrap(Mat mat) {
+		int rows = mat.rows();
+		int cols = mat.cols();
+		int channels = mat.channels();
+		int rowLength = cols * channels;
+		ByteBuffer buffer = null;
+		int step = rowLength;
+		long address = 0;
+		long extent = 0;
+		if(rows > 0 && cols > 0) {
+			//The step of a ROI is the step of its parent, so the last row is the only one that ends before the step.
+			long stride = mat.step1(0) * mat.elemSize1();
+			address = mat.dataAddr();
+			extent = (rows - 1) * stride + cols * mat.elemSize();
+			if(DIRECT_BUFFERS != null && mat.depth() == CvType.CV_8U && address != 0 && extent <= Integer.MAX_VALUE) {
+				buffer = DIRECT_BUFFERS.wrap(address, (int)extent);
+				step = (int)stride;
+			}
+		}
+		return new MatBuffer(mat, rows, cols, channels, step, address, extent, buffer);
+	}
+
+	/**
+	 * Creates another buffer over the same memory, so it can be used from another thread.
+	 *
+	 * @return a new buffer over the same Mat.
+	 */
+	@Override
+	public MatBuffer view() {
+		return new MatBuffer(mat, rows, cols, channels, step, address, extent, buffer != null ? buffer.duplicate() : null);
+	}
+
+	/**
+	 * Indicates if two buffers can share memory, e.g., the same Mat, or a Mat and a region of interest within it. The
+	 * native memory of the Mats is compared, so it does not depend on whether the buffers are direct.
+	 *
+	 * @param other the other buffer.
+	 * @return true if a byte of a buffer can be a byte of the other one.
+	 */
+	@Override
+	public boolean overlaps(PixelBuffer other) {
+		if(!(other instanceof MatBuffer))
+			return false;
+		MatBuffer buffer = (MatBuffer)other;
+		if(mat == buffer.mat)
+			return true;
+		if(address == 0 || buffer.address == 0)
+			return false;
+		return address < buffer.address + buffer.extent && buffer.address < address + extent;
+	}
+
+	/**
+	 * Indicates if the memory of the Mat is accessed directly. If not, every row is read and written with a native call.
+	 *
+	 * @return true if the rows are read from the native memory without a native call.
+	 */
+	@Override
+	public boolean isDirect() {
+		return buffer != null;
+	}
+
+	/**
+	 * Gets the wrapped image.
+	 *
+	 * @return the Mat.
+	 */
+	public Mat getMat() {
+		return mat;
+	}
+
+	/**
+	 * Gets the number of rows of the image.
+	 *
+	 * @return the number of rows.
+	 */
+	@Override
+	public int rows() {
+		return rows;
+	}
+
+	/**
+	 * Gets the number of columns of the image.
+	 *
+	 * @return the number of columns.
+	 */
+	@Override
+	public int cols() {
+		return cols;
+	}
+
+	/**
+	 * Gets the number of channels of the image.
+	 *
+	 * @return the number of channels.
+	 */
+	@Override
+	public int channels() {
+		return channels;
+	}
+
+	/**
+	 * Gets the number of values of a row, without the padding of a non-continuous image.
+	 *
+	 * @return cols * channels.
+	 */
+	@Override
+	public int rowLength() {
+		return rowLength;
+	}
+
+	/**
+	 * Reads a row of the image.
+	 *
+	 * @param row the index of the row.
+	 * @param dst the buffer where the row is written.
+	 * @param offset the index in dst of the first value of the row.
+	 */
+	@Override
+	public void getRow(int row, byte[] dst, int offset) {
+		if(buffer != null) {
+			buffer.position(row * step);
+			buffer.get(dst, offset, rowLength);
+			return;
+		}
+		if(offset == 0 && dst.length == rowLength) {
+			mat.get(row, 0, dst);
+			return;
+		}
+		mat.get(row, 0, scratch());
+		System.arraycopy(scratch, 0, dst, offset, rowLength);
+	}
+
+	/**
+	 * Reads a part of a row of the image.
+	 *
+	 * @param row the index of the row.
+	 * @param from the index of the first value to read, within the row.
+	 * @param dst the buffer where the values are written.
+	 * @param offset the index in dst of the first value.
+	 * @param length the number of values to read.
+	 */
+	@Override
+	public void get(int row, int from, byte[] dst, int offset, int length) {
+		if(buffer != null) {
+			buffer.position(row * step + from);
+			buffer.get(dst, offset, length);
+			return;
+		}
+		//Mat.get reads whole pixels from the beginning of the buffer, so the whole row is read.
+		mat.get(row, 0, scratch());
+		System.arraycopy(scratch, from, dst, offset, length);
+	}
+
+	/**
+	 * Writes a part of a row of the image.
+	 *
+	 * @param row the index of the row.
+	 * @param from the index of the first value to write, within the row.
+	 * @param src the buffer with the values.
+	 * @param offset the index in src of the first value to write.
+	 * @param length the number of values to write.
+	 */
+	@Override
+	public void put(int row, int from, byte[] src, int offset, int length) {
+		if(buffer != null) {
+			buffer.position(row * step + from);
+			buffer.put(src, offset, length);
+			return;
+		}
+		if(from == 0 && offset == 0 && length == rowLength && src.length == rowLength) {
+			mat.put(row, 0, src);
+			return;
+		}
+		//Mat.put writes whole pixels from the beginning of the buffer, so the rest of the row is read first.
+		mat.get(row, 0, scratch());
+		System.arraycopy(src, offset, scratch, from, length);
+		mat.put(row, 0, scratch);
+	}
+
+	/**
+	 * Reads all the pixels of the image.
+	 *
+	 * @param pixels the buffer where the pixels are written, in row-major order. It must have rows * cols * channels elements.
+	 * @return the same buffer.
+	 */
+	@Override
+	public byte[] get(byte[] pixels) {
+		if(pixels.length == 0)
+			return pixels;
+		if(buffer != null && step == rowLength) {
+			buffer.position(0);
+			buffer.get(pixels, 0, pixels.length);
+		}
+		else if(buffer == null && mat.isContinuous()) {
+			mat.get(0, 0, pixels);
+		}
+		else {
+			for(int i = 0; i<rows; i++) {
+				getRow(i, pixels, i * rowLength);
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * Writes all the pixels of the image.
+	 *
+	 * @param pixels the pixels, in row-major order. It must have rows * cols * channels elements.
+	 */
+	@Override
+	public void put(byte[] pixels) {
+		if(pixels.length == 0)
+			return;
+		if(buffer != null && step == rowLength) {
+			buffer.position(0);
+			buffer.put(pixels, 0, pixels.length);
+		}
+		else if(buffer == null && mat.isContinuous()) {
+			mat.put(0, 0, pixels);
+		}
+		else {
+			for(int i = 0; i<rows; i++) {
+				putRow(i, pixels, i * rowLength);
+			}
+		}
+	}
+
+	/**
+	 * Gets the row used with Mat.get and Mat.put.
+	 *
+	 * @return a buffer as long as a row.
+	 */
+	private byte[] scratch() {
+		if(scratch == null)
+			scratch = new byte[rowLength];
+		return scratch;
+	}
+
+	/**
+	 * Creates direct ByteBuffers over native addresses with the foreign memory API of the JDK: a memory segment is created
+	 * at the address and viewed as a ByteBuffer. The API is looked up by reflection, so the project compiles and runs without
+	 * it: on Java 22 or later it is java.lang.foreign, and on Java 17 it is the incubator module, which must be added with
+	 * "--add-modules jdk.incubator.foreign". In both cases, creating a segment at an address is a restricted operation,
+	 * which Java 17 only allows with "--enable-native-access=ALL-UNNAMED" (later versions allow it with a warning).
+	 * Without them, the factory is not created and the Mats are accessed with Mat.get and Mat.put.
+	 */
+	private static final class DirectBuffers {
+		//Creates a ByteBuffer from an address and a length.
+		private final MethodHandle wrap;
+
+		private DirectBuffers(MethodHandle wrap) {
+			this.wrap = wrap;
+		}
+
+		/**
+		 * Looks for the foreign memory API, first the final one and then the incubator one.
+		 *
+		 * @return the factory, or null if the JVM does not allow creating a buffer over a native address.
+		 */
+		static DirectBuffers create() {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			DirectBuffers buffers;
+			try {
+				buffers = createFinal(lookup);
+			} catch(Throwable e) {
+				buffers = null;
+			}
+			if(buffers == null) {
+				try {
+					buffers = createIncubator(lookup);
+				} catch(Throwable e) {
+					buffers = null;
+				}
+			}
+			return buffers;
+		}
+
+		/**
+		 * Uses java.lang.foreign: MemorySegment.ofAddress(address).reinterpret(length).asByteBuffer().
+		 *
+		 * @param lookup the lookup of this class. The restricted methods check the module of the caller.
+		 * @return the checked factory, or null if it does not give the memory of the address.
+		 * @throws Throwable if the API is not available or the native access is not allowed.
+		 */
+		private static DirectBuffers createFinal(MethodHandles.Lookup lookup) throws Throwable {
+			Class<?> segment = Class.forName("java.lang.foreign.MemorySegment");
+			MethodHandle ofAddress = lookup.findStatic(segment, "ofAddress", MethodType.methodType(segment, long.class));
+			MethodHandle reinterpret = lookup.findVirtual(segment, "reinterpret", MethodType.methodType(segment, long.class));
+			MethodHandle asByteBuffer = lookup.findVirtual(segment, "asByteBuffer", MethodType.methodType(ByteBuffer.class));
+			//(address, length) -> ofAddress(address).reinterpret(length).asByteBuffer()
+			MethodHandle sized = MethodHandles.filterArguments(reinterpret, 0, ofAddress);
+			MethodHandle wrap = MethodHandles.filterReturnValue(sized, asByteBuffer);
+
+			MethodHandle ofBuffer = lookup.findStatic(segment, "ofBuffer", MethodType.methodType(segment, Buffer.class));
+			MethodHandle address = lookup.findVirtual(segment, "address", MethodType.methodType(long.class));
+			return check(new DirectBuffers(wrap), MethodHandles.filterReturnValue(ofBuffer, address));
+		}
+
+		/**
+		 * Uses jdk.incubator.foreign (Java 17): MemoryAddress.ofLong(address).asSegment(length, ResourceScope.globalScope())
+		 * .asByteBuffer(). The global scope never closes the segment, since the memory belongs to the Mat.
+		 *
+		 * @param lookup the lookup of this class. The restricted methods check the module of the caller.
+		 * @return the checked factory, or null if it does not give the memory of the address.
+		 * @throws Throwable if the module is not added or the native access is not allowed.
+		 */
+		private static DirectBuffers createIncubator(MethodHandles.Lookup lookup) throws Throwable {
+			Class<?> memoryAddress = Class.forName("jdk.incubator.foreign.MemoryAddress");
+			Class<?> segment = Class.forName("jdk.incubator.foreign.MemorySegment");
+			Class<?> scope = Class.forName("jdk.incubator.foreign.ResourceScope");
+			Object global = lookup.findStatic(scope, "globalScope", MethodType.methodType(scope)).invoke();
+			MethodHandle ofLong = lookup.findStatic(memoryAddress, "ofLong", MethodType.methodType(memoryAddress, long.class));
+			MethodHandle asSegment = lookup.findVirtual(memoryAddress, "asSegment", MethodType.methodType(segment, long.class, scope));
+			MethodHandle asByteBuffer = lookup.findVirtual(segment, "asByteBuffer", MethodType.methodType(ByteBuffer.class));
+			//(address, length) -> ofLong(address).asSegment(length, global).asByteBuffer()
+			MethodHandle sized = MethodHandles.insertArguments(MethodHandles.filterArguments(asSegment, 0, ofLong), 2, global);
+			MethodHandle wrap = MethodHandles.filterReturnValue(sized, asByteBuffer);
+
+			MethodHandle ofByteBuffer = lookup.findStatic(segment, "ofByteBuffer", MethodType.methodType(segment, ByteBuffer.class));
+			MethodHandle address = MethodHandles.filterReturnValue(
+					lookup.findVirtual(segment, "address", MethodType.methodType(memoryAddress)),
+					lookup.findVirtual(memoryAddress, "toRawLongValue", MethodType.methodType(long.class)));
+			return check(new DirectBuffers(wrap), MethodHandles.filterReturnValue(ofByteBuffer, address));
+		}
+
+		/**
+		 * Checks a factory once with a direct buffer whose address is known.
+		 *
+		 * @param buffers the factory.
+		 * @param addressOf gives the address of a direct buffer.
+		 * @return the factory, or null if the buffer that it creates is not the memory of the address.
+		 * @throws Throwable if the address cannot be wrapped.
+		 */
+		private static DirectBuffers check(DirectBuffers buffers, MethodHandle addressOf) throws Throwable {
+			ByteBuffer check = ByteBuffer.allocateDirect(2);
+			check.put(1, (byte)7);
+			long address = (long)addressOf.invoke((Buffer)check);
+			ByteBuffer wrapped = buffers.wrap(address, 2);
+			wrapped.put(0, (byte)5);
+			return wrapped.capacity() == 2 && wrapped.get(1) == 7 && check.get(0) == 5 ? buffers : null;
+		}
+
+		/**
+		 * Creates a direct buffer over a native address.
+		 *
+		 * @param address the address of the first byte.
+		 * @param capacity the number of bytes.
+		 * @return a new buffer, with its position at 0 and its limit at the capacity.
+		 */
+		ByteBuffer wrap(long address, int capacity) {
+			try {
+				return (ByteBuffer)wrap.invoke(address, (long)capacity);
+			} catch(Throwable e) {
+				throw new IllegalStateException("The native memory of the image cannot be wrapped", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,671 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A morphological transformation whose structural element and anchor point are compiled once, so it can be applied to
+ * many images (e.g., the frames of a video) without reflecting the structural element or creating new transformation
+ * objects every time.
+ * An operator is immutable and thread-safe. Every thread reuses its own buffers, so applying the operator to images of
+ * the same size with a given destination does not allocate new buffers after the first image.
+ * The opening and the closing keep the intermediate image in one of these buffers, which is faster for repeated frames;
+ * for a single large image, {@link Opening} and {@link Closing} fuse both transformations without it.
+ * When consecutive frames only differ in some regions, the previous result can be updated recomputing only the pixels
+ * that depend on those regions (see {@link #update(Mat, Mat, Rect...)}).
+ * The pixels outside the image are ignored, unless another border mode is given (see {@link #withBorder(BorderMode, double)}).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class MorphologicalOperator {
+
+	/**
+	 * The morphological transformations that can be compiled.
+	 */
+	public enum Type {
+		DILATION("Dilation"), EROTION("Erotion"), OPENING("Opening"), CLOSING("Closing"), GRADIENT("Gradient"),
+		TOP_HAT("TopHat"), BLACK_HAT("BlackHat");
+
+		private final String transformation;
+
+		Type(String transformation) {
+			this.transformation = transformation;
+		}
+
+		/**
+		 * Gets the name of the class of the transformation (e.g., TopHat), which is the name used by the instrumentation.
+		 *
+		 * @return the name of the transformation.
+		 */
+		String getTransformation() {
+			return transformation;
+		}
+	}
+
+	private final Type type;
+	private final StructuralElement dilation;
+	private final StructuralElement erotion;
+	private final RowBands bands;
+	private final RollingStage.Step[] steps;
+	private final Footprint footprint;
+	//The extent of every step, used to extend its input when the pixels outside the image are not ignored.
+	private final Footprint[] margins;
+	private final BorderMode border;
+	private final double borderValue;
+
+	//A copy of the structural element and the anchor point, used to know if the operator was compiled from them.
+	private final int elementRows;
+	private final int elementCols;
+	private final byte[] elementCells;
+	private final int[] heightCells;
+	private final double anchorX;
+	private final double anchorY;
+
+	private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+	private MorphologicalOperator(Type type, StructuralElement dilation, StructuralElement erotion, int elementRows, int elementCols,
+			byte[] cells, int[] heightCells, Point anchorPoint, RowBands bands, BorderMode border, double borderValue) {
+		this.type = type;
+		this.dilation = dilation;
+		this.erotion = erotion;
+		this.bands = bands;
+		this.steps = createSteps(type, dilation, erotion);
+		this.footprint = new Footprint(steps);
+		this.margins = new Footprint[steps.length];
+		for(int n = 0; n<steps.length; n++) {
+			margins[n] = new Footprint(new RollingStage.Step[] { steps[n] });
+		}
+		this.border = border;
+		this.borderValue = borderValue;
+		this.elementRows = elementRows;
+		this.elementCols = elementCols;
+		this.elementCells = cells;
+		this.heightCells = heightCells;
+		this.anchorX = anchorPoint.x;
+		this.anchorY = anchorPoint.y;
+	}
+
+	/**
+	 * Compiles a transformation that is performed in the calling thread.
+	 *
+	 * @param type the transformation to compile.
+	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements are flat, so values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return the compiled operator.
+	 */
+	public static MorphologicalOperator compile(Type type, Mat structuralElement, Point anchorPoint) {
+		return compile(type, structuralElement, anchorPoint, RowBands.SERIAL);
+	}
+
+	/**
+	 * Compiles a transformation.
+	 *
+	 * @param type the transformation to compile.
+	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements are flat, so values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @param bands the parallel configuration used to process the rows of the images.
+	 * @return the compiled operator.
+	 */
+	public static MorphologicalOperator compile(Type type, Mat structuralElement, Point anchorPoint, RowBands bands) {
+		return compile(type, structuralElement, null, anchorPoint, bands);
+	}
+
+	/**
+	 * Compiles a transformation with a non-flat (grayscale) structural element. The heights are added to the pixels in the
+	 * dilation and subtracted in the erotion, saturating the results to 0 and 255.
+	 *
+	 * @param type the transformation to compile.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are the cells of the element.
+	 * @param heights a Mat with the same size as the structural element and the height of every cell. If it is null, the structural element is flat.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @param bands the parallel configuration used to process the rows of the images.
+	 * @return the compiled operator.
+	 */
+	public static MorphologicalOperator compile(Type type, Mat structuralElement, Mat heights, Point anchorPoint, RowBands bands) {
+		Objects.requireNonNull(type, "type");
+		Objects.requireNonNull(structuralElement, "structuralElement");
+		Objects.requireNonNull(bands, "bands");
+		//If anchorPoint is null, uses the center of the structural element.
+		if(anchorPoint == null)
+			anchorPoint = new Point((structuralElement.cols() - 1) / 2, (structuralElement.rows() - 1) / 2);
+		int rows = structuralElement.rows();
+		int cols = structuralElement.cols();
+		return new MorphologicalOperator(type, StructuralElement.forDilation(structuralElement, heights, anchorPoint),
+				StructuralElement.forErotion(structuralElement, heights, anchorPoint), rows, cols, readCells(structuralElement),
+				heights != null ? StructuralElement.readHeights(heights, rows, cols) : null, anchorPoint, bands, BorderMode.IGNORE, 0);
+	}
+
+	/**
+	 * Compiles a transformation with a structural element stored in a Java array, so it can be applied without the native
+	 * library of OpenCV (see {@link #apply(PixelBuffer, PixelBuffer)}).
+	 *
+	 * @param type the transformation to compile.
+	 * @param structuralElement the structural element. Values different from 0 are the cells of the element.
+	 * @param heights the height of every cell, in row-major order. If it is null, the structural element is flat.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @param bands the parallel configuration used to process the rows of the images.
+	 * @return the compiled operator.
+	 */
+	public static MorphologicalOperator compile(Type type, ArrayImage structuralElement, int[] heights, Point anchorPoint, RowBands bands) {
+		Objects.requireNonNull(type, "type");
+		Objects.requireNonNull(structuralElement, "structuralElement");
+		Objects.requireNonNull(bands, "bands");
+		if(anchorPoint == null)
+			anchorPoint = new Point((structuralElement.cols() - 1) / 2, (structuralElement.rows() - 1) / 2);
+		int rows = structuralElement.rows();
+		int cols = structuralElement.cols();
+		return new MorphologicalOperator(type, StructuralElement.forDilation(structuralElement, heights, anchorPoint),
+				StructuralElement.forErotion(structuralElement, heights, anchorPoint), rows, cols, structuralElement.getPixels().clone(),
+				heights != null ? heights.clone() : null, anchorPoint, bands, BorderMode.IGNORE, 0);
+	}
+
+	/**
+	 * Gets an operator that performs the same transformation reading the pixels outside the image with another border mode.
+	 * The structural elements are not compiled again, since the border does not change them.
+	 *
+	 * @param border how the pixels outside the image are read. The default mode is {@link BorderMode#IGNORE}.
+	 * @param value the value of the pixels outside the image in the {@link BorderMode#CONSTANT} mode. It is rounded and
+	 *              saturated to the range of the 8-bit and 16-bit images.
+	 * @return this operator if it already has the border, or a new operator.
+	 */
+	public MorphologicalOperator withBorder(BorderMode border, double value) {
+		Objects.requireNonNull(border, "border");
+		if(border == this.border && value == borderValue)
+			return this;
+		return new MorphologicalOperator(type, dilation, erotion, elementRows, elementCols, elementCells, heightCells,
+				new Point(anchorX, anchorY), bands, border, value);
+	}
+
+	/**
+	 * Indicates if this operator was compiled from a given transformation, structural element, anchor point and parallel
+	 * configuration, so it can be reused instead of compiling them again.
+	 *
+	 * @param type the transformation.
+	 * @param structuralElement the structural element. Its content is compared, not its reference.
+	 * @param anchorPoint the anchor point.
+	 * @param bands the parallel configuration.
+	 * @return true if the operator gives the same result as compiling them again.
+	 */
+	public boolean isCompiledFrom(Type type, Mat structuralElement, Point anchorPoint, RowBands bands) {
+		return isCompiledFrom(type, structuralElement, null, anchorPoint, bands);
+	}
+
+	/**
+	 * Indicates if this operator was compiled from a given transformation, structural element, heights, anchor point and
+	 * parallel configuration, so it can be reused instead of compiling them again.
+	 *
+	 * @param type the transformation.
+	 * @param structuralElement the structural element. Its content is compared, not its reference.
+	 * @param heights the heights of the structural element, or null if it is flat. Its content is compared, not its reference.
+	 * @param anchorPoint the anchor point.
+	 * @param bands the parallel configuration.
+	 * @return true if the operator gives the same result as compiling them again.
+	 */
+	public boolean isCompiledFrom(Type type, Mat structuralElement, Mat heights, Point anchorPoint, RowBands bands) {
+		if(this.type != type || !this.bands.equals(bands)
+				|| anchorPoint == null || anchorX != anchorPoint.x || anchorY != anchorPoint.y
+				|| structuralElement == null || elementRows != structuralElement.rows() || elementCols != structuralElement.cols()
+				|| !Arrays.equals(elementCells, readCells(structuralElement)))
+			return false;
+		if(heights == null || heightCells == null)
+			return heights == null && heightCells == null;
+		return heights.rows() == elementRows && heights.cols() == elementCols
+				&& Arrays.equals(heightCells, StructuralElement.readHeights(heights, elementRows, elementCols));
+	}
+
+	/**
+	 * Indicates if this operator was compiled from a given transformation, structural element stored in a Java array,
+	 * heights, anchor point and parallel configuration.
+	 *
+	 * @param type the transformation.
+	 * @param structuralElement the structural element. Its content is compared, not its reference.
+	 * @param heights the heights of the structural element, or null if it is flat. Its content is compared, not its reference.
+	 * @param anchorPoint the anchor point.
+	 * @param bands the parallel configuration.
+	 * @return true if the operator gives the same result as compiling them again.
+	 */
+	public boolean isCompiledFrom(Type type, ArrayImage structuralElement, int[] heights, Point anchorPoint, RowBands bands) {
+		return this.type == type && this.bands.equals(bands)
+				&& anchorPoint != null && anchorX == anchorPoint.x && anchorY == anchorPoint.y
+				&& structuralElement != null && elementRows == structuralElement.rows() && elementCols == structuralElement.cols()
+				&& Arrays.equals(elementCells, structuralElement.getPixels()) && Arrays.equals(heightCells, heights);
+	}
+
+	/**
+	 * Reads all the values of a structural element with a single bulk get.
+	 *
+	 * @param structuralElement the structural element.
+	 * @return the values of the structural element.
+	 */
+	static byte[] readCells(Mat structuralElement) {
+		byte[] cells = new byte[(int)structuralElement.total() * structuralElement.channels()];
+		if(cells.length > 0)
+			structuralElement.get(0, 0, cells);
+		return cells;
+	}
+
+	/**
+	 * Applies the transformation to an image, creating a new Mat for the result.
+	 *
+	 * @param src the image to process. Its depth must be CV_8U, CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @return a new Mat with the processed image.
+	 */
+	public Mat apply(Mat src) {
+		Mat dst = new Mat();
+		apply(src, dst);
+		return dst;
+	}
+
+	/**
+	 * Applies the transformation to an image, writing the result into a given Mat. If the destination already has the size
+	 * and the type of the source image, it is reused. The destination can be the source image itself.
+	 *
+	 * @param src the image to process. Its depth must be CV_8U, CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @param dst the Mat where the processed image is written.
+	 */
+	public void apply(Mat src, Mat dst) {
+		apply(src, dst, null);
+	}
+
+	/**
+	 * Applies the transformation to an image, writing the result into a given Mat and recording its stages.
+	 *
+	 * @param src the image to process. Its depth must be CV_8U, CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @param dst the Mat where the processed image is written.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 */
+	void apply(Mat src, Mat dst, Instrumentation.Recorder recorder) {
+		apply(src, dst, null, recorder);
+	}
+
+	/**
+	 * Applies the transformation to an image using the buffers of a given workspace, e.g., a workspace shared by all the
+	 * transformations processed by a thread of a {@link MorphologyService}.
+	 *
+	 * @param src the image to process. Its depth must be CV_8U, CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @param dst the Mat where the processed image is written.
+	 * @param workspace the buffers reused by the transformation, or null for the workspace of the calling thread.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 */
+	void apply(Mat src, Mat dst, Workspace workspace, Instrumentation.Recorder recorder) {
+		if(src.total() == 0) {
+			src.copyTo(dst);
+			return;
+		}
+		if(src.depth() != CvType.CV_8U) {
+			//The 16-bit and the floating point images are processed by the kernels of their own primitive type.
+			DepthMorphology.apply(src, dst, steps, getResidue(), bands, margins, border, borderValue);
+			if(recorder != null) {
+				recorder.mark(Instrumentation.Stage.PROCESS);
+				recorder.setMode(DepthMorphology.describe(src.depth()) + ", " + describe(bands));
+			}
+			return;
+		}
+		dst.create(src.rows(), src.cols(), src.type());
+		//The pixels are read and written straight from the memory of the Mats, so the images are not copied.
+		apply(MatBuffer.wrap(src), MatBuffer.wrap(dst), workspace, recorder);
+	}
+
+	/**
+	 * Applies the transformation to an image stored in any container, e.g., a Java array (see {@link ArrayImage}).
+	 *
+	 * @param src the image to process.
+	 * @param dst the image where the result is written. It must have the size of the source image and it can be the source image itself.
+	 */
+	public void apply(PixelBuffer src, PixelBuffer dst) {
+		apply(src, dst, null);
+	}
+
+	/**
+	 * Applies the transformation to an image stored in any container, recording its stages.
+	 *
+	 * @param src the image to process.
+	 * @param dst the image where the result is written.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 */
+	void apply(PixelBuffer src, PixelBuffer dst, Instrumentation.Recorder recorder) {
+		apply(src, dst, null, recorder);
+	}
+
+	/**
+	 * Applies the transformation to an image stored in any container using the buffers of a given workspace.
+	 *
+	 * @param src the image to process.
+	 * @param dst the image where the result is written.
+	 * @param workspace the buffers reused by the transformation, or null for the workspace of the calling thread.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 */
+	void apply(PixelBuffer src, PixelBuffer dst, Workspace workspace, Instrumentation.Recorder recorder) {
+		if(src.rows() != dst.rows() || src.cols() != dst.cols() || src.channels() != dst.channels())
+			throw new IllegalArgumentException("The processed image must have the size of the source image");
+		Workspace buffers = workspace != null ? workspace : acquire();
+		try {
+			String kernel = border == BorderMode.IGNORE ? MorphologyEngine.apply(src, dst, steps, getResidue(), bands, buffers, recorder)
+					: applyExtended(src, dst, buffers, recorder);
+			if(recorder != null) {
+				recorder.mark(Instrumentation.Stage.PROCESS);
+				recorder.setMode(kernel + ", " + describe(bands));
+			}
+		} finally {
+			//A given workspace is managed by its owner.
+			if(workspace == null)
+				buffers.inUse = false;
+		}
+	}
+
+	/**
+	 * Updates the result of the transformation after some regions of the source image changed, e.g., the regions of a
+	 * frame that differ from the previous frame. Only the pixels of the result that depend on those regions are recomputed:
+	 * the regions expanded by the extent of the structural element (by both structural elements for the opening, the
+	 * closing and the hats), so the time depends on the size of the changes instead of the size of the image.
+	 * The result is the same as applying the transformation to the whole source image.
+	 * If the destination does not have the size and the type of the source image (e.g., it is empty), there is no previous
+	 * result and the whole image is processed.
+	 *
+	 * @param src the new source image. Its depth must be CV_8U, CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @param dst the result of the transformation applied to the previous source image, which is updated in place. It must not be the source image.
+	 * @param dirty the regions of the source image that changed since the previous result was computed.
+	 * @return the regions of the result that were recomputed.
+	 */
+	public Rect[] update(Mat src, Mat dst, Rect... dirty) {
+		if(src.total() == 0 || dst.rows() != src.rows() || dst.cols() != src.cols() || dst.type() != src.type()) {
+			apply(src, dst);
+			return src.total() == 0 ? new Rect[0] : new Rect[] { new Rect(0, 0, src.cols(), src.rows()) };
+		}
+		if(src.depth() == CvType.CV_8U)
+			return update(MatBuffer.wrap(src), MatBuffer.wrap(dst), dirty);
+
+		//The 16-bit and the floating point images are processed region by region as regions of interest of the Mats.
+		Rect[] regions = footprint.affected(dirty, src.rows(), src.cols(), border);
+		for(Rect region : regions) {
+			Rect support = footprint.support(region, src.rows(), src.cols());
+			Mat result = new Mat();
+			DepthMorphology.apply(src.submat(support), result, steps, getResidue(), bands, margins, border, borderValue);
+			//The rest of the support is only the margin read by the structural element, so only the region is copied.
+			result.submat(new Rect(region.x - support.x, region.y - support.y, region.width, region.height)).copyTo(dst.submat(region));
+		}
+		return regions;
+	}
+
+	/**
+	 * Updates the result of the transformation after some regions of the source image changed, for an image stored in any
+	 * container (see {@link #update(Mat, Mat, Rect...)}).
+	 *
+	 * @param src the new source image.
+	 * @param dst the result of the transformation applied to the previous source image, which is updated in place. It must have the size of the source image and it must not be the source image.
+	 * @param dirty the regions of the source image that changed since the previous result was computed.
+	 * @return the regions of the result that were recomputed.
+	 */
+	public Rect[] update(PixelBuffer src, PixelBuffer dst, Rect... dirty) {
+		if(src.rows() != dst.rows() || src.cols() != dst.cols() || src.channels() != dst.channels())
+			throw new IllegalArgumentException("The processed image must have the size of the source image");
+		//The unchanged pixels of the result are kept, so the source pixels around a region must not be overwritten.
+		if(src.overlaps(dst))
+			throw new IllegalArgumentException("The processed image cannot be updated in the source image");
+		int rows = src.rows();
+		int cols = src.cols();
+		int channels = src.channels();
+		Rect[] regions = footprint.affected(dirty, rows, cols, border);
+		Workspace workspace = acquire();
+		try {
+			for(Rect region : regions) {
+				//The support is processed as a whole image: the pixels around it are not read by the region, so they do not matter.
+				//Where the support reaches a limit of the image, it is extended like the whole image.
+				Rect support = footprint.support(region, rows, cols);
+				int length = support.width * channels;
+				byte[] pixels = new byte[support.height * length];
+				byte[] result = new byte[pixels.length];
+				for(int i = 0; i<support.height; i++) {
+					src.get(support.y + i, support.x * channels, pixels, i * length, length);
+				}
+				apply(pixels, result, support.height, support.width, channels, workspace);
+				int offset = ((region.y - support.y) * support.width + region.x - support.x) * channels;
+				for(int i = 0; i<region.height; i++) {
+					dst.put(region.y + i, region.x * channels, result, offset + i * length, region.width * channels);
+				}
+			}
+		} finally {
+			workspace.inUse = false;
+		}
+		return regions;
+	}
+
+	/**
+	 * Describes a parallel configuration. It is only used by the instrumentation.
+	 *
+	 * @param bands the parallel configuration.
+	 * @return "serial" or the number of bands.
+	 */
+	static String describe(RowBands bands) {
+		return bands.getParallelism() < 2 ? "serial" : bands.getParallelism() + " bands";
+	}
+
+	/**
+	 * Applies the transformation to an image stored in a buffer.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src and must not be the same array.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 */
+	public void apply(byte[] src, byte[] dst, int rows, int cols, int channels) {
+		Workspace workspace = acquire();
+		try {
+			apply(src, dst, rows, cols, channels, workspace);
+		} finally {
+			workspace.inUse = false;
+		}
+	}
+
+	/**
+	 * Applies the transformation using the buffers of a workspace.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param workspace the buffers reused by the transformation.
+	 */
+	private void apply(byte[] src, byte[] dst, int rows, int cols, int channels, Workspace workspace) {
+		//The opening and the closing keep the intermediate image in the workspace. Binary images are packed once for all the steps.
+		if(border == BorderMode.IGNORE)
+			MorphologyEngine.apply(src, dst, rows, cols, channels, steps, bands, workspace);
+		else
+			applyExtended(src, dst, rows, cols, channels, workspace);
+		//The top-hat and the black-hat are combined with the source image in place, so no other buffer is needed.
+		getResidue().apply(src, 0, dst, 0, src.length);
+	}
+
+	/**
+	 * Applies the transformation to an image stored in any container, extending the input of every step with the border
+	 * mode. The image is copied into the workspace, like the copied kernel of {@link MorphologyEngine} does it.
+	 *
+	 * @param src the image to process.
+	 * @param dst the image where the result is written.
+	 * @param workspace the buffers reused by the transformation.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 * @return the kernel that processed the image.
+	 */
+	private String applyExtended(PixelBuffer src, PixelBuffer dst, Workspace workspace, Instrumentation.Recorder recorder) {
+		int length = src.rows() * src.rowLength();
+		if(length > 0) {
+			if(recorder != null)
+				recorder.restart();
+			byte[] pixels = src.get(workspace.get(Workspace.SOURCE, length));
+			byte[] result = workspace.get(Workspace.RESULT, length);
+			if(recorder != null)
+				recorder.mark(Instrumentation.Stage.COPY_IN);
+			apply(pixels, result, src.rows(), src.cols(), src.channels(), workspace);
+			if(recorder != null)
+				recorder.mark(Instrumentation.Stage.PROCESS);
+			dst.put(result);
+			if(recorder != null)
+				recorder.mark(Instrumentation.Stage.COPY_OUT);
+		}
+		return "extended " + border.name().toLowerCase();
+	}
+
+	/**
+	 * Applies the steps of the transformation one by one, extending the input of every step by the extent of its
+	 * structural elements with the border mode. The kernels process the extended image as a whole, so no pixel of the
+	 * image is near its limits, and only the pixels of the image are kept.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param workspace the buffers reused by the transformation.
+	 */
+	private void applyExtended(byte[] src, byte[] dst, int rows, int cols, int channels, Workspace workspace) {
+		byte value = (byte)Math.max(0, Math.min(255, Math.rint(borderValue)));
+		byte[] input = src;
+		for(int n = 0; n<steps.length; n++) {
+			Footprint margin = margins[n];
+			int extendedRows = rows + margin.top() + margin.bottom();
+			int extendedCols = cols + margin.left() + margin.right();
+			int extendedLength = extendedRows * extendedCols * channels;
+			byte[] extended = workspace.get(Workspace.EXTENDED, extendedLength);
+			byte[] processed = workspace.get(Workspace.EXTENDED_RESULT, extendedLength);
+			border.extend(input, rows, cols, channels, margin.top(), margin.bottom(), margin.left(), margin.right(), value, extended);
+			MorphologyEngine.apply(extended, processed, extendedRows, extendedCols, channels, new RollingStage.Step[] { steps[n] }, bands,
+					workspace);
+
+			//The intermediate images alternate between two buffers, like the steps of the engine.
+			byte[] output = n == steps.length - 1 ? dst
+					: workspace.get(n % 2 == 0 ? Workspace.INTERMEDIATE : Workspace.SECOND_INTERMEDIATE, src.length);
+			int rowLength = cols * channels;
+			for(int i = 0; i<rows; i++) {
+				System.arraycopy(processed, ((i + margin.top()) * extendedCols + margin.left()) * channels, output, i * rowLength, rowLength);
+			}
+			input = output;
+		}
+	}
+
+	/**
+	 * Applies the steps of the transformation over a rolling window of rows (see
+	 * {@link MorphologyEngine#fuse(PixelBuffer, PixelBuffer, RowBands, MorphologyEngine.Residue, Workspace, RollingStage.Step...)}),
+	 * combining the result with the source image. The binary images are packed in the workspace of the calling thread, so
+	 * their buffers are reused like the ones of {@link #apply(PixelBuffer, PixelBuffer)}.
+	 *
+	 * @param src the image to process.
+	 * @param dst the image where the result is written. It must have the size of the source image and must not overlap it.
+	 */
+	void fuse(PixelBuffer src, PixelBuffer dst) {
+		Workspace workspace = acquire();
+		try {
+			MorphologyEngine.fuse(src, dst, bands, getResidue(), workspace, steps);
+		} finally {
+			workspace.inUse = false;
+		}
+	}
+
+	/**
+	 * Gets the workspace of the calling thread. If it is already in use (the operator is applied again from the same thread
+	 * while processing another image), a new workspace is created.
+	 *
+	 * @return a workspace marked as in use.
+	 */
+	private Workspace acquire() {
+		Workspace workspace = workspaces.get();
+		if(workspace.inUse)
+			workspace = new Workspace();
+		workspace.inUse = true;
+		return workspace;
+	}
+
+	/**
+	 * Gets the transformations applied over a stream of rows (see {@link RollingStage}) to obtain this transformation.
+	 * The top-hat and the black-hat must also combine the result with the source image (see {@link #getResidue()}).
+	 *
+	 * @return a new array with the steps of the transformation.
+	 */
+	public RollingStage.Step[] getSteps() {
+		return steps.clone();
+	}
+
+	/**
+	 * Creates the steps of a transformation.
+	 *
+	 * @param type the transformation.
+	 * @param dilation the structural element compiled for the dilation.
+	 * @param erotion the structural element compiled for the erotion.
+	 * @return the steps of the transformation.
+	 */
+	private static RollingStage.Step[] createSteps(Type type, StructuralElement dilation, StructuralElement erotion) {
+		switch(type) {
+		case DILATION:
+			return new RollingStage.Step[] { RollingStage.Step.dilation(dilation) };
+		case EROTION:
+			return new RollingStage.Step[] { RollingStage.Step.erotion(erotion) };
+		case GRADIENT:
+			//The max and the min of the neighborhood are computed in the same sweep.
+			return new RollingStage.Step[] { RollingStage.Step.gradient(dilation, erotion) };
+		case OPENING:
+		case TOP_HAT:
+			//The opening is obtained eroding the image and then dilating it with the same structural element.
+			return new RollingStage.Step[] { RollingStage.Step.erotion(erotion), RollingStage.Step.dilation(dilation) };
+		default:
+			//The closing is obtained dilating the image and then eroding it with the same structural element.
+			return new RollingStage.Step[] { RollingStage.Step.dilation(dilation), RollingStage.Step.erotion(erotion) };
+		}
+	}
+
+	/**
+	 * Gets how the result of the steps is combined with the source image: the top-hat is the source minus the opening and
+	 * the black-hat is the closing minus the source.
+	 *
+	 * @return the combination of the transformation.
+	 */
+	public MorphologyEngine.Residue getResidue() {
+		switch(type) {
+		case TOP_HAT:
+			return MorphologyEngine.Residue.SOURCE_MINUS_RESULT;
+		case BLACK_HAT:
+			return MorphologyEngine.Residue.RESULT_MINUS_SOURCE;
+		default:
+			return MorphologyEngine.Residue.NONE;
+		}
+	}
+
+	/**
+	 * Gets the compiled transformation.
+	 *
+	 * @return the type of the transformation.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets how the pixels outside the image are read.
+	 *
+	 * @return the border mode.
+	 */
+	public BorderMode getBorderMode() {
+		return border;
+	}
+
+	/**
+	 * Gets the value of the pixels outside the image in the {@link BorderMode#CONSTANT} mode.
+	 *
+	 * @return the value.
+	 */
+	public double getBorderValue() {
+		return borderValue;
+	}
+
+	/**
+	 * Gets the parallel configuration used to process the rows of the images.
+	 *
+	 * @return the parallel configuration.
+	 */
+	public RowBands getRowBands() {
+		return bands;
+	}
+}
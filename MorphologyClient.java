@@ -0,0 +1,125 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Submits morphological transformations and gives their results as futures. It is implemented by {@link MorphologyService},
+ * which processes the requests in a pool of threads, and by the client returned by {@link #inline()}, which processes
+ * every request in the calling thread, so the code that uses a client (e.g., an HTTP handler) can be tested without
+ * threads.
+ * A request is an image, a transformation and a structural element; the images and the structural elements must not be
+ * modified until the future is completed. The same structural element and anchor point are compiled only once.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public interface MorphologyClient {
+
+	/**
+	 * Submits a transformation of an image with a non-flat structural element.
+	 *
+	 * @param image the image to process. Its depth must be CV_8U, CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @param type the transformation.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are the cells of the element.
+	 * @param heights a Mat with the same size as the structural element and the height of every cell. If it is null, the structural element is flat.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return a future completed with a new Mat with the processed image, or with the error of the request.
+	 * @throws NullPointerException if the image, the transformation or the structural element is null. The request is not submitted.
+	 */
+	CompletableFuture<Mat> submit(Mat image, MorphologicalOperator.Type type, Mat structuralElement, Mat heights, Point anchorPoint);
+
+	/**
+	 * Submits a transformation of an image stored in a Java array with a non-flat structural element.
+	 *
+	 * @param image the image to process.
+	 * @param type the transformation.
+	 * @param structuralElement the structural element. Values different from 0 are the cells of the element.
+	 * @param heights the height of every cell, in row-major order. If it is null, the structural element is flat.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return a future completed with a new image with the result, or with the error of the request.
+	 * @throws NullPointerException if the image, the transformation or the structural element is null. The request is not submitted.
+	 */
+	CompletableFuture<ArrayImage> submit(ArrayImage image, MorphologicalOperator.Type type, ArrayImage structuralElement, int[] heights,
+			Point anchorPoint);
+
+	/**
+	 * Submits a transformation of an image with a flat structural element.
+	 *
+	 * @param image the image to process. Its depth must be CV_8U, CV_16U, CV_16S, CV_32F or CV_64F.
+	 * @param type the transformation.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return a future completed with a new Mat with the processed image, or with the error of the request.
+	 */
+	default CompletableFuture<Mat> submit(Mat image, MorphologicalOperator.Type type, Mat structuralElement, Point anchorPoint) {
+		return submit(image, type, structuralElement, null, anchorPoint);
+	}
+
+	/**
+	 * Submits a transformation of an image stored in a Java array with a flat structural element.
+	 *
+	 * @param image the image to process.
+	 * @param type the transformation.
+	 * @param structuralElement the structural element. Values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return a future completed with a new image with the result, or with the error of the request.
+	 */
+	default CompletableFuture<ArrayImage> submit(ArrayImage image, MorphologicalOperator.Type type, ArrayImage structuralElement,
+			Point anchorPoint) {
+		return submit(image, type, structuralElement, null, anchorPoint);
+	}
+
+	/**
+	 * Creates a client that processes every request in the calling thread, so the returned futures are already completed.
+	 * It is a stand-in for a {@link MorphologyService} in tests, giving the same results.
+	 *
+	 * @return the client.
+	 */
+	static MorphologyClient inline() {
+		OperatorCache operators = new OperatorCache(MorphologyService.CACHED_OPERATORS, RowBands.SERIAL);
+		return new MorphologyClient() {
+			@Override
+			public CompletableFuture<Mat> submit(Mat image, MorphologicalOperator.Type type, Mat structuralElement, Mat heights, Point anchorPoint) {
+				requireArguments(image, type, structuralElement);
+				CompletableFuture<Mat> future = new CompletableFuture<>();
+				try {
+					future.complete(operators.get(type, structuralElement, heights, anchorPoint).apply(image));
+				} catch(RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+				return future;
+			}
+
+			@Override
+			public CompletableFuture<ArrayImage> submit(ArrayImage image, MorphologicalOperator.Type type, ArrayImage structuralElement,
+					int[] heights, Point anchorPoint) {
+				requireArguments(image, type, structuralElement);
+				CompletableFuture<ArrayImage> future = new CompletableFuture<>();
+				try {
+					ArrayImage dst = new ArrayImage(image.rows(), image.cols(), image.channels());
+					operators.get(type, structuralElement, heights, anchorPoint).apply(image, dst);
+					future.complete(dst);
+				} catch(RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+				return future;
+			}
+		};
+	}
+
+	/**
+	 * Checks the arguments of a request before it is submitted, so a wrong request fails in the caller and takes no place
+	 * in the client.
+	 *
+	 * @param image the image to process.
+	 * @param type the transformation.
+	 * @param structuralElement the structural element.
+	 * @throws NullPointerException if any argument is null.
+	 */
+	static void requireArguments(Object image, MorphologicalOperator.Type type, Object structuralElement) {
+		Objects.requireNonNull(image, "image");
+		Objects.requireNonNull(type, "type");
+		Objects.requireNonNull(structuralElement, "structuralElement");
+	}
+}
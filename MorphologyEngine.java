@@ -0,0 +1,1110 @@
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Runs the morphological transformations over primitive buffers. The image is copied from the Mat into a byte array
+ * with a single bulk get, the transformation is applied over the array and the result is written back with a single put.
+ * This avoids the native call done by Mat.get and Mat.put for every pixel and every cell of the structural element.
+ * When the memory of the Mats can be accessed directly (see {@link MatBuffer}), the kernels read the source rows and
+ * write the processed rows straight through it instead, so the images are not copied at all. The same kernels run over
+ * images stored in Java arrays (see {@link ArrayImage}), without the native library of OpenCV.
+ * All buffers store the pixels in row-major order with the channels interleaved, like OpenCV does.
+ * The Mats whose depth is not 8 bits (16-bit and floating point images) are processed by {@link DepthMorphology}.
+ * When the structural element is a rectangle or a line, the transformation is separated into a horizontal and a vertical
+ * pass, each one computed with the van Herk/Gil-Werman algorithm, so the cost per pixel does not depend on the size of
+ * the structural element.
+ * Binary images (whose pixels are only 0 or 255) are packed into bits and processed by {@link BinaryMorphology}, which
+ * handles 64 pixels with every operation.
+ * The other kernels reduce whole rows at once (a row of the image with a shifted row, for every offset of the structural
+ * element), so their inner loops are the row loops of {@link ByteKernels}, which are vectorized when the Vector API is available.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class MorphologyEngine {
+
+	//The number of bytes of a row processed together in the vertical pass of the separable transformations.
+	private static final int VERTICAL_STRIP = 256;
+
+	/**
+	 * How the processed image is combined with the source image, e.g., the top-hat is the source minus its opening.
+	 * The differences are saturated to 0.
+	 */
+	public enum Residue {
+		/**
+		 * The processed image is not combined.
+		 */
+		NONE,
+		/**
+		 * The source image minus the processed image (e.g., the top-hat).
+		 */
+		SOURCE_MINUS_RESULT,
+		/**
+		 * The processed image minus the source image (e.g., the black-hat).
+		 */
+		RESULT_MINUS_SOURCE;
+
+		/**
+		 * Combines a part of the processed image with the same part of the source image, in place.
+		 *
+		 * @param src the source buffer.
+		 * @param srcOffset the index of the first value in the source buffer.
+		 * @param result the processed buffer, where the combination is written.
+		 * @param resultOffset the index of the first value in the processed buffer.
+		 * @param length the number of values to combine.
+		 */
+		public void apply(byte[] src, int srcOffset, byte[] result, int resultOffset, int length) {
+			if(this == SOURCE_MINUS_RESULT)
+				ByteKernels.difference(src, srcOffset, result, resultOffset, result, resultOffset, length);
+			else if(this == RESULT_MINUS_SOURCE)
+				ByteKernels.difference(result, resultOffset, src, srcOffset, result, resultOffset, length);
+		}
+	}
+
+	private MorphologyEngine() {
+	}
+
+	/**
+	 * Performs the dilation of an image in the calling thread.
+	 *
+	 * @param src the image to process.
+	 * @param element the compiled structural element (see {@link StructuralElement#forDilation(Mat, org.opencv.core.Point)}).
+	 * @return a new Mat with the dilated image.
+	 */
+	public static Mat dilate(Mat src, StructuralElement element) {
+		return dilate(src, element, RowBands.SERIAL);
+	}
+
+	/**
+	 * Performs the dilation of an image. The 16-bit and the floating point images are processed by {@link DepthMorphology}.
+	 *
+	 * @param src the image to process.
+	 * @param element the compiled structural element (see {@link StructuralElement#forDilation(Mat, org.opencv.core.Point)}).
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @return a new Mat with the dilated image.
+	 */
+	public static Mat dilate(Mat src, StructuralElement element, RowBands bands) {
+		return reduce(src, element, true, bands);
+	}
+
+	/**
+	 * Performs the dilation over a buffer. The dilation can be defined as: [f + b](x, y) = max{f(x - s, y - t)} for all (s, t) in b.
+	 * Pixels outside the image are ignored, so a pixel whose neighborhood is completely outside the image becomes 0.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src and must not be the same array.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformation.
+	 */
+	public static void dilate(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element, RowBands bands,
+			Workspace workspace) {
+		apply(src, dst, rows, cols, channels, new RollingStage.Step[] { RollingStage.Step.dilation(element) }, bands, workspace);
+	}
+
+	/**
+	 * Performs the erotion of an image in the calling thread.
+	 *
+	 * @param src the image to process.
+	 * @param element the compiled structural element (see {@link StructuralElement#forErotion(Mat, org.opencv.core.Point)}).
+	 * @return a new Mat with the eroded image.
+	 */
+	public static Mat erode(Mat src, StructuralElement element) {
+		return erode(src, element, RowBands.SERIAL);
+	}
+
+	/**
+	 * Performs the erotion of an image. The 16-bit and the floating point images are processed by {@link DepthMorphology}.
+	 *
+	 * @param src the image to process.
+	 * @param element the compiled structural element (see {@link StructuralElement#forErotion(Mat, org.opencv.core.Point)}).
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @return a new Mat with the eroded image.
+	 */
+	public static Mat erode(Mat src, StructuralElement element, RowBands bands) {
+		return reduce(src, element, false, bands);
+	}
+
+	/**
+	 * Performs the erotion over a buffer. The erotion can be defined as: [f - b](x, y) = min{f(x + s, y + t)} for all (s, t) in b.
+	 * Pixels outside the image are ignored, so a pixel whose neighborhood is completely outside the image becomes 255.
+	 * This gives the same result as the complement of the dilation of the complement of the image.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src and must not be the same array.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformation.
+	 */
+	public static void erode(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element, RowBands bands,
+			Workspace workspace) {
+		apply(src, dst, rows, cols, channels, new RollingStage.Step[] { RollingStage.Step.erotion(element) }, bands, workspace);
+	}
+
+	/**
+	 * Applies several transformations, one after the other, over a buffer. The intermediate images are kept in the workspace.
+	 * If all the pixels are 0 or 255, the image is packed into bits once, all the transformations are applied over the packed
+	 * image and the result is unpacked once.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src and must not be the same array.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param steps the transformations to apply, in order. There must be at least one.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformations.
+	 */
+	public static void apply(byte[] src, byte[] dst, int rows, int cols, int channels, RollingStage.Step[] steps, RowBands bands,
+			Workspace workspace) {
+		if(isFlat(steps) && BinaryMorphology.isBinary(src)) {
+			BinaryMorphology.apply(src, dst, rows, cols, channels, steps, bands, workspace);
+			return;
+		}
+
+		byte[] input = src;
+		for(int n = 0; n<steps.length; n++) {
+			//The intermediate images alternate between two buffers, so the input of a step is never its output.
+			byte[] output = n == steps.length - 1 ? dst
+					: workspace.get(n % 2 == 0 ? Workspace.INTERMEDIATE : Workspace.SECOND_INTERMEDIATE, src.length);
+			if(steps[n].isGradient())
+				rolling(input, output, rows, cols, channels, new RollingStage.Step[] { steps[n] }, bands, workspace);
+			else
+				reduce(input, output, rows, cols, channels, steps[n].getElement(), steps[n].isDilation(), bands, workspace);
+			input = output;
+		}
+	}
+
+	/**
+	 * Applies several transformations over a rolling window of rows of a buffer (see {@link RollingStage}). It is used by the
+	 * gradient, which computes the max and the min in the same sweep without storing the dilation or the erotion.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param steps the transformations to apply, in order.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformations, which keep the stages of every band.
+	 */
+	private static void rolling(byte[] src, byte[] dst, int rows, int cols, int channels, RollingStage.Step[] steps, RowBands bands,
+			Workspace workspace) {
+		workspace.prepareBands(bands.count(rows));
+		bands.forEach(rows, (band, from, to) -> workspace.getRolling(band, rows, cols, channels, steps, from, to).run(src, dst));
+	}
+
+	/**
+	 * Applies several transformations, one after the other, over a rolling window of rows. The rows are read from the source
+	 * image one at a time and every finished row is written into the processed image, so no full intermediate image is created.
+	 * Every band computes the intermediate rows needed by its halo, so the bands are independent.
+	 * If all the pixels are 0 or 255, the image is packed into bits while it is read and the transformations are applied
+	 * over the whole packed image instead. It is a copy of the image, using 8 times less memory than the bytes, so the
+	 * memory of a binary image is not bounded by the rolling window.
+	 *
+	 * @param src the image to process.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param steps the transformations to apply, in order.
+	 * @return a new Mat with the processed image.
+	 */
+	public static Mat fuse(Mat src, RowBands bands, RollingStage.Step... steps) {
+		return fuse(src, bands, Residue.NONE, steps);
+	}
+
+	/**
+	 * Applies several transformations, one after the other, over a rolling window of rows and combines every finished row
+	 * with the same row of the source image (read again from the source Mat), so neither the intermediate images nor the
+	 * processed image are stored before the combination.
+	 *
+	 * @param src the image to process.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param steps the transformations to apply, in order.
+	 * @return a new Mat with the processed image.
+	 */
+	public static Mat fuse(Mat src, RowBands bands, Residue residue, RollingStage.Step... steps) {
+		if(src.total() == 0)
+			return src.clone();
+		if(src.depth() != CvType.CV_8U) {
+			//The images of other depths are processed as a whole, since their kernels do not use a rolling window.
+			Mat dst = new Mat();
+			DepthMorphology.apply(src, dst, steps, residue, bands);
+			return dst;
+		}
+
+		Mat dst = new Mat(src.rows(), src.cols(), src.type());
+		fuse(MatBuffer.wrap(src), MatBuffer.wrap(dst), bands, residue, steps);
+		return dst;
+	}
+
+	/**
+	 * Applies several transformations, one after the other, over a rolling window of rows of the buffers of two images.
+	 *
+	 * @param src the buffer of the image to process.
+	 * @param dst the buffer of the image where the result is written. It must have the size of the source image.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param steps the transformations to apply, in order.
+	 */
+	public static void fuse(PixelBuffer src, PixelBuffer dst, RowBands bands, RollingStage.Step... steps) {
+		fuse(src, dst, bands, Residue.NONE, steps);
+	}
+
+	/**
+	 * Applies several transformations over a rolling window of rows, reading the rows of the source image and writing the
+	 * processed rows straight through their buffers (see {@link PixelBuffer}), so the images are never copied as a whole.
+	 *
+	 * @param src the buffer of the image to process.
+	 * @param dst the buffer of the image where the result is written. It must have the size of the source image.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param steps the transformations to apply, in order.
+	 */
+	public static void fuse(PixelBuffer src, PixelBuffer dst, RowBands bands, Residue residue, RollingStage.Step... steps) {
+		fuse(src, dst, bands, residue, new Workspace(), steps);
+	}
+
+	/**
+	 * Applies several transformations over a rolling window of rows, reading the rows of the source image and writing the
+	 * processed rows straight through their buffers. Binary images are not processed over a rolling window: they are
+	 * packed into bits as a whole in the workspace (see {@link BinaryMorphology}), so they are copied, although the packed
+	 * images use 8 times less memory than the bytes. A workspace reused for several images of the same size keeps those
+	 * buffers and the stages of the rolling window of every band, so only the first image allocates them.
+	 *
+	 * @param src the buffer of the image to process.
+	 * @param dst the buffer of the image where the result is written. It must have the size of the source image.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param workspace the buffers reused by the transformations: the packed images and the rolling stages.
+	 * @param steps the transformations to apply, in order.
+	 */
+	public static void fuse(PixelBuffer src, PixelBuffer dst, RowBands bands, Residue residue, Workspace workspace,
+			RollingStage.Step... steps) {
+		if(src.rows() == 0 || src.rowLength() == 0)
+			return;
+		if(isFlat(steps) && fuseBinary(src, dst, bands, residue, steps, workspace))
+			return;
+		rolling(src, dst, bands, residue, steps, workspace);
+	}
+
+	/**
+	 * Applies several transformations over a rolling window of rows of the buffers of two images.
+	 *
+	 * @param src the buffer of the image to process.
+	 * @param dst the buffer of the image where the result is written.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param steps the transformations to apply, in order.
+	 * @param workspace the buffers reused by the transformations, which keep the stages of every band.
+	 */
+	private static void rolling(PixelBuffer src, PixelBuffer dst, RowBands bands, Residue residue, RollingStage.Step[] steps,
+			Workspace workspace) {
+		int rows = src.rows();
+		int cols = src.cols();
+		int channels = src.channels();
+		workspace.prepareBands(bands.count(rows));
+		//Every band reads and writes through its own views, since the buffers keep a position.
+		bands.forEach(rows, (band, from, to) -> workspace.getRolling(band, rows, cols, channels, steps, from, to)
+				.run(src.view(), dst.view(), residue));
+	}
+
+	/**
+	 * The chain of rolling stages of a band (see {@link RollingStage}) and its rows, kept in the workspace, so applying the
+	 * same transformations to another image of the same size starts the stages again instead of creating them and their
+	 * windows. The stages send the processed rows to this object, which writes them into the images of the current
+	 * application; the images are only kept while the band is processed.
+	 */
+	static final class RollingBand implements RollingStage.Sink {
+		private final int rows;
+		private final int cols;
+		private final int channels;
+		private final int from;
+		private final int to;
+		private final RollingStage.Step[] steps;
+		private final byte[] row;
+		private final byte[] original;
+		private final byte[] combined;
+		private RollingStage stage;
+
+		//The images of the current application: the source and the processed buffers, or the processed array.
+		private PixelBuffer source;
+		private PixelBuffer target;
+		private Residue residue;
+		private byte[] output;
+
+		/**
+		 * Creates the rows of a band. The stages are created by the first application, once the images are known.
+		 *
+		 * @param rows the number of rows of the image.
+		 * @param cols the number of columns of the image.
+		 * @param channels the number of channels of the image.
+		 * @param steps the transformations to apply, in order.
+		 * @param from the first row of the band (inclusive).
+		 * @param to the last row of the band (exclusive).
+		 */
+		RollingBand(int rows, int cols, int channels, RollingStage.Step[] steps, int from, int to) {
+			this.rows = rows;
+			this.cols = cols;
+			this.channels = channels;
+			this.from = from;
+			this.to = to;
+			this.steps = steps.clone();
+			int rowLength = cols * channels;
+			this.row = new byte[rowLength];
+			this.original = new byte[rowLength];
+			this.combined = new byte[rowLength];
+		}
+
+		/**
+		 * Indicates if this band applies the same transformations to the same rows of an image of the same size.
+		 *
+		 * @param rows the number of rows of the image.
+		 * @param cols the number of columns of the image.
+		 * @param channels the number of channels of the image.
+		 * @param steps the transformations to apply. They are compared by reference, like the compiled operators keep them.
+		 * @param from the first row of the band (inclusive).
+		 * @param to the last row of the band (exclusive).
+		 * @return true if the band can be reused.
+		 */
+		boolean matches(int rows, int cols, int channels, RollingStage.Step[] steps, int from, int to) {
+			if(this.rows != rows || this.cols != cols || this.channels != channels || this.from != from || this.to != to
+					|| this.steps.length != steps.length)
+				return false;
+			for(int n = 0; n<steps.length; n++) {
+				if(this.steps[n] != steps[n])
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Processes the band of an image stored in an array.
+		 *
+		 * @param src the pixels of the image.
+		 * @param dst the array where the processed rows are written.
+		 */
+		void run(byte[] src, byte[] dst) {
+			output = dst;
+			try {
+				start();
+				for(int r = stage.firstInput(); r<=stage.lastInput(); r++) {
+					System.arraycopy(src, r * row.length, row, 0, row.length);
+					stage.push(row);
+				}
+			} finally {
+				output = null;
+			}
+		}
+
+		/**
+		 * Processes the band of an image reading and writing the rows through the buffers of the images.
+		 *
+		 * @param src the buffer of the image to process, used only by this band.
+		 * @param dst the buffer of the processed image, used only by this band.
+		 * @param residue how the processed rows are combined with the source rows.
+		 */
+		void run(PixelBuffer src, PixelBuffer dst, Residue residue) {
+			this.source = src;
+			this.target = dst;
+			this.residue = residue;
+			try {
+				start();
+				for(int r = stage.firstInput(); r<=stage.lastInput(); r++) {
+					src.getRow(r, row, 0);
+					stage.push(row);
+				}
+			} finally {
+				this.source = null;
+				this.target = null;
+				this.residue = null;
+			}
+		}
+
+		/**
+		 * Creates the stages for the first image, or starts them again for the next ones.
+		 */
+		private void start() {
+			if(stage == null)
+				stage = RollingStage.chain(rows, cols, channels, steps, from, to, this);
+			else
+				stage.restart();
+		}
+
+		@Override
+		public void accept(int r, byte[] data) {
+			if(output != null) {
+				System.arraycopy(data, 0, output, r * row.length, row.length);
+				return;
+			}
+			if(residue == Residue.NONE) {
+				target.putRow(r, data, 0);
+				return;
+			}
+			source.getRow(r, original, 0);
+			System.arraycopy(data, 0, combined, 0, combined.length);
+			residue.apply(original, 0, combined, 0, combined.length);
+			target.putRow(r, combined, 0);
+		}
+	}
+
+	/**
+	 * Indicates if all the structural elements of several transformations are flat, so a binary image stays binary.
+	 *
+	 * @param steps the transformations.
+	 * @return true if no structural element has heights.
+	 */
+	private static boolean isFlat(RollingStage.Step[] steps) {
+		for(RollingStage.Step step : steps) {
+			if(!step.getElement().isFlat() || (step.isGradient() && !step.getLowerElement().isFlat()))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies several transformations to a binary image, packing it row by row straight from the buffer of the source image
+	 * and unpacking the result into the buffer of the processed image. The packed images are whole images kept in the
+	 * workspace, so this is a copied path, although 8 times smaller than the bytes. The packing stops at the first row
+	 * with a pixel different from 0 and 255, so a gray image only reads its first rows (usually only the first one) again.
+	 *
+	 * @param src the buffer of the image to process.
+	 * @param dst the buffer of the image where the result is written.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param steps the transformations to apply, in order.
+	 * @param workspace the buffers reused by the transformations.
+	 * @return true if the image is binary and it was processed, false if it must be processed as a gray image.
+	 */
+	private static boolean fuseBinary(PixelBuffer src, PixelBuffer dst, RowBands bands, Residue residue, RollingStage.Step[] steps,
+			Workspace workspace) {
+		int rows = src.rows();
+		int cols = src.cols();
+		int channels = src.channels();
+		byte[] row = workspace.get(Workspace.BINARY_ROW, src.rowLength());
+		//The packed image is only requested once the first row is known to be binary, so a gray image does not allocate it.
+		long[] packed = null;
+		for(int r = 0; r<rows; r++) {
+			src.getRow(r, row, 0);
+			if(!BinaryMorphology.isBinary(row))
+				return false;
+			if(packed == null)
+				packed = workspace.getPacked(Workspace.PACKED_SOURCE, channels * rows * BinaryMorphology.words(cols));
+			BinaryMorphology.packRow(row, 0, r, rows, cols, channels, packed);
+		}
+
+		long[] result = BinaryMorphology.apply(packed, rows, cols, channels, steps, bands, workspace);
+		byte[] source = residue != Residue.NONE ? workspace.get(Workspace.BINARY_SOURCE_ROW, row.length) : null;
+		for(int r = 0; r<rows; r++) {
+			BinaryMorphology.unpackRow(result, r, rows, cols, channels, row, 0);
+			if(source != null) {
+				src.getRow(r, source, 0);
+				residue.apply(source, 0, row, 0, row.length);
+			}
+			dst.putRow(r, row, 0);
+		}
+		return true;
+	}
+
+	/**
+	 * Applies several transformations reading the source image and writing the processed image through their buffers
+	 * (see {@link PixelBuffer}), choosing the kernel that copies the least:
+	 * binary images are packed straight from the source buffer into the workspace (a copy 8 times smaller than the image)
+	 * and unpacked into the processed one;
+	 * a single rectangular structural element is applied with the separable transformation, whose horizontal pass reads
+	 * the rows of the source buffer and whose vertical pass writes the processed buffer;
+	 * the other structural elements are applied over a rolling window of rows (see {@link RollingStage}).
+	 * Only several steps with rectangular elements copy the images into the workspace, since they need whole intermediate
+	 * images. The images are also copied if a buffer is not direct, or if the processed image is written over the source
+	 * image, so no row is overwritten before it is read.
+	 *
+	 * @param src the buffer of the image to process.
+	 * @param dst the buffer of the image where the result is written. It must have the size of the source image.
+	 * @param steps the transformations to apply, in order. There must be at least one.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformations.
+	 * @return the kernel that processed the image: "binary", "separable", "rolling" or "copied".
+	 */
+	public static String apply(PixelBuffer src, PixelBuffer dst, RollingStage.Step[] steps, Residue residue, RowBands bands,
+			Workspace workspace) {
+		return apply(src, dst, steps, residue, bands, workspace, null);
+	}
+
+	/**
+	 * Applies several transformations through the buffers of the images, recording the copies of the images if they are needed.
+	 *
+	 * @param src the buffer of the image to process.
+	 * @param dst the buffer of the image where the result is written.
+	 * @param steps the transformations to apply, in order.
+	 * @param residue how the processed image is combined with the source image.
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformations.
+	 * @param recorder the recorder of the stages, or null if the transformation is not instrumented.
+	 * @return the kernel that processed the image.
+	 */
+	static String apply(PixelBuffer src, PixelBuffer dst, RollingStage.Step[] steps, Residue residue, RowBands bands,
+			Workspace workspace, Instrumentation.Recorder recorder) {
+		int length = src.rows() * src.rowLength();
+		if(length == 0)
+			return "copied";
+		//The binary and the separable kernels read the whole source image before writing any row, the rolling one does not.
+		boolean direct = src.isDirect() && dst.isDirect();
+		boolean overlap = src.overlaps(dst);
+		if(direct && isFlat(steps) && fuseBinary(src, dst, bands, residue, steps, workspace))
+			return "binary";
+
+		boolean rectangles = false;
+		for(RollingStage.Step step : steps) {
+			rectangles |= !step.isGradient() && step.getElement().isRectangle();
+		}
+		if(direct && steps.length == 1 && rectangles && residue == Residue.NONE) {
+			separable(src, dst, steps[0].getElement(), steps[0].isDilation(), bands, workspace);
+			return "separable";
+		}
+		if(direct && !overlap && !rectangles) {
+			rolling(src, dst, bands, residue, steps, workspace);
+			return "rolling";
+		}
+
+		if(recorder != null)
+			recorder.restart();
+		byte[] pixels = src.get(workspace.get(Workspace.SOURCE, length));
+		byte[] result = workspace.get(Workspace.RESULT, length);
+		if(recorder != null)
+			recorder.mark(Instrumentation.Stage.COPY_IN);
+		apply(pixels, result, src.rows(), src.cols(), src.channels(), steps, bands, workspace);
+		residue.apply(pixels, 0, result, 0, length);
+		if(recorder != null)
+			recorder.mark(Instrumentation.Stage.PROCESS);
+		dst.put(result);
+		if(recorder != null)
+			recorder.mark(Instrumentation.Stage.COPY_OUT);
+		return "copied";
+	}
+
+	/**
+	 * Copies an image into a buffer, computes the max (or the min) of the neighborhood of every pixel and writes the result
+	 * into a new Mat.
+	 *
+	 * @param src the image to process.
+	 * @param element the compiled structural element.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @return a new Mat with the processed image.
+	 */
+	private static Mat reduce(Mat src, StructuralElement element, boolean max, RowBands bands) {
+		if(src.total() == 0)
+			return src.clone();
+		if(src.depth() != CvType.CV_8U) {
+			Mat dst = new Mat();
+			RollingStage.Step step = max ? RollingStage.Step.dilation(element) : RollingStage.Step.erotion(element);
+			DepthMorphology.apply(src, dst, new RollingStage.Step[] { step }, Residue.NONE, bands);
+			return dst;
+		}
+
+		Workspace workspace = new Workspace();
+		byte[] pixels = toArray(src, workspace.get(Workspace.SOURCE, (int)src.total() * src.channels()));
+		byte[] result = workspace.get(Workspace.RESULT, pixels.length);
+		if(max)
+			dilate(pixels, result, src.rows(), src.cols(), src.channels(), element, bands, workspace);
+		else
+			erode(pixels, result, src.rows(), src.cols(), src.channels(), element, bands, workspace);
+		return toMat(result, src);
+	}
+
+	/**
+	 * Computes the max (or the min) of the neighborhood of every pixel, splitting the rows of the image into bands.
+	 * Rectangular structural elements are delegated to the separable transformation, non-flat ones to the weighted one and
+	 * the ones that are cheaper as a union of horizontal lines (e.g., a disk) to their decomposition.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformation.
+	 */
+	private static void reduce(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element, boolean max,
+			RowBands bands, Workspace workspace) {
+		if(element.isRectangle()) {
+			separable(src, dst, rows, cols, channels, element, max, bands, workspace);
+			return;
+		}
+		if(!element.isFlat()) {
+			bands.forEach(rows, (band, from, to) -> weighted(src, dst, rows, cols, channels, element, max, from, to));
+			return;
+		}
+		ElementPlan plan = element.plan();
+		if(plan != null) {
+			int slots = element.maxRowOffset() - element.minRowOffset() + 1;
+			int tableLength = plan.tableLength(cols, channels);
+			workspace.prepareBands(bands.count(rows));
+			bands.forEach(rows, (band, from, to) -> lines(src, dst, rows, cols, channels, element, plan, max, from, to,
+					workspace.get(Workspace.TABLES, band, slots * tableLength)));
+			return;
+		}
+		bands.forEach(rows, (band, from, to) -> reduce(src, dst, rows, cols, channels, element, max, from, to));
+	}
+
+	/**
+	 * Computes the max (or the min) of the neighborhood of the pixels of a band with the decomposition of the structural
+	 * element into horizontal lines (see {@link ElementPlan}). The tables of the source rows are kept in a ring as high as
+	 * the structural element, so every source row of the band and its halo is processed once.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element.
+	 * @param plan the decomposition of the structural element.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param from the first row of the band (inclusive).
+	 * @param to the last row of the band (exclusive).
+	 * @param tables the ring of tables, with room for the tables of as many rows as the structural element has.
+	 */
+	private static void lines(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element, ElementPlan plan,
+			boolean max, int from, int to, byte[] tables) {
+		int rowLength = cols * channels;
+		int slots = element.maxRowOffset() - element.minRowOffset() + 1;
+		int tableLength = plan.tableLength(cols, channels);
+		int next = Math.max(0, from + element.minRowOffset());
+		for(int i = from; i<to; i++) {
+			//The table of a source row is computed when the first row that reads it is processed.
+			for(int last = Math.min(rows - 1, i + element.maxRowOffset()); next<=last; next++) {
+				plan.table(src, next * rowLength, cols, channels, max, tables, Math.floorMod(next, slots) * tableLength);
+			}
+			plan.reduce(i, rows, cols, channels, max, tables, slots, dst, i * rowLength);
+		}
+	}
+
+	/**
+	 * Computes the max of the pixels plus the heights (or the min of the pixels minus the heights) of the neighborhood of
+	 * the pixels of a band, for a non-flat structural element. The values are saturated to 0 and 255.
+	 * Every offset is applied to a whole row at once: the columns whose neighbor is within the limits of the image are
+	 * computed before the loop, so the inner loop has no checks and only adds a constant to every pixel.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled non-flat structural element.
+	 * @param max true for the dilation, false for the erotion.
+	 * @param from the first row of the band (inclusive).
+	 * @param to the last row of the band (exclusive).
+	 */
+	private static void weighted(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element, boolean max,
+			int from, int to) {
+		int rowLength = cols * channels;
+		byte identity = max ? 0 : (byte)0xFF;
+		for(int i = from; i<to; i++) {
+			int o = i * rowLength;
+			for(int t = 0; t<rowLength; t++) {
+				dst[o + t] = identity;
+			}
+			for(int n = 0; n<element.size(); n++) {
+				int r = i + element.rowOffset(n);
+				if(r < 0 || r >= rows)
+					continue;
+				int dq = element.colOffset(n);
+				int height = max ? element.height(n) : -element.height(n);
+				weightedRow(src, r * rowLength + dq * channels, dst, o, Math.max(0, -dq) * channels,
+						Math.min(cols, cols - dq) * channels, height, max);
+			}
+		}
+	}
+
+	/**
+	 * Reduces a row of the processed image with a shifted row of the source image plus a constant, saturating the sums.
+	 *
+	 * @param src the source buffer.
+	 * @param srcOffset the index in the source buffer of the value combined with the first value of the row.
+	 * @param dst the processed buffer.
+	 * @param dstOffset the index of the first value of the row in the processed buffer.
+	 * @param from the first value of the row to combine (inclusive).
+	 * @param to the last value of the row to combine (exclusive).
+	 * @param height the constant added to the source values (negative in the erotion).
+	 * @param max true for computing the max, false for the min.
+	 */
+	static void weightedRow(byte[] src, int srcOffset, byte[] dst, int dstOffset, int from, int to, int height, boolean max) {
+		ByteKernels.weighted(src, srcOffset + from, dst, dstOffset + from, to - from, height, max);
+	}
+
+	/**
+	 * Reduces a row of the processed image with a shifted row of the source image.
+	 *
+	 * @param src the source buffer.
+	 * @param srcOffset the index in the source buffer of the value combined with the first value of the row.
+	 * @param dst the processed buffer.
+	 * @param dstOffset the index of the first value of the row in the processed buffer.
+	 * @param from the first value of the row to combine (inclusive).
+	 * @param to the last value of the row to combine (exclusive).
+	 * @param max true for computing the max, false for the min.
+	 */
+	static void extremeRow(byte[] src, int srcOffset, byte[] dst, int dstOffset, int from, int to, boolean max) {
+		ByteKernels.extreme(dst, dstOffset + from, src, srcOffset + from, dst, dstOffset + from, to - from, max);
+	}
+
+	/**
+	 * Computes the max (or the min) of the neighborhood of the pixels of a band, visiting every offset of the structural element.
+	 * Like the weighted transformation, every offset is applied to a whole row at once, so the inner loop reduces two rows
+	 * without any check.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param from the first row of the band (inclusive).
+	 * @param to the last row of the band (exclusive).
+	 */
+	private static void reduce(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element, boolean max,
+			int from, int to) {
+		//The values start at the identity, so the pixels that are not reached by the structural element are 0 (max) or 255 (min).
+		byte identity = max ? 0 : (byte)0xFF;
+		int rowLength = cols * channels;
+		int size = element.size();
+		for(int i = from; i<to; i++) {
+			int o = i * rowLength;
+			Arrays.fill(dst, o, o + rowLength, identity);
+			for(int n = 0; n<size; n++) {
+				int r = i + element.rowOffset(n);
+				if(r < 0 || r >= rows)
+					continue;
+				//Only the columns whose neighbor is within the limits of the image are reduced.
+				int dq = element.colOffset(n);
+				extremeRow(src, r * rowLength + dq * channels, dst, o, Math.max(0, -dq) * channels,
+						Math.min(cols, cols - dq) * channels, max);
+			}
+		}
+	}
+
+	/**
+	 * Applies a rectangular structural element as a horizontal pass followed by a vertical pass. Since the max (and the min)
+	 * of a rectangle is the max of the max of its rows, the result is the same as visiting every cell of the rectangle.
+	 * Both passes are split into bands. The vertical pass starts when the horizontal pass of all the bands is finished,
+	 * since a band reads the rows of its neighbors.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element. It must be a rectangle.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformation.
+	 */
+	private static void separable(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element, boolean max,
+			RowBands bands, Workspace workspace) {
+		int rowLength = cols * channels;
+		int height = element.maxRowOffset() - element.minRowOffset() + 1;
+		int width = element.maxColOffset() - element.minColOffset() + 1;
+
+		//Horizontal pass: every row is processed with a window as wide as the structural element.
+		byte[] horizontal = workspace.get(Workspace.HORIZONTAL, src.length);
+		workspace.prepareBands(bands.count(rows));
+		bands.forEach(rows, (band, from, to) -> {
+			byte[] g = workspace.get(Workspace.G, band, (cols + width - 1) * channels);
+			byte[] h = workspace.get(Workspace.H, band, g.length);
+			for(int i = from; i<to; i++) {
+				runningExtreme(src, i * rowLength, channels, cols, 0, cols, channels,
+						element.minColOffset(), element.maxColOffset(), max, g, h, horizontal, i * rowLength);
+			}
+		});
+
+		//Vertical pass: every strip of columns is processed with a window as high as the structural element.
+		//The strips are used so the rows of a strip are read sequentially.
+		int strip = Math.min(rowLength, VERTICAL_STRIP);
+		bands.forEach(rows, (band, from, to) -> {
+			byte[] g = workspace.get(Workspace.G_VERTICAL, band, (to - from + height - 1) * strip);
+			byte[] h = workspace.get(Workspace.H_VERTICAL, band, g.length);
+			for(int c = 0; c<rowLength; c += strip) {
+				int lanes = Math.min(strip, rowLength - c);
+				runningExtreme(horizontal, c, rowLength, rows, from, to, lanes,
+						element.minRowOffset(), element.maxRowOffset(), max, g, h, dst, c);
+			}
+		});
+	}
+
+	/**
+	 * Applies a rectangular structural element as a horizontal pass followed by a vertical pass, like
+	 * {@link #separable(byte[], byte[], int, int, int, StructuralElement, boolean, RowBands, Workspace)}, but the
+	 * horizontal pass reads every row from the buffer of the source image and the vertical pass writes every strip of the
+	 * processed rows into the buffer of the processed image, so only the horizontal image is stored.
+	 *
+	 * @param src the buffer of the image to process.
+	 * @param dst the buffer of the image where the result is written.
+	 * @param element the compiled structural element. It must be a rectangle.
+	 * @param max true for computing the max of the neighborhood (dilation), false for the min (erotion).
+	 * @param bands the parallel configuration used to process the rows of the image.
+	 * @param workspace the buffers reused by the transformation.
+	 */
+	private static void separable(PixelBuffer src, PixelBuffer dst, StructuralElement element, boolean max, RowBands bands,
+			Workspace workspace) {
+		int rows = src.rows();
+		int cols = src.cols();
+		int channels = src.channels();
+		int rowLength = src.rowLength();
+		int height = element.maxRowOffset() - element.minRowOffset() + 1;
+		int width = element.maxColOffset() - element.minColOffset() + 1;
+
+		byte[] horizontal = workspace.get(Workspace.HORIZONTAL, rows * rowLength);
+		workspace.prepareBands(bands.count(rows));
+		bands.forEach(rows, (band, from, to) -> {
+			PixelBuffer source = src.view();
+			byte[] row = workspace.get(Workspace.ROW, band, rowLength);
+			byte[] g = workspace.get(Workspace.G, band, (cols + width - 1) * channels);
+			byte[] h = workspace.get(Workspace.H, band, g.length);
+			for(int i = from; i<to; i++) {
+				source.getRow(i, row, 0);
+				runningExtreme(row, 0, channels, cols, 0, cols, channels,
+						element.minColOffset(), element.maxColOffset(), max, g, h, horizontal, i * rowLength);
+			}
+		});
+
+		//Every strip is computed into a buffer of the band and written into the rows of the processed image while it is in the cache.
+		int strip = Math.min(rowLength, VERTICAL_STRIP);
+		bands.forEach(rows, (band, from, to) -> {
+			PixelBuffer target = dst.view();
+			byte[] g = workspace.get(Workspace.G_VERTICAL, band, (to - from + height - 1) * strip);
+			byte[] h = workspace.get(Workspace.H_VERTICAL, band, g.length);
+			byte[] output = workspace.get(Workspace.STRIP, band, (to - from) * strip);
+			for(int c = 0; c<rowLength; c += strip) {
+				int lanes = Math.min(strip, rowLength - c);
+				runningExtreme(horizontal, c, rowLength, rows, from, to, lanes,
+						element.minRowOffset(), element.maxRowOffset(), max, g, h, output, 0, lanes);
+				for(int i = from; i<to; i++) {
+					target.put(i, c, output, (i - from) * lanes, lanes);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Computes the max (or the min) over a sliding window using the van Herk/Gil-Werman algorithm.
+	 * The positions are split into blocks as long as the window. For every position, g stores the max from the beginning of
+	 * its block and h stores the max until the end of its block, so every window is covered by one h value and one g value.
+	 * Every position has several lanes (e.g., the channels of a pixel) which are processed independently.
+	 * The output at position j is the max of the input at positions j + lo to j + hi. Positions outside the input are ignored.
+	 *
+	 * @param src the input buffer.
+	 * @param srcOffset the index of the first lane of the first position in the input buffer.
+	 * @param stride the distance between two consecutive positions, both in the input and the output buffers.
+	 * @param n the number of positions.
+	 * @param from the first output position to compute (inclusive).
+	 * @param to the last output position to compute (exclusive).
+	 * @param lanes the number of lanes per position. The lanes of a position are contiguous.
+	 * @param lo the offset of the beginning of the window.
+	 * @param hi the offset of the end of the window.
+	 * @param max true for computing the max, false for the min.
+	 * @param g a scratch buffer with at least (to - from + hi - lo) * lanes elements.
+	 * @param h a scratch buffer with at least (to - from + hi - lo) * lanes elements.
+	 * @param dst the output buffer.
+	 * @param dstOffset the index of the first lane of the first position in the output buffer.
+	 */
+	static void runningExtreme(byte[] src, int srcOffset, int stride, int n, int from, int to, int lanes, int lo, int hi,
+			boolean max, byte[] g, byte[] h, byte[] dst, int dstOffset) {
+		runningExtreme(src, srcOffset, stride, n, from, to, lanes, lo, hi, max, g, h, dst, dstOffset + from * stride, stride);
+	}
+
+	/**
+	 * Computes the max (or the min) over a sliding window, like {@link #runningExtreme(byte[], int, int, int, int, int, int,
+	 * int, int, boolean, byte[], byte[], byte[], int)}, writing the output positions with their own stride, e.g., into
+	 * a buffer that only holds the computed positions.
+	 *
+	 * @param src the input buffer.
+	 * @param srcOffset the index of the first lane of the first position in the input buffer.
+	 * @param stride the distance between two consecutive positions in the input buffer.
+	 * @param n the number of positions.
+	 * @param from the first output position to compute (inclusive).
+	 * @param to the last output position to compute (exclusive).
+	 * @param lanes the number of lanes per position. The lanes of a position are contiguous.
+	 * @param lo the offset of the beginning of the window.
+	 * @param hi the offset of the end of the window.
+	 * @param max true for computing the max, false for the min.
+	 * @param g a scratch buffer with at least (to - from + hi - lo) * lanes elements.
+	 * @param h a scratch buffer with at least (to - from + hi - lo) * lanes elements.
+	 * @param dst the output buffer.
+	 * @param dstOffset the index of the first lane of the output position from in the output buffer.
+	 * @param dstStride the distance between two consecutive positions in the output buffer.
+	 */
+	static void runningExtreme(byte[] src, int srcOffset, int stride, int n, int from, int to, int lanes, int lo, int hi,
+			boolean max, byte[] g, byte[] h, byte[] dst, int dstOffset, int dstStride) {
+		if(lanes >= ByteKernels.vectorLength()) {
+			runningExtremeRows(src, srcOffset, stride, n, from, to, lanes, lo, hi, max, g, h, dst, dstOffset, dstStride);
+			return;
+		}
+		int window = hi - lo + 1;
+		int length = to - from + window - 1;
+		//Positions outside the input take the identity value, so they do not change the result.
+		byte identity = max ? 0 : (byte)0xFF;
+
+		//Forward pass: g is restarted at the beginning of every block.
+		for(int t = 0; t<length; t++) {
+			int p = from + t + lo;
+			int o = t * lanes;
+			boolean inside = p >= 0 && p < n;
+			int s = srcOffset + p * stride;
+			boolean start = t % window == 0;
+			for(int l = 0; l<lanes; l++) {
+				byte v = inside ? src[s + l] : identity;
+				g[o + l] = start ? v : extreme(g[o - lanes + l], v, max);
+			}
+		}
+
+		//Backward pass: h is restarted at the end of every block.
+		for(int t = length - 1; t>=0; t--) {
+			int p = from + t + lo;
+			int o = t * lanes;
+			boolean inside = p >= 0 && p < n;
+			int s = srcOffset + p * stride;
+			boolean end = t % window == window - 1 || t == length - 1;
+			for(int l = 0; l<lanes; l++) {
+				byte v = inside ? src[s + l] : identity;
+				h[o + l] = end ? v : extreme(h[o + lanes + l], v, max);
+			}
+		}
+
+		//The window of the output position from + j is covered by h[j] and g[j + window - 1].
+		for(int j = 0; j<to - from; j++) {
+			int a = j * lanes;
+			int b = (j + window - 1) * lanes;
+			int d = dstOffset + j * dstStride;
+			for(int l = 0; l<lanes; l++) {
+				dst[d + l] = extreme(h[a + l], g[b + l], max);
+			}
+		}
+	}
+
+	/**
+	 * Computes the max (or the min) over a sliding window like {@link #runningExtreme(byte[], int, int, int, int, int, int,
+	 * int, int, boolean, byte[], byte[], byte[], int, int)}, reducing all the lanes of a position at once with the row loops
+	 * of {@link ByteKernels}. It is used when a position has enough lanes to fill a vector, e.g., the strips of the vertical pass.
+	 *
+	 * @param src the input buffer.
+	 * @param srcOffset the index of the first lane of the first position in the input buffer.
+	 * @param stride the distance between two consecutive positions in the input buffer.
+	 * @param n the number of positions.
+	 * @param from the first output position to compute (inclusive).
+	 * @param to the last output position to compute (exclusive).
+	 * @param lanes the number of lanes per position. The lanes of a position are contiguous.
+	 * @param lo the offset of the beginning of the window.
+	 * @param hi the offset of the end of the window.
+	 * @param max true for computing the max, false for the min.
+	 * @param g a scratch buffer with at least (to - from + hi - lo) * lanes elements.
+	 * @param h a scratch buffer with at least (to - from + hi - lo) * lanes elements.
+	 * @param dst the output buffer.
+	 * @param dstOffset the index of the first lane of the output position from in the output buffer.
+	 * @param dstStride the distance between two consecutive positions in the output buffer.
+	 */
+	private static void runningExtremeRows(byte[] src, int srcOffset, int stride, int n, int from, int to, int lanes, int lo,
+			int hi, boolean max, byte[] g, byte[] h, byte[] dst, int dstOffset, int dstStride) {
+		int window = hi - lo + 1;
+		int length = to - from + window - 1;
+		byte identity = max ? 0 : (byte)0xFF;
+
+		//Forward pass. A position outside the input does not change the max, so the previous value is copied.
+		for(int t = 0; t<length; t++) {
+			int p = from + t + lo;
+			int o = t * lanes;
+			boolean inside = p >= 0 && p < n;
+			if(t % window == 0) {
+				if(inside)
+					System.arraycopy(src, srcOffset + p * stride, g, o, lanes);
+				else
+					Arrays.fill(g, o, o + lanes, identity);
+			}
+			else if(inside) {
+				ByteKernels.extreme(g, o - lanes, src, srcOffset + p * stride, g, o, lanes, max);
+			}
+			else {
+				System.arraycopy(g, o - lanes, g, o, lanes);
+			}
+		}
+
+		//Backward pass.
+		for(int t = length - 1; t>=0; t--) {
+			int p = from + t + lo;
+			int o = t * lanes;
+			boolean inside = p >= 0 && p < n;
+			if(t % window == window - 1 || t == length - 1) {
+				if(inside)
+					System.arraycopy(src, srcOffset + p * stride, h, o, lanes);
+				else
+					Arrays.fill(h, o, o + lanes, identity);
+			}
+			else if(inside) {
+				ByteKernels.extreme(h, o + lanes, src, srcOffset + p * stride, h, o, lanes, max);
+			}
+			else {
+				System.arraycopy(h, o + lanes, h, o, lanes);
+			}
+		}
+
+		for(int j = 0; j<to - from; j++) {
+			ByteKernels.extreme(h, j * lanes, g, (j + window - 1) * lanes, dst, dstOffset + j * dstStride, lanes, max);
+		}
+	}
+
+	/**
+	 * Gets the max (or the min) of two unsigned bytes.
+	 *
+	 * @param a the first value.
+	 * @param b the second value.
+	 * @param max true for getting the max, false for the min.
+	 * @return the max or the min of the values.
+	 */
+	static byte extreme(byte a, byte b, boolean max) {
+		if(max)
+			return (a & 0xFF) > (b & 0xFF) ? a : b;
+		return (a & 0xFF) < (b & 0xFF) ? a : b;
+	}
+
+	/**
+	 * Copies all the pixels of an 8-bit Mat into a byte array, reading its native memory directly if possible (see {@link MatBuffer}).
+	 *
+	 * @param src the image to copy.
+	 * @return the pixels of the image.
+	 */
+	public static byte[] toArray(Mat src) {
+		return toArray(src, new byte[(int)src.total() * src.channels()]);
+	}
+
+	/**
+	 * Copies all the pixels of an 8-bit Mat into a given byte array. The rows of a non-continuous Mat (e.g., a region of
+	 * interest) are copied one by one.
+	 *
+	 * @param src the image to copy.
+	 * @param pixels the buffer where the pixels are written. It must have total * channels elements.
+	 * @return the same buffer.
+	 */
+	public static byte[] toArray(Mat src, byte[] pixels) {
+		return MatBuffer.wrap(src).get(pixels);
+	}
+
+	/**
+	 * Creates a new Mat with the same size and type as a reference image and writes a buffer into it.
+	 *
+	 * @param pixels the pixels to write.
+	 * @param like the image used to get the size and the type of the new Mat.
+	 * @return the new Mat.
+	 */
+	public static Mat toMat(byte[] pixels, Mat like) {
+		Mat dst = new Mat(like.rows(), like.cols(), like.type());
+		MatBuffer.wrap(dst).put(pixels);
+		return dst;
+	}
+}
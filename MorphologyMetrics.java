@@ -0,0 +1,131 @@
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the metrics of the morphological transformations (see {@link Instrumentation}) so they can be scraped
+ * through JMX. Registering it enables the instrumentation and unregistering it disables it (if there are no other listeners).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class MorphologyMetrics implements Instrumentation.Listener, MorphologyMetricsMXBean {
+
+	/**
+	 * The name of the MBean in the platform MBean server.
+	 */
+	public static final String OBJECT_NAME = "shalon.digitalimaging:type=MorphologyMetrics";
+
+	private final LongAdder operations = new LongAdder();
+	private final LongAdder pixels = new LongAdder();
+	private final LongAdder[] nanos = new LongAdder[Instrumentation.Stage.values().length];
+	private final LongAdder allocated = new LongAdder();
+	private volatile String lastTransformation = "";
+	private volatile String lastMode = "";
+
+	public MorphologyMetrics() {
+		for(int n = 0; n<nanos.length; n++) {
+			nanos[n] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Creates the metrics, registers them in the platform MBean server and enables the instrumentation.
+	 *
+	 * @return the registered metrics.
+	 * @throws JMException if the MBean cannot be registered (e.g., it is already registered).
+	 */
+	public static MorphologyMetrics register() throws JMException {
+		MorphologyMetrics metrics = new MorphologyMetrics();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(metrics, new ObjectName(OBJECT_NAME));
+		Instrumentation.addListener(metrics);
+		return metrics;
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server and from the listeners of the instrumentation.
+	 *
+	 * @throws JMException if the MBean cannot be unregistered.
+	 */
+	public void unregister() throws JMException {
+		Instrumentation.removeListener(this);
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+		} catch(InstanceNotFoundException e) {
+			//It was not registered in the MBean server, only as a listener.
+		}
+	}
+
+	@Override
+	public void onMetrics(Instrumentation.Metrics metrics) {
+		operations.increment();
+		if(metrics.getNanos(Instrumentation.Stage.PROCESS) > 0)
+			pixels.add((long)metrics.getRows() * metrics.getCols());
+		for(Instrumentation.Stage stage : Instrumentation.Stage.values()) {
+			nanos[stage.ordinal()].add(metrics.getNanos(stage));
+		}
+		if(metrics.getAllocatedBytes() > 0)
+			allocated.add(metrics.getAllocatedBytes());
+		lastTransformation = metrics.getTransformation();
+		lastMode = metrics.getMode();
+	}
+
+	@Override
+	public long getOperations() {
+		return operations.sum();
+	}
+
+	@Override
+	public long getProcessedPixels() {
+		return pixels.sum();
+	}
+
+	@Override
+	public long getReadNanos() {
+		return nanos[Instrumentation.Stage.READ.ordinal()].sum();
+	}
+
+	@Override
+	public long getCompileNanos() {
+		return nanos[Instrumentation.Stage.COMPILE.ordinal()].sum();
+	}
+
+	@Override
+	public long getCopyNanos() {
+		return nanos[Instrumentation.Stage.COPY_IN.ordinal()].sum() + nanos[Instrumentation.Stage.COPY_OUT.ordinal()].sum();
+	}
+
+	@Override
+	public long getProcessNanos() {
+		return nanos[Instrumentation.Stage.PROCESS.ordinal()].sum();
+	}
+
+	@Override
+	public long getWriteNanos() {
+		return nanos[Instrumentation.Stage.WRITE.ordinal()].sum();
+	}
+
+	@Override
+	public double getPixelsPerSecond() {
+		long process = getProcessNanos();
+		return process > 0 ? getProcessedPixels() * 1e9 / process : 0;
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocated.sum();
+	}
+
+	@Override
+	public String getLastTransformation() {
+		return lastTransformation;
+	}
+
+	@Override
+	public String getLastMode() {
+		return lastMode;
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * The metrics of the morphological transformations exposed through JMX (see {@link MorphologyMetrics}).
+ * All the times are the sums of all the instrumented operations since the registration.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public interface MorphologyMetricsMXBean {
+
+	/**
+	 * Gets the number of instrumented operations.
+	 *
+	 * @return the number of operations.
+	 */
+	long getOperations();
+
+	/**
+	 * Gets the number of pixels processed by the transformations.
+	 *
+	 * @return the number of pixels.
+	 */
+	long getProcessedPixels();
+
+	/**
+	 * Gets the time spent reading and decoding images.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	long getReadNanos();
+
+	/**
+	 * Gets the time spent compiling structural elements.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	long getCompileNanos();
+
+	/**
+	 * Gets the time spent copying pixels between the Mats and the buffers.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	long getCopyNanos();
+
+	/**
+	 * Gets the time spent in the transformations themselves.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	long getProcessNanos();
+
+	/**
+	 * Gets the time spent encoding and writing images.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	long getWriteNanos();
+
+	/**
+	 * Gets the number of pixels processed per second by the transformations themselves.
+	 *
+	 * @return the pixels per second, or 0 if nothing has been processed.
+	 */
+	double getPixelsPerSecond();
+
+	/**
+	 * Gets the bytes allocated by the threads that called the transformations.
+	 *
+	 * @return the allocated bytes.
+	 */
+	long getAllocatedBytes();
+
+	/**
+	 * Gets the name of the last instrumented transformation.
+	 *
+	 * @return the name of the transformation, or an empty string.
+	 */
+	String getLastTransformation();
+
+	/**
+	 * Gets the execution mode of the last instrumented operation.
+	 *
+	 * @return the execution mode, or an empty string.
+	 */
+	String getLastMode();
+}
@@ -0,0 +1,479 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Processes morphological transformations submitted by many clients (e.g., the handlers of a server) in a shared pool of
+ * threads, giving their results as futures. Unlike {@link Dilation} and its subclasses, which keep the image and the result
+ * of a single transformation, a service is thread-safe and can be shared by the whole application.
+ * <ul>
+ * <li>The compiled transformations are shared by the requests that use the same transformation, structural element and
+ * anchor point (see {@link OperatorCache}).</li>
+ * <li>The number of requests in the service (waiting or in process) is bounded by its capacity, so the memory of the
+ * images is bounded too. When the service is full, the clients wait until a request finishes (backpressure) or, if
+ * {@link #setRejectWhenFull(boolean)} is set, their requests fail at once with a RejectedExecutionException.</li>
+ * <li>The small images are processed in batches: they are queued, and every task of the pool processes several of them,
+ * so the cost of scheduling a task is shared by the images of a batch. When the service is idle, a batch has a single
+ * image, so the small images are never delayed waiting for others.</li>
+ * </ul>
+ * The service can use its own pool of threads or a pool given by the application. Every request is processed by a single
+ * thread, since the requests are processed at the same time.
+ * The buffers used by the transformations are kept in a pool of workspaces (see {@link Workspace}) shared by all the
+ * compiled transformations, with at most one workspace for every thread of the service. So the memory of the buffers
+ * depends on the number of threads and on the size of the images, not on the number of compiled transformations.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public class MorphologyService implements MorphologyClient, AutoCloseable {
+
+	/**
+	 * The number of compiled transformations kept by a service.
+	 */
+	static final int CACHED_OPERATORS = 32;
+
+	/**
+	 * The default max number of pixels (rows * cols) of the images processed in batches.
+	 */
+	public static final int DEFAULT_SMALL_IMAGE = 128 * 128;
+
+	/**
+	 * The default max number of images of a batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 16;
+
+	/**
+	 * A request waiting in the service. It gives back its place in the service and then completes its future with the
+	 * result or with the error of the transformation, so a client waiting for the future can submit another request at once.
+	 *
+	 * @param <T> the type of the result.
+	 */
+	private final class Task<T> implements Runnable {
+		private final CompletableFuture<T> future;
+		private final Supplier<T> work;
+
+		private Task(CompletableFuture<T> future, Supplier<T> work) {
+			this.future = future;
+			this.work = work;
+		}
+
+		@Override
+		public void run() {
+			//A cancelled request is not processed.
+			if(future.isDone()) {
+				permits.release();
+				return;
+			}
+			T result;
+			try {
+				result = work.get();
+			} catch(RuntimeException | Error e) {
+				fail(e);
+				return;
+			}
+			permits.release();
+			future.complete(result);
+		}
+
+		/**
+		 * Fails the request without processing it.
+		 *
+		 * @param error the error of the request.
+		 */
+		private void fail(Throwable error) {
+			permits.release();
+			future.completeExceptionally(error);
+		}
+	}
+
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	private final int threads;
+	private final int capacity;
+	private final Semaphore permits;
+	private final OperatorCache operators = new OperatorCache(CACHED_OPERATORS, RowBands.SERIAL);
+	//The workspaces not used by any request. A request takes one (or creates one if there is none) and gives it back.
+	private final BlockingQueue<Workspace> workspaces;
+
+	//The small images waiting to be processed in a batch and the number of tasks processing them.
+	private final ConcurrentLinkedQueue<Task<?>> small = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger drainers = new AtomicInteger();
+
+	private volatile boolean closed;
+	private volatile boolean rejectWhenFull;
+	private volatile int smallImage = DEFAULT_SMALL_IMAGE;
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * Creates a service with its own pool of threads.
+	 *
+	 * @param threads the number of threads of the pool. Values lower than 1 use the number of processors.
+	 * @param capacity the max number of requests in the service, waiting or in process. It is at least the number of threads.
+	 */
+	public MorphologyService(int threads, int capacity) {
+		this(Executors.newFixedThreadPool(poolSize(threads), threadFactory()), true, poolSize(threads), capacity);
+	}
+
+	/**
+	 * Creates a service that processes the requests in a pool of the application. The pool is not shut down when the
+	 * service is closed.
+	 *
+	 * @param executor the pool where the requests are processed.
+	 * @param threads the max number of tasks of the service processed at the same time, usually the number of threads of the pool.
+	 * @param capacity the max number of requests in the service, waiting or in process. It is at least the number of threads.
+	 */
+	public MorphologyService(ExecutorService executor, int threads, int capacity) {
+		this(executor, false, threads, capacity);
+	}
+
+	private MorphologyService(ExecutorService executor, boolean ownsExecutor, int threads, int capacity) {
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.threads = Math.max(1, threads);
+		this.capacity = Math.max(this.threads, capacity);
+		this.permits = new Semaphore(this.capacity);
+		this.workspaces = new ArrayBlockingQueue<>(this.threads);
+	}
+
+	/**
+	 * Gets the number of threads of the pool of a service.
+	 *
+	 * @param threads the number of threads requested.
+	 * @return the same number, or the number of processors if it is lower than 1.
+	 */
+	private static int poolSize(int threads) {
+		return threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+	}
+
+	/**
+	 * Creates the threads of the pool of a service. They are daemon threads, so a service that is not closed does not
+	 * prevent the JVM from exiting.
+	 *
+	 * @return the factory of the threads.
+	 */
+	private static ThreadFactory threadFactory() {
+		AtomicInteger count = new AtomicInteger();
+		return task -> {
+			Thread thread = new Thread(task, "morphology-service-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Sets what happens when a request is submitted to a full service.
+	 *
+	 * @param rejectWhenFull true for failing the request at once with a RejectedExecutionException, false (the default) for waiting until there is room.
+	 */
+	public void setRejectWhenFull(boolean rejectWhenFull) {
+		this.rejectWhenFull = rejectWhenFull;
+	}
+
+	/**
+	 * Sets which images are processed in batches.
+	 *
+	 * @param smallImage the max number of pixels (rows * cols) of the images processed in batches. 0 disables the batches.
+	 * @param batchSize the max number of images processed by a task.
+	 */
+	public void setBatching(int smallImage, int batchSize) {
+		this.smallImage = Math.max(0, smallImage);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	@Override
+	public CompletableFuture<Mat> submit(Mat image, MorphologicalOperator.Type type, Mat structuralElement, Mat heights, Point anchorPoint) {
+		//The arguments are checked before taking a place, so a wrong request cannot keep it.
+		MorphologyClient.requireArguments(image, type, structuralElement);
+		long pixels = image.total();
+		CompletableFuture<Mat> future = new CompletableFuture<>();
+		if(!acquire(future))
+			return future;
+		MorphologicalOperator operator;
+		try {
+			//The structural element is compiled (or found in the cache) before submitting, so it can be released once this method returns.
+			operator = operators.get(type, structuralElement, heights, anchorPoint);
+		} catch(RuntimeException | Error e) {
+			permits.release();
+			future.completeExceptionally(e);
+			return future;
+		}
+		dispatch(new Task<>(future, () -> process(operator, image)), pixels);
+		return future;
+	}
+
+	@Override
+	public CompletableFuture<ArrayImage> submit(ArrayImage image, MorphologicalOperator.Type type, ArrayImage structuralElement,
+			int[] heights, Point anchorPoint) {
+		MorphologyClient.requireArguments(image, type, structuralElement);
+		long pixels = (long)image.rows() * image.cols();
+		CompletableFuture<ArrayImage> future = new CompletableFuture<>();
+		if(!acquire(future))
+			return future;
+		MorphologicalOperator operator;
+		try {
+			operator = operators.get(type, structuralElement, heights, anchorPoint);
+		} catch(RuntimeException | Error e) {
+			permits.release();
+			future.completeExceptionally(e);
+			return future;
+		}
+		dispatch(new Task<>(future, () -> process(operator, image)), pixels);
+		return future;
+	}
+
+	/**
+	 * Submits any work to the service, e.g., a chain of transformations or a reconstruction, with the same bounds and
+	 * batching as the transformations.
+	 *
+	 * @param work the work to do. It is run in a thread of the service.
+	 * @param pixels the number of pixels processed by the work, used to decide if it is processed in a batch.
+	 * @param <T> the type of the result.
+	 * @return a future completed with the result of the work, or with its error.
+	 * @throws NullPointerException if the work is null. It is not submitted.
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<T> work, long pixels) {
+		Objects.requireNonNull(work, "work");
+		CompletableFuture<T> future = new CompletableFuture<>();
+		if(acquire(future))
+			dispatch(new Task<>(future, work), pixels);
+		return future;
+	}
+
+	/**
+	 * Applies a transformation to an image, recording it for the instrumentation.
+	 *
+	 * @param operator the compiled transformation.
+	 * @param image the image to process.
+	 * @return a new Mat with the processed image.
+	 */
+	private Mat process(MorphologicalOperator operator, Mat image) {
+		Instrumentation.Recorder recorder = Instrumentation.start();
+		Mat dst = new Mat();
+		Workspace workspace = takeWorkspace();
+		try {
+			operator.apply(image, dst, workspace, recorder);
+		} finally {
+			giveBack(workspace);
+		}
+		if(recorder != null)
+			recorder.publish(operator.getType().getTransformation(), image.rows(), image.cols(), image.channels());
+		completed.incrementAndGet();
+		return dst;
+	}
+
+	/**
+	 * Applies a transformation to an image stored in a Java array, recording it for the instrumentation.
+	 *
+	 * @param operator the compiled transformation.
+	 * @param image the image to process.
+	 * @return a new image with the result.
+	 */
+	private ArrayImage process(MorphologicalOperator operator, ArrayImage image) {
+		Instrumentation.Recorder recorder = Instrumentation.start();
+		ArrayImage dst = new ArrayImage(image.rows(), image.cols(), image.channels());
+		Workspace workspace = takeWorkspace();
+		try {
+			operator.apply(image, dst, workspace, recorder);
+		} finally {
+			giveBack(workspace);
+		}
+		if(recorder != null)
+			recorder.publish(operator.getType().getTransformation(), image.rows(), image.cols(), image.channels());
+		completed.incrementAndGet();
+		return dst;
+	}
+
+	/**
+	 * Takes a workspace of the pool for a request, or creates a new one if all of them are in use.
+	 *
+	 * @return the workspace.
+	 */
+	private Workspace takeWorkspace() {
+		Workspace workspace = workspaces.poll();
+		return workspace != null ? workspace : new Workspace();
+	}
+
+	/**
+	 * Gives a workspace back to the pool. If the pool already has a workspace for every thread of the service (e.g., the
+	 * pool of the application ran more tasks at the same time), the workspace is discarded, so the pool is bounded.
+	 *
+	 * @param workspace the workspace, no longer used by the request.
+	 */
+	private void giveBack(Workspace workspace) {
+		workspaces.offer(workspace);
+	}
+
+	/**
+	 * Takes a place in the service for a new request, waiting until there is one unless the full service rejects the
+	 * requests. If the request cannot be taken, its future is failed.
+	 *
+	 * @param future the future of the request.
+	 * @return true if the request can be submitted.
+	 */
+	private boolean acquire(CompletableFuture<?> future) {
+		if(closed) {
+			future.completeExceptionally(new RejectedExecutionException("The service is closed"));
+			return false;
+		}
+		if(rejectWhenFull) {
+			if(!permits.tryAcquire()) {
+				rejected.incrementAndGet();
+				future.completeExceptionally(new RejectedExecutionException("The service is full"));
+				return false;
+			}
+		}
+		else {
+			try {
+				permits.acquire();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.completeExceptionally(e);
+				return false;
+			}
+		}
+		//The service can be closed while waiting for a place.
+		if(closed) {
+			permits.release();
+			future.completeExceptionally(new RejectedExecutionException("The service is closed"));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sends a request to the pool, or to the queue of the batches if its image is small.
+	 *
+	 * @param task the request.
+	 * @param pixels the number of pixels of its image.
+	 */
+	private void dispatch(Task<?> task, long pixels) {
+		if(pixels <= smallImage) {
+			small.add(task);
+			startDrainer();
+			return;
+		}
+		try {
+			executor.execute(task);
+		} catch(RejectedExecutionException e) {
+			task.fail(e);
+		}
+	}
+
+	/**
+	 * Starts a new task processing the queue of small images, unless all the threads are already processing it.
+	 * The request is queued before this method is called, and a task checks the queue again after it stops, so no request
+	 * is left in the queue without a task.
+	 */
+	private void startDrainer() {
+		int current;
+		do {
+			current = drainers.get();
+			if(current >= threads)
+				return;
+		} while(!drainers.compareAndSet(current, current + 1));
+		try {
+			executor.execute(this::drain);
+		} catch(RejectedExecutionException e) {
+			drainers.decrementAndGet();
+			Task<?> task;
+			while((task = small.poll()) != null) {
+				task.fail(e);
+			}
+		}
+	}
+
+	/**
+	 * Processes a batch of small images. If more images are waiting, another task is started for them, so a long queue
+	 * does not hold a thread of the pool and the large images are not delayed.
+	 */
+	private void drain() {
+		int size = batchSize;
+		int processed = 0;
+		Task<?> task;
+		while(processed < size && (task = small.poll()) != null) {
+			task.run();
+			processed++;
+		}
+		if(processed > 0)
+			batches.incrementAndGet();
+		drainers.decrementAndGet();
+		if(!small.isEmpty())
+			startDrainer();
+	}
+
+	/**
+	 * Gets the number of requests in the service, waiting or in process.
+	 *
+	 * @return the number of requests.
+	 */
+	public int getPending() {
+		return capacity - permits.availablePermits();
+	}
+
+	/**
+	 * Gets the number of transformations completed by the service.
+	 *
+	 * @return the number of completed transformations.
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Gets the number of requests rejected because the service was full (see {@link #setRejectWhenFull(boolean)}).
+	 *
+	 * @return the number of rejected requests.
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Gets the number of batches of small images processed by the service.
+	 *
+	 * @return the number of batches.
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * Gets the number of compiled transformations kept by the service.
+	 *
+	 * @return the number of compiled operators.
+	 */
+	public int getCachedOperators() {
+		return operators.size();
+	}
+
+	/**
+	 * Closes the service: the new requests are rejected and this method waits until the submitted ones are finished.
+	 * The pool of threads is shut down if it was created by the service.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		//All the places are taken back, which happens when every submitted request has finished.
+		permits.acquireUninterruptibly(capacity);
+		if(ownsExecutor)
+			executor.shutdown();
+		//The clients waiting for a place are released, so they see that the service is closed.
+		permits.release(capacity);
+	}
+}
@@ -1,4 +1,3 @@
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 
@@ -15,11 +14,11 @@ import org.opencv.core.Point;
 public class Opening extends Dilation{
 
 	public static void main(String[] args) {
-		System.loadLibrary( Core.NATIVE_LIBRARY_NAME );
+		loadLibrary(args);
 		Opening opening = new Opening(args);
 
 		System.out.println("Beginning opening");
-		long elapsed = opening.perform();
+		long elapsed = opening.isStreaming() ? opening.performStreaming() : opening.perform();
 		opening.saveImage();
 		System.out.println("Opening finished. Time elapsed: " + elapsed + " ms");
 	}
@@ -39,7 +38,7 @@ public class Opening extends Dilation{
 	 *
 	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
 	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 */
 	public Opening(String[] args, Mat structuralElement){
@@ -53,7 +52,7 @@ public class Opening extends Dilation{
 	 *
 	 * @param args the arguments of the main method. This array must have two elements at least, indicating first the filename of the image to process and then the filename of the resulting image.
 	 *             An optional third element can be used for giving the size of the structural element. This will be only used if the structural element is null.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
 	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
@@ -68,7 +67,7 @@ public class Opening extends Dilation{
 	 * If the structural element is null, a 5x5 square will be used.
 	 *
 	 * @param src a Mat object containing the image.
-	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements in this class are flat, so values different from 0 are taken as 1.
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeights(Mat)}.
 	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
 	 * @param anchorPoint the origin of the structural element. This point will be used as a reference when performing morphological transformations. 
 	 *                    If this parameter is null, the anchor point will be the geometrical center of the structural element.
@@ -77,6 +76,20 @@ public class Opening extends Dilation{
 		super(src, structuralElement, anchorPoint);
 	}
 
+	/**
+	 * Creates an opening object over an image stored in a Java array, so it is performed without the native library of OpenCV.
+	 * If the anchor point is null, the geometric center of the structural element will be used.
+	 * If the structural element is null, a 5x5 square will be used.
+	 *
+	 * @param src the image to process.
+	 * @param structuralElement the structural element to be used. Values different from 0 are taken as 1. The structural element is flat unless its heights are set with {@link #setHeightValues(int[])}.
+	 *                                If this parameter is null, a 5x5 square full with ones  will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 */
+	public Opening(ArrayImage src, ArrayImage structuralElement, Point anchorPoint) {
+		super(src, structuralElement, anchorPoint);
+	}
+
 	/**
 	 * Performs the transformation. 
 	 *
@@ -86,16 +99,21 @@ public class Opening extends Dilation{
 	public long perform () {
 		//The opening can be defined as: f o b = (f - b) + b   (The opening is obtained eroding the image and then dilating it with the same structural element).
 		long begin = System.currentTimeMillis();
-		//First, the erotion is obtained
-		Erotion erotion = new Erotion(image, structuralElement, anchorPoint);
-		erotion.perform();
-		Mat eroded = erotion.getProcessedImage();
-		//Then, the dilation is performed over the previously eroded image.
-		Dilation dilation = new Dilation(eroded, structuralElement, anchorPoint);
-		dilation.perform();
-		this.dst = dilation.getProcessedImage();
+		//Both transformations are fused over a rolling window of rows, so the eroded image is never stored.
+		Instrumentation.Recorder recorder = startRecording();
+		MorphologicalOperator operator = compile(recorder);
+		fuse(operator, recorder);
 		long end = System.currentTimeMillis();
 		return end - begin;
 	}
-}
 
+	/**
+	 * Gets the transformation performed by this class. It is used to compile the structural element.
+	 *
+	 * @return the type of the transformation.
+	 */
+	@Override
+	protected MorphologicalOperator.Type getType() {
+		return MorphologicalOperator.Type.OPENING;
+	}
+}
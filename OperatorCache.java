@@ -0,0 +1,187 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the last compiled transformations, so the requests that use the same transformation, structural element and
+ * anchor point share a compiled operator instead of compiling them again. The operators are immutable, so they can be
+ * shared by all the threads. When the cache is full, the least recently used operator is removed.
+ * Every lookup reads the structural element (and its heights) once into a key that is compared by value, so the cache is
+ * a hash map and the lock is only held to find or insert the key. A missing operator is compiled by the first thread
+ * that asks for it, outside the lock, and the other threads that ask for it meanwhile wait for that compilation instead
+ * of compiling it again.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+final class OperatorCache {
+
+	/**
+	 * The content of a compiled transformation: the transformation, the size and the cells of the structural element, its
+	 * heights and the anchor point.
+	 */
+	private static final class Key {
+		private final MorphologicalOperator.Type type;
+		private final int rows;
+		private final int cols;
+		private final byte[] cells;
+		private final int[] heights;
+		private final double anchorX;
+		private final double anchorY;
+		private final int hash;
+
+		private Key(MorphologicalOperator.Type type, int rows, int cols, byte[] cells, int[] heights, Point anchorPoint) {
+			this.type = type;
+			this.rows = rows;
+			this.cols = cols;
+			this.cells = cells;
+			this.heights = heights;
+			this.anchorX = anchorPoint.x;
+			this.anchorY = anchorPoint.y;
+			this.hash = Objects.hash(type, rows, cols, Arrays.hashCode(cells), Arrays.hashCode(heights), anchorX, anchorY);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(this == other)
+				return true;
+			if(!(other instanceof Key))
+				return false;
+			Key key = (Key)other;
+			return type == key.type && rows == key.rows && cols == key.cols && anchorX == key.anchorX && anchorY == key.anchorY
+					&& Arrays.equals(cells, key.cells) && Arrays.equals(heights, key.heights);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private final RowBands bands;
+	//Ordered by access, so the first entry is the least recently used one. It is only used holding its lock.
+	private final Map<Key, CompletableFuture<MorphologicalOperator>> operators;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity the max number of operators kept.
+	 * @param bands the parallel configuration of the compiled operators.
+	 */
+	OperatorCache(int capacity, RowBands bands) {
+		int max = Math.max(1, capacity);
+		this.bands = bands;
+		this.operators = new LinkedHashMap<Key, CompletableFuture<MorphologicalOperator>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<MorphologicalOperator>> eldest) {
+				return size() > max;
+			}
+		};
+	}
+
+	/**
+	 * Gets a compiled transformation, compiling it if it is not in the cache.
+	 *
+	 * @param type the transformation.
+	 * @param structuralElement a Mat object indicating the structural element. Values different from 0 are the cells of the element.
+	 * @param heights the heights of the structural element, or null for a flat structural element.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return the compiled operator.
+	 */
+	MorphologicalOperator get(MorphologicalOperator.Type type, Mat structuralElement, Mat heights, Point anchorPoint) {
+		Objects.requireNonNull(type, "type");
+		Objects.requireNonNull(structuralElement, "structuralElement");
+		//The anchor point is compared after the default one is given, like it is compiled.
+		Point anchor = anchorPoint != null ? anchorPoint
+				: new Point((structuralElement.cols() - 1) / 2, (structuralElement.rows() - 1) / 2);
+		int rows = structuralElement.rows();
+		int cols = structuralElement.cols();
+		Key key = new Key(type, rows, cols, MorphologicalOperator.readCells(structuralElement),
+				heights != null ? StructuralElement.readHeights(heights, rows, cols) : null, anchor);
+		return get(key, () -> MorphologicalOperator.compile(type, structuralElement, heights, anchor, bands));
+	}
+
+	/**
+	 * Gets a compiled transformation with a structural element stored in a Java array, compiling it if it is not in the cache.
+	 *
+	 * @param type the transformation.
+	 * @param structuralElement the structural element. Values different from 0 are the cells of the element.
+	 * @param heights the height of every cell, in row-major order, or null for a flat structural element.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return the compiled operator.
+	 */
+	MorphologicalOperator get(MorphologicalOperator.Type type, ArrayImage structuralElement, int[] heights, Point anchorPoint) {
+		Objects.requireNonNull(type, "type");
+		Objects.requireNonNull(structuralElement, "structuralElement");
+		Point anchor = anchorPoint != null ? anchorPoint
+				: new Point((structuralElement.cols() - 1) / 2, (structuralElement.rows() - 1) / 2);
+		//The arrays are copied, since the caller can change them after the operator is compiled.
+		Key key = new Key(type, structuralElement.rows(), structuralElement.cols(), structuralElement.getPixels().clone(),
+				heights != null ? heights.clone() : null, anchor);
+		return get(key, () -> MorphologicalOperator.compile(type, structuralElement, heights, anchor, bands));
+	}
+
+	/**
+	 * Finds the operator of a key, or compiles it if no thread has compiled it yet. The compilation is done without the
+	 * lock, so the lookups of other operators are not blocked by it. If it fails, the key is removed, so the next request
+	 * compiles it again, and the error is thrown to all the threads that were waiting for it.
+	 *
+	 * @param key the content of the transformation.
+	 * @param compiler compiles the transformation.
+	 * @return the compiled operator.
+	 */
+	private MorphologicalOperator get(Key key, Supplier<MorphologicalOperator> compiler) {
+		CompletableFuture<MorphologicalOperator> future;
+		boolean compile = false;
+		synchronized(operators) {
+			future = operators.get(key);
+			if(future == null) {
+				future = new CompletableFuture<>();
+				operators.put(key, future);
+				compile = true;
+			}
+		}
+		if(compile) {
+			try {
+				MorphologicalOperator operator = compiler.get();
+				future.complete(operator);
+				return operator;
+			} catch(RuntimeException | Error e) {
+				synchronized(operators) {
+					operators.remove(key, future);
+				}
+				future.completeExceptionally(e);
+				throw e;
+			}
+		}
+		try {
+			return future.join();
+		} catch(CompletionException e) {
+			//The error of the compilation is thrown as it was thrown to the thread that compiled it.
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			if(e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the number of operators in the cache.
+	 *
+	 * @return the number of compiled operators kept, including the ones that are being compiled.
+	 */
+	int size() {
+		synchronized(operators) {
+			return operators.size();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * The rows of an 8-bit image, read and written by the morphological transformations. The pixels are stored in row-major
+ * order with the channels interleaved, like OpenCV does, but the container is not fixed: an image can be a Mat of OpenCV
+ * (see {@link MatBuffer}) or a Java array (see {@link ArrayImage}), so the transformations can run without the native
+ * library of OpenCV.
+ * A buffer can keep a position, so it must be used by one thread; the other threads get their own with {@link #view()}.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public interface PixelBuffer {
+
+	/**
+	 * Gets the number of rows of the image.
+	 *
+	 * @return the number of rows.
+	 */
+	int rows();
+
+	/**
+	 * Gets the number of columns of the image.
+	 *
+	 * @return the number of columns.
+	 */
+	int cols();
+
+	/**
+	 * Gets the number of channels of the image.
+	 *
+	 * @return the number of channels.
+	 */
+	int channels();
+
+	/**
+	 * Gets the number of values of a row.
+	 *
+	 * @return cols * channels.
+	 */
+	default int rowLength() {
+		return cols() * channels();
+	}
+
+	/**
+	 * Indicates if the rows are read and written without a native call, so the transformations can access them row by row
+	 * instead of copying the whole image.
+	 *
+	 * @return true if the rows can be accessed directly.
+	 */
+	boolean isDirect();
+
+	/**
+	 * Creates another buffer over the same pixels, so it can be used from another thread.
+	 *
+	 * @return a buffer over the same pixels. It can be the same buffer if it keeps no position.
+	 */
+	PixelBuffer view();
+
+	/**
+	 * Indicates if two buffers can share pixels, e.g., the same image, or an image and a region of interest within it.
+	 *
+	 * @param other the other buffer.
+	 * @return true if a pixel of a buffer can be a pixel of the other one.
+	 */
+	boolean overlaps(PixelBuffer other);
+
+	/**
+	 * Reads a row of the image.
+	 *
+	 * @param row the index of the row.
+	 * @param dst the buffer where the row is written.
+	 * @param offset the index in dst of the first value of the row.
+	 */
+	void getRow(int row, byte[] dst, int offset);
+
+	/**
+	 * Reads a part of a row of the image.
+	 *
+	 * @param row the index of the row.
+	 * @param from the index of the first value to read, within the row.
+	 * @param dst the buffer where the values are written.
+	 * @param offset the index in dst of the first value.
+	 * @param length the number of values to read.
+	 */
+	void get(int row, int from, byte[] dst, int offset, int length);
+
+	/**
+	 * Writes a row of the image.
+	 *
+	 * @param row the index of the row.
+	 * @param src the buffer with the values of the row.
+	 * @param offset the index in src of the first value of the row.
+	 */
+	default void putRow(int row, byte[] src, int offset) {
+		put(row, 0, src, offset, rowLength());
+	}
+
+	/**
+	 * Writes a part of a row of the image.
+	 *
+	 * @param row the index of the row.
+	 * @param from the index of the first value to write, within the row.
+	 * @param src the buffer with the values.
+	 * @param offset the index in src of the first value to write.
+	 * @param length the number of values to write.
+	 */
+	void put(int row, int from, byte[] src, int offset, int length);
+
+	/**
+	 * Reads all the pixels of the image.
+	 *
+	 * @param pixels the buffer where the pixels are written, in row-major order. It must have rows * cols * channels elements.
+	 * @return the same buffer.
+	 */
+	byte[] get(byte[] pixels);
+
+	/**
+	 * Writes all the pixels of the image.
+	 *
+	 * @param pixels the pixels, in row-major order. It must have rows * cols * channels elements.
+	 */
+	void put(byte[] pixels);
+}
@@ -0,0 +1,157 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads a binary PGM (P5) or PPM (P6) image row by row. Only the header is read when the file is opened, so the image
+ * does not need to fit in memory. The samples must be 8-bit (the max value must not be greater than 255). The samples are
+ * returned as they are stored, so an image whose max value is not 255 must be written with the same max value (see
+ * {@link #maxValue()}).
+ * The rows are returned with the channels interleaved and in the order of the file, i.e., RGB for a PPM file, not the BGR
+ * of OpenCV ({@link ArrayImage#read(java.nio.file.Path)} swaps them).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class PnmReader implements Closeable {
+
+	private final InputStream in;
+	private final int rows;
+	private final int cols;
+	private final int channels;
+	private final int maxValue;
+
+	/**
+	 * Opens a file and reads its header.
+	 *
+	 * @param path the file to read.
+	 * @throws IOException if the file cannot be read or it is not a binary 8-bit PGM or PPM file.
+	 */
+	public PnmReader(Path path) throws IOException {
+		this(Files.newInputStream(path));
+	}
+
+	/**
+	 * Reads the header of an image from a stream.
+	 *
+	 * @param stream the stream to read. It is closed when the reader is closed.
+	 * @throws IOException if the stream cannot be read or it does not contain a binary 8-bit PGM or PPM image.
+	 */
+	public PnmReader(InputStream stream) throws IOException {
+		this.in = new BufferedInputStream(stream, 1 << 16);
+		try {
+			String magic = nextToken();
+			if(magic.equals("P5"))
+				channels = 1;
+			else if(magic.equals("P6"))
+				channels = 3;
+			else
+				throw new IOException("Only binary PGM (P5) and PPM (P6) images are supported");
+
+			cols = Integer.parseInt(nextToken());
+			rows = Integer.parseInt(nextToken());
+			maxValue = Integer.parseInt(nextToken());
+			if(maxValue < 1 || maxValue > 255)
+				throw new IOException("Only 8-bit PGM and PPM images are supported");
+		} catch(NumberFormatException e) {
+			in.close();
+			throw new IOException("Invalid PGM/PPM header", e);
+		} catch(IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a token of the header, skipping the white spaces and the comments. The single white space after the last token
+	 * of the header is consumed too.
+	 *
+	 * @return the token.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	private String nextToken() throws IOException {
+		StringBuilder token = new StringBuilder();
+		int c = in.read();
+		while(true) {
+			if(c == -1)
+				throw new EOFException("Unexpected end of the PGM/PPM header");
+			if(c == '#') {
+				//A comment lasts until the end of the line.
+				while(c != '\n' && c != '\r' && c != -1)
+					c = in.read();
+			}
+			else if(Character.isWhitespace(c)) {
+				c = in.read();
+			}
+			else {
+				break;
+			}
+		}
+		while(c != -1 && !Character.isWhitespace(c)) {
+			token.append((char)c);
+			c = in.read();
+		}
+		return token.toString();
+	}
+
+	/**
+	 * Reads the next row of the image.
+	 *
+	 * @param row the buffer where the row is written. It must have cols * channels elements.
+	 * @throws IOException if the stream cannot be read or it ends before the row is complete.
+	 */
+	public void readRow(byte[] row) throws IOException {
+		int read = 0;
+		while(read < row.length) {
+			int n = in.read(row, read, row.length - read);
+			if(n < 0)
+				throw new EOFException("Unexpected end of the PGM/PPM data");
+			read += n;
+		}
+	}
+
+	/**
+	 * Gets the number of rows of the image.
+	 *
+	 * @return the height of the image.
+	 */
+	public int rows() {
+		return rows;
+	}
+
+	/**
+	 * Gets the number of columns of the image.
+	 *
+	 * @return the width of the image.
+	 */
+	public int cols() {
+		return cols;
+	}
+
+	/**
+	 * Gets the number of channels of the image.
+	 *
+	 * @return 1 for PGM images and 3 for PPM images.
+	 */
+	public int channels() {
+		return channels;
+	}
+
+	/**
+	 * Gets the max value of the samples, given in the header. It is the white of the image, which is not 255 for the images
+	 * with fewer bits per sample.
+	 *
+	 * @return the max value, from 1 to 255.
+	 */
+	public int maxValue() {
+		return maxValue;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
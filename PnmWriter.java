@@ -0,0 +1,113 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a binary PGM (P5) or PPM (P6) image row by row, so the image does not need to fit in memory.
+ * The max value of the samples is 255 unless another one is given, e.g., the one of the image read with {@link PnmReader},
+ * so the samples keep their meaning. The samples greater than the max value (e.g., after a dilation with heights) are
+ * saturated to it, like the 8-bit transformations saturate to 255, so the file is always valid.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class PnmWriter implements Closeable {
+
+	private final OutputStream out;
+	private final int maxValue;
+
+	//The row with the saturated samples, used only if the max value is not 255.
+	private byte[] saturated;
+
+	/**
+	 * Creates a file and writes its header.
+	 *
+	 * @param path the file to write.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image: 1 for a PGM image or 3 for a PPM image.
+	 * @throws IOException if the file cannot be written or the number of channels is not supported.
+	 */
+	public PnmWriter(Path path, int rows, int cols, int channels) throws IOException {
+		this(path, rows, cols, channels, 255);
+	}
+
+	/**
+	 * Creates a file and writes its header, with a max value of the samples that is not 255.
+	 *
+	 * @param path the file to write.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image: 1 for a PGM image or 3 for a PPM image.
+	 * @param maxValue the max value of the samples, from 1 to 255.
+	 * @throws IOException if the file cannot be written or the number of channels or the max value is not supported.
+	 */
+	public PnmWriter(Path path, int rows, int cols, int channels, int maxValue) throws IOException {
+		this(Files.newOutputStream(path), rows, cols, channels, maxValue);
+	}
+
+	/**
+	 * Writes the header of an image into a stream.
+	 *
+	 * @param stream the stream to write. It is closed when the writer is closed.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image: 1 for a PGM image or 3 for a PPM image.
+	 * @throws IOException if the stream cannot be written or the number of channels is not supported.
+	 */
+	public PnmWriter(OutputStream stream, int rows, int cols, int channels) throws IOException {
+		this(stream, rows, cols, channels, 255);
+	}
+
+	/**
+	 * Writes the header of an image into a stream, with a max value of the samples that is not 255.
+	 *
+	 * @param stream the stream to write. It is closed when the writer is closed.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image: 1 for a PGM image or 3 for a PPM image.
+	 * @param maxValue the max value of the samples, from 1 to 255.
+	 * @throws IOException if the stream cannot be written or the number of channels or the max value is not supported.
+	 */
+	public PnmWriter(OutputStream stream, int rows, int cols, int channels, int maxValue) throws IOException {
+		this.out = new BufferedOutputStream(stream, 1 << 16);
+		this.maxValue = maxValue;
+		if(channels != 1 && channels != 3) {
+			out.close();
+			throw new IOException("Only 1 or 3 channels can be written as PGM/PPM");
+		}
+		if(maxValue < 1 || maxValue > 255) {
+			out.close();
+			throw new IOException("Only 8-bit PGM and PPM images can be written");
+		}
+		String header = (channels == 1 ? "P5" : "P6") + "\n" + cols + " " + rows + "\n" + maxValue + "\n";
+		out.write(header.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Writes the next row of the image.
+	 *
+	 * @param row the pixels of the row, with cols * channels elements.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public void writeRow(byte[] row) throws IOException {
+		if(maxValue == 255) {
+			out.write(row);
+			return;
+		}
+		if(saturated == null || saturated.length != row.length)
+			saturated = new byte[row.length];
+		for(int n = 0; n<row.length; n++) {
+			saturated[n] = (byte)Math.min(row[n] & 0xFF, maxValue);
+		}
+		out.write(saturated);
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,631 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * Performs the morphological reconstruction of an image (the mask) from another image (the marker). The reconstruction by
+ * dilation dilates the marker again and again, keeping it below the mask, until it does not change; the reconstruction by
+ * erotion is its dual. Instead of repeating full dilations, the hybrid algorithm of Vincent is used: a raster scan and an
+ * anti-raster scan propagate the values along the rows, and the few pixels that can still change are propagated with a
+ * FIFO queue, so every pixel is visited only a few times.
+ * The neighborhood of a pixel is given by a structural element and its anchor point, compiled as the dilation does it
+ * (see {@link StructuralElement#forDilation(Mat, Point)}). Since the reconstruction propagates the values in every direction,
+ * the neighborhood is made symmetric (every offset is used together with its opposite). A 3x3 square gives the
+ * 8-connectivity and a 3x3 cross gives the 4-connectivity.
+ * All the channels are processed independently. The 16-bit and the floating point images are reconstructed over double
+ * arrays: the algorithm only compares the values, and a double represents every value of those depths exactly, so the
+ * result is the same as with their own type.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class Reconstruction {
+
+	private Reconstruction() {
+	}
+
+	/**
+	 * Performs the reconstruction by dilation of a mask from a marker, using the 8-connectivity.
+	 *
+	 * @param marker the image where the reconstruction starts. Values greater than the mask are taken as the mask.
+	 * @param mask the image that limits the reconstruction.
+	 * @return a new Mat with the reconstructed image.
+	 */
+	public static Mat byDilation(Mat marker, Mat mask) {
+		return byDilation(marker, mask, Mat.ones(3, 3, CvType.CV_8UC1), null);
+	}
+
+	/**
+	 * Performs the reconstruction by dilation of a mask from a marker: the marker is dilated until it stops changing,
+	 * taking the min with the mask after every dilation.
+	 *
+	 * @param marker the image where the reconstruction starts. Values greater than the mask are taken as the mask.
+	 * @param mask the image that limits the reconstruction. It must have the size and the type of the marker.
+	 * @param structuralElement a Mat object indicating the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return a new Mat with the reconstructed image.
+	 */
+	public static Mat byDilation(Mat marker, Mat mask, Mat structuralElement, Point anchorPoint) {
+		checkImages(marker, mask);
+		if(mask.total() == 0)
+			return mask.clone();
+		if(mask.depth() != CvType.CV_8U) {
+			double[] values = DepthMorphology.toDoubles(marker);
+			byDilation(values, DepthMorphology.toDoubles(mask), mask.rows(), mask.cols(), mask.channels(),
+					compile(structuralElement, anchorPoint));
+			return DepthMorphology.toMat(values, mask);
+		}
+		byte[] result = MorphologyEngine.toArray(marker);
+		byDilation(result, MorphologyEngine.toArray(mask), mask.rows(), mask.cols(), mask.channels(),
+				compile(structuralElement, anchorPoint));
+		return MorphologyEngine.toMat(result, mask);
+	}
+
+	/**
+	 * Performs the reconstruction by erotion of a mask from a marker, using the 8-connectivity.
+	 *
+	 * @param marker the image where the reconstruction starts. Values lower than the mask are taken as the mask.
+	 * @param mask the image that limits the reconstruction.
+	 * @return a new Mat with the reconstructed image.
+	 */
+	public static Mat byErotion(Mat marker, Mat mask) {
+		return byErotion(marker, mask, Mat.ones(3, 3, CvType.CV_8UC1), null);
+	}
+
+	/**
+	 * Performs the reconstruction by erotion of a mask from a marker: the marker is eroded until it stops changing,
+	 * taking the max with the mask after every erotion. It is obtained as the complement of the reconstruction by dilation
+	 * of the complements.
+	 *
+	 * @param marker the image where the reconstruction starts. Values lower than the mask are taken as the mask.
+	 * @param mask the image that limits the reconstruction. It must have the size and the type of the marker.
+	 * @param structuralElement a Mat object indicating the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return a new Mat with the reconstructed image.
+	 */
+	public static Mat byErotion(Mat marker, Mat mask, Mat structuralElement, Point anchorPoint) {
+		checkImages(marker, mask);
+		if(mask.total() == 0)
+			return mask.clone();
+		if(mask.depth() != CvType.CV_8U) {
+			double[] values = DepthMorphology.toDoubles(marker);
+			byErotion(values, DepthMorphology.toDoubles(mask), mask.rows(), mask.cols(), mask.channels(),
+					compile(structuralElement, anchorPoint));
+			return DepthMorphology.toMat(values, mask);
+		}
+		byte[] result = MorphologyEngine.toArray(marker);
+		byErotion(result, MorphologyEngine.toArray(mask), mask.rows(), mask.cols(), mask.channels(),
+				compile(structuralElement, anchorPoint));
+		return MorphologyEngine.toMat(result, mask);
+	}
+
+	/**
+	 * Fills the holes of an image, i.e., the dark regions that are not connected to the border of the image. It is the
+	 * reconstruction by erotion of the image from a marker that is the image on the border and 255 (the max of the image for
+	 * the 16-bit and the floating point images) elsewhere.
+	 *
+	 * @param image the image to process.
+	 * @param structuralElement a Mat object indicating the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return a new Mat with the filled image.
+	 */
+	public static Mat fillHoles(Mat image, Mat structuralElement, Point anchorPoint) {
+		if(image.total() == 0)
+			return image.clone();
+		if(image.depth() != CvType.CV_8U) {
+			double[] values = DepthMorphology.toDoubles(image);
+			double[] result = new double[values.length];
+			fillHoles(values, result, image.rows(), image.cols(), image.channels(), compile(structuralElement, anchorPoint));
+			return DepthMorphology.toMat(result, image);
+		}
+		byte[] pixels = MorphologyEngine.toArray(image);
+		byte[] result = new byte[pixels.length];
+		fillHoles(pixels, result, image.rows(), image.cols(), image.channels(), compile(structuralElement, anchorPoint));
+		return MorphologyEngine.toMat(result, image);
+	}
+
+	/**
+	 * Removes the bright regions of an image that are connected to the border of the image. It is the image minus its
+	 * reconstruction by dilation from a marker that is the image on the border and 0 elsewhere.
+	 *
+	 * @param image the image to process.
+	 * @param structuralElement a Mat object indicating the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return a new Mat with the cleared image.
+	 */
+	public static Mat clearBorder(Mat image, Mat structuralElement, Point anchorPoint) {
+		if(image.total() == 0)
+			return image.clone();
+		if(image.depth() != CvType.CV_8U) {
+			double[] values = DepthMorphology.toDoubles(image);
+			double[] result = new double[values.length];
+			clearBorder(values, result, image.rows(), image.cols(), image.channels(), compile(structuralElement, anchorPoint));
+			return DepthMorphology.toMat(result, image);
+		}
+		byte[] pixels = MorphologyEngine.toArray(image);
+		byte[] result = new byte[pixels.length];
+		clearBorder(pixels, result, image.rows(), image.cols(), image.channels(), compile(structuralElement, anchorPoint));
+		return MorphologyEngine.toMat(result, image);
+	}
+
+	/**
+	 * Fills the holes of an image stored in any container (see {@link PixelBuffer}).
+	 *
+	 * @param src the image to process.
+	 * @param dst the image where the result is written. It must have the size of the source image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void fillHoles(PixelBuffer src, PixelBuffer dst, StructuralElement element) {
+		if(src.rows() * src.rowLength() == 0)
+			return;
+		byte[] pixels = src.get(new byte[src.rows() * src.rowLength()]);
+		byte[] result = new byte[pixels.length];
+		fillHoles(pixels, result, src.rows(), src.cols(), src.channels(), element);
+		dst.put(result);
+	}
+
+	/**
+	 * Removes the bright regions connected to the border of an image stored in any container (see {@link PixelBuffer}).
+	 *
+	 * @param src the image to process.
+	 * @param dst the image where the result is written. It must have the size of the source image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void clearBorder(PixelBuffer src, PixelBuffer dst, StructuralElement element) {
+		if(src.rows() * src.rowLength() == 0)
+			return;
+		byte[] pixels = src.get(new byte[src.rows() * src.rowLength()]);
+		byte[] result = new byte[pixels.length];
+		clearBorder(pixels, result, src.rows(), src.cols(), src.channels(), element);
+		dst.put(result);
+	}
+
+	/**
+	 * Fills the holes of an image stored in a buffer.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void fillHoles(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element) {
+		//The marker is the image on the border and 255 elsewhere, so the reconstruction only keeps the dark regions reached from the border.
+		for(int i = 0; i<rows; i++) {
+			for(int j = 0; j<cols; j++) {
+				boolean border = i == 0 || j == 0 || i == rows - 1 || j == cols - 1;
+				int o = (i * cols + j) * channels;
+				for(int k = 0; k<channels; k++) {
+					dst[o + k] = border ? src[o + k] : (byte)0xFF;
+				}
+			}
+		}
+		byErotion(dst, src, rows, cols, channels, element);
+	}
+
+	/**
+	 * Removes the bright regions connected to the border of an image stored in a buffer.
+	 *
+	 * @param src the pixels of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void clearBorder(byte[] src, byte[] dst, int rows, int cols, int channels, StructuralElement element) {
+		//The marker is the image on the border and 0 elsewhere, so the reconstruction is the part connected to the border.
+		for(int i = 0; i<rows; i++) {
+			for(int j = 0; j<cols; j++) {
+				boolean border = i == 0 || j == 0 || i == rows - 1 || j == cols - 1;
+				int o = (i * cols + j) * channels;
+				for(int k = 0; k<channels; k++) {
+					dst[o + k] = border ? src[o + k] : 0;
+				}
+			}
+		}
+		byDilation(dst, src, rows, cols, channels, element);
+		//The reconstruction is never greater than the image, so the difference does not need to be saturated.
+		for(int o = 0; o<dst.length; o++) {
+			dst[o] = (byte)((src[o] & 0xFF) - (dst[o] & 0xFF));
+		}
+	}
+
+	/**
+	 * Performs the reconstruction by erotion over buffers, in place.
+	 *
+	 * @param marker the pixels of the marker. The reconstructed image is written into this buffer.
+	 * @param mask the pixels of the mask.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void byErotion(byte[] marker, byte[] mask, int rows, int cols, int channels, StructuralElement element) {
+		//The reconstruction by erotion is the complement of the reconstruction by dilation of the complements.
+		byte[] complement = new byte[mask.length];
+		for(int o = 0; o<mask.length; o++) {
+			marker[o] = (byte)~marker[o];
+			complement[o] = (byte)~mask[o];
+		}
+		byDilation(marker, complement, rows, cols, channels, element);
+		for(int o = 0; o<marker.length; o++) {
+			marker[o] = (byte)~marker[o];
+		}
+	}
+
+	/**
+	 * Performs the reconstruction by dilation over buffers, in place, using the hybrid algorithm of Vincent.
+	 *
+	 * @param marker the pixels of the marker. The reconstructed image is written into this buffer.
+	 * @param mask the pixels of the mask.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void byDilation(byte[] marker, byte[] mask, int rows, int cols, int channels, StructuralElement element) {
+		//The neighbors before the pixel in the raster order (the first half of the offsets) are used by the raster scan and
+		//the neighbors after it (the second half, their opposites) by the anti-raster scan.
+		int half = element.size() / 2;
+		IntQueue queue = new IntQueue();
+		for(int k = 0; k<channels; k++) {
+			//The marker cannot be greater than the mask.
+			for(int p = k; p<marker.length; p += channels) {
+				if((marker[p] & 0xFF) > (mask[p] & 0xFF))
+					marker[p] = mask[p];
+			}
+
+			//Raster scan: every pixel takes the max of the previous neighbors, limited by the mask.
+			for(int i = 0; i<rows; i++) {
+				for(int j = 0; j<cols; j++) {
+					int p = (i * cols + j) * channels + k;
+					int value = marker[p] & 0xFF;
+					for(int n = 0; n<half; n++) {
+						int r = i + element.rowOffset(n);
+						int c = j + element.colOffset(n);
+						if(r >= 0 && r < rows && c >= 0 && c < cols)
+							value = Math.max(value, marker[(r * cols + c) * channels + k] & 0xFF);
+					}
+					marker[p] = (byte)Math.min(value, mask[p] & 0xFF);
+				}
+			}
+
+			//Anti-raster scan: the same with the next neighbors. The pixels that can still raise a next neighbor are queued.
+			for(int i = rows - 1; i>=0; i--) {
+				for(int j = cols - 1; j>=0; j--) {
+					int p = (i * cols + j) * channels + k;
+					int value = marker[p] & 0xFF;
+					for(int n = half; n<element.size(); n++) {
+						int r = i + element.rowOffset(n);
+						int c = j + element.colOffset(n);
+						if(r >= 0 && r < rows && c >= 0 && c < cols)
+							value = Math.max(value, marker[(r * cols + c) * channels + k] & 0xFF);
+					}
+					value = Math.min(value, mask[p] & 0xFF);
+					marker[p] = (byte)value;
+					for(int n = half; n<element.size(); n++) {
+						int r = i + element.rowOffset(n);
+						int c = j + element.colOffset(n);
+						if(r >= 0 && r < rows && c >= 0 && c < cols) {
+							int q = (r * cols + c) * channels + k;
+							if((marker[q] & 0xFF) < value && (marker[q] & 0xFF) < (mask[q] & 0xFF)) {
+								queue.add(i * cols + j);
+								break;
+							}
+						}
+					}
+				}
+			}
+
+			//Propagation: every queued pixel raises its neighbors, which are queued in turn.
+			while(!queue.isEmpty()) {
+				int pixel = queue.remove();
+				int i = pixel / cols;
+				int j = pixel - i * cols;
+				int value = marker[pixel * channels + k] & 0xFF;
+				for(int n = 0; n<element.size(); n++) {
+					int r = i + element.rowOffset(n);
+					int c = j + element.colOffset(n);
+					if(r >= 0 && r < rows && c >= 0 && c < cols) {
+						int q = (r * cols + c) * channels + k;
+						int current = marker[q] & 0xFF;
+						int limit = mask[q] & 0xFF;
+						if(current < value && current != limit) {
+							marker[q] = (byte)Math.min(value, limit);
+							queue.add(r * cols + c);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills the holes of an image stored in a double buffer (see {@link #fillHoles(byte[], byte[], int, int, int, StructuralElement)}).
+	 *
+	 * @param src the values of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void fillHoles(double[] src, double[] dst, int rows, int cols, int channels, StructuralElement element) {
+		//The marker is the image on the border and its max elsewhere, like the 255 of the 8-bit images.
+		double top = Double.NEGATIVE_INFINITY;
+		for(double value : src) {
+			top = Math.max(top, value);
+		}
+		for(int i = 0; i<rows; i++) {
+			for(int j = 0; j<cols; j++) {
+				boolean border = i == 0 || j == 0 || i == rows - 1 || j == cols - 1;
+				int o = (i * cols + j) * channels;
+				for(int k = 0; k<channels; k++) {
+					dst[o + k] = border ? src[o + k] : top;
+				}
+			}
+		}
+		byErotion(dst, src, rows, cols, channels, element);
+	}
+
+	/**
+	 * Removes the bright regions connected to the border of an image stored in a double buffer (see
+	 * {@link #clearBorder(byte[], byte[], int, int, int, StructuralElement)}).
+	 *
+	 * @param src the values of the image.
+	 * @param dst the buffer where the result is written. It must have the same length as src.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void clearBorder(double[] src, double[] dst, int rows, int cols, int channels, StructuralElement element) {
+		//The marker is the image on the border and 0 elsewhere, like the 8-bit images. The marker is limited by the image, so
+		//the negative values are their own reconstruction and the difference is never negative.
+		for(int i = 0; i<rows; i++) {
+			for(int j = 0; j<cols; j++) {
+				boolean border = i == 0 || j == 0 || i == rows - 1 || j == cols - 1;
+				int o = (i * cols + j) * channels;
+				for(int k = 0; k<channels; k++) {
+					dst[o + k] = border ? src[o + k] : 0;
+				}
+			}
+		}
+		byDilation(dst, src, rows, cols, channels, element);
+		for(int o = 0; o<dst.length; o++) {
+			dst[o] = src[o] - dst[o];
+		}
+	}
+
+	/**
+	 * Performs the reconstruction by erotion over double buffers, in place.
+	 *
+	 * @param marker the values of the marker. The reconstructed image is written into this buffer.
+	 * @param mask the values of the mask.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void byErotion(double[] marker, double[] mask, int rows, int cols, int channels, StructuralElement element) {
+		//The opposite of a value reverses the order, like the complement of an 8-bit value.
+		double[] complement = new double[mask.length];
+		for(int o = 0; o<mask.length; o++) {
+			marker[o] = -marker[o];
+			complement[o] = -mask[o];
+		}
+		byDilation(marker, complement, rows, cols, channels, element);
+		for(int o = 0; o<marker.length; o++) {
+			marker[o] = -marker[o];
+		}
+	}
+
+	/**
+	 * Performs the reconstruction by dilation over double buffers, in place, using the hybrid algorithm of Vincent (see
+	 * {@link #byDilation(byte[], byte[], int, int, int, StructuralElement)}).
+	 *
+	 * @param marker the values of the marker. The reconstructed image is written into this buffer.
+	 * @param mask the values of the mask.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the neighborhood of a pixel (see {@link #compile(Mat, Point)}).
+	 */
+	public static void byDilation(double[] marker, double[] mask, int rows, int cols, int channels, StructuralElement element) {
+		int half = element.size() / 2;
+		IntQueue queue = new IntQueue();
+		for(int k = 0; k<channels; k++) {
+			for(int p = k; p<marker.length; p += channels) {
+				if(marker[p] > mask[p])
+					marker[p] = mask[p];
+			}
+
+			//Raster scan.
+			for(int i = 0; i<rows; i++) {
+				for(int j = 0; j<cols; j++) {
+					int p = (i * cols + j) * channels + k;
+					double value = marker[p];
+					for(int n = 0; n<half; n++) {
+						int r = i + element.rowOffset(n);
+						int c = j + element.colOffset(n);
+						if(r >= 0 && r < rows && c >= 0 && c < cols)
+							value = Math.max(value, marker[(r * cols + c) * channels + k]);
+					}
+					marker[p] = Math.min(value, mask[p]);
+				}
+			}
+
+			//Anti-raster scan.
+			for(int i = rows - 1; i>=0; i--) {
+				for(int j = cols - 1; j>=0; j--) {
+					int p = (i * cols + j) * channels + k;
+					double value = marker[p];
+					for(int n = half; n<element.size(); n++) {
+						int r = i + element.rowOffset(n);
+						int c = j + element.colOffset(n);
+						if(r >= 0 && r < rows && c >= 0 && c < cols)
+							value = Math.max(value, marker[(r * cols + c) * channels + k]);
+					}
+					value = Math.min(value, mask[p]);
+					marker[p] = value;
+					for(int n = half; n<element.size(); n++) {
+						int r = i + element.rowOffset(n);
+						int c = j + element.colOffset(n);
+						if(r >= 0 && r < rows && c >= 0 && c < cols) {
+							int q = (r * cols + c) * channels + k;
+							if(marker[q] < value && marker[q] < mask[q]) {
+								queue.add(i * cols + j);
+								break;
+							}
+						}
+					}
+				}
+			}
+
+			//Propagation.
+			while(!queue.isEmpty()) {
+				int pixel = queue.remove();
+				int i = pixel / cols;
+				int j = pixel - i * cols;
+				double value = marker[pixel * channels + k];
+				for(int n = 0; n<element.size(); n++) {
+					int r = i + element.rowOffset(n);
+					int c = j + element.colOffset(n);
+					if(r >= 0 && r < rows && c >= 0 && c < cols) {
+						int q = (r * cols + c) * channels + k;
+						double current = marker[q];
+						double limit = mask[q];
+						if(current < value && current != limit) {
+							marker[q] = Math.min(value, limit);
+							queue.add(r * cols + c);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compiles the neighborhood used by the reconstruction. The offsets of the structural element (compiled for a dilation)
+	 * are made symmetric and the origin is removed. The offsets before the origin in the raster order are stored first and
+	 * their opposites are stored in the second half, in the same order.
+	 *
+	 * @param structuralElement a Mat object indicating the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 *                          If this parameter is null, a 3x3 square (8-connectivity) will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return the compiled neighborhood.
+	 */
+	public static StructuralElement compile(Mat structuralElement, Point anchorPoint) {
+		if(structuralElement == null)
+			structuralElement = Mat.ones(3, 3, CvType.CV_8UC1);
+		//If anchorPoint is null, uses the center of the structural element.
+		if(anchorPoint == null)
+			anchorPoint = new Point((structuralElement.cols() - 1) / 2, (structuralElement.rows() - 1) / 2);
+		return neighborhood(StructuralElement.forDilation(structuralElement, anchorPoint));
+	}
+
+	/**
+	 * Compiles the neighborhood used by the reconstruction from a structural element stored in a Java array, without the
+	 * native library of OpenCV (see {@link #compile(Mat, Point)}).
+	 *
+	 * @param structuralElement the neighborhood of a pixel. Values different from 0 are taken as 1.
+	 *                          If this parameter is null, a 3x3 square (8-connectivity) will be used.
+	 * @param anchorPoint the origin of the structural element. If this parameter is null, the anchor point will be the geometrical center of the structural element.
+	 * @return the compiled neighborhood.
+	 */
+	public static StructuralElement compile(ArrayImage structuralElement, Point anchorPoint) {
+		if(structuralElement == null)
+			structuralElement = ArrayImage.ones(3, 3);
+		if(anchorPoint == null)
+			anchorPoint = new Point((structuralElement.cols() - 1) / 2, (structuralElement.rows() - 1) / 2);
+		return neighborhood(StructuralElement.forDilation(structuralElement, null, anchorPoint));
+	}
+
+	/**
+	 * Makes the offsets of a structural element symmetric and removes the origin.
+	 *
+	 * @param element the structural element compiled for a dilation.
+	 * @return the compiled neighborhood.
+	 */
+	private static StructuralElement neighborhood(StructuralElement element) {
+		//Every offset is taken in the raster order: an offset after the origin is replaced by its opposite.
+		int extent = Math.max(Math.max(-element.minRowOffset(), element.maxRowOffset()),
+				Math.max(-element.minColOffset(), element.maxColOffset()));
+		int side = 2 * extent + 1;
+		boolean[] seen = new boolean[side * side];
+		int[] rowOffsets = new int[element.size()];
+		int[] colOffsets = new int[element.size()];
+		int count = 0;
+		for(int n = 0; n<element.size(); n++) {
+			int dp = element.rowOffset(n);
+			int dq = element.colOffset(n);
+			if(dp > 0 || (dp == 0 && dq > 0)) {
+				dp = -dp;
+				dq = -dq;
+			}
+			int cell = (dp + extent) * side + dq + extent;
+			if((dp == 0 && dq == 0) || seen[cell])
+				continue;
+			seen[cell] = true;
+			rowOffsets[count] = dp;
+			colOffsets[count] = dq;
+			count++;
+		}
+
+		int[] symmetricRows = new int[2 * count];
+		int[] symmetricCols = new int[2 * count];
+		for(int n = 0; n<count; n++) {
+			symmetricRows[n] = rowOffsets[n];
+			symmetricCols[n] = colOffsets[n];
+			symmetricRows[count + n] = -rowOffsets[n];
+			symmetricCols[count + n] = -colOffsets[n];
+		}
+		return StructuralElement.of(symmetricRows, symmetricCols);
+	}
+
+	/**
+	 * Checks that the marker and the mask can be reconstructed together.
+	 *
+	 * @param marker the marker.
+	 * @param mask the mask.
+	 * @throws IllegalArgumentException if they do not have the same size and type.
+	 */
+	private static void checkImages(Mat marker, Mat mask) {
+		if(marker.rows() != mask.rows() || marker.cols() != mask.cols() || marker.type() != mask.type())
+			throw new IllegalArgumentException("The marker and the mask must have the same size and type");
+	}
+
+	/**
+	 * A FIFO queue of pixel indices that grows when it is full, so no object is created for every queued pixel.
+	 */
+	private static final class IntQueue {
+		private int[] values = new int[1024];
+		private int head;
+		private int size;
+
+		private boolean isEmpty() {
+			return size == 0;
+		}
+
+		private void add(int value) {
+			if(size == values.length) {
+				int[] grown = new int[values.length * 2];
+				for(int n = 0; n<size; n++) {
+					grown[n] = values[(head + n) % values.length];
+				}
+				values = grown;
+				head = 0;
+			}
+			values[(head + size) % values.length] = value;
+			size++;
+		}
+
+		private int remove() {
+			int value = values[head];
+			head = (head + 1) % values.length;
+			size--;
+			return value;
+		}
+	}
+}
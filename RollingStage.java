@@ -0,0 +1,476 @@
+import java.util.Arrays;
+
+/**
+ * Applies a dilation or an erotion over a stream of rows, keeping only a rolling window as high as the structural element.
+ * The rows of the source image are pushed in order and every processed row is given to a sink as soon as all the rows
+ * of its neighborhood have been received. Since the sink can be another stage, several transformations can be chained
+ * without storing the intermediate images, so the memory used is O(width * height of the structural elements).
+ * When the structural element is a rectangle, every row is reduced horizontally (van Herk/Gil-Werman) when it is received,
+ * so the window stores the reduced rows and every output row only needs a vertical reduction. When the structural
+ * element is decomposed into horizontal lines (see {@link ElementPlan}), the window stores the table of every row instead.
+ * A gradient stage computes the max and the min of the same window of rows, so the dilation and the erotion are never stored.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class RollingStage {
+
+	/**
+	 * Receives the processed rows of a stage.
+	 */
+	public interface Sink {
+		/**
+		 * Receives a processed row. The buffer is reused by the stage, so it must be copied if it is needed later.
+		 *
+		 * @param row the index of the row in the image.
+		 * @param data the pixels of the row.
+		 */
+		void accept(int row, byte[] data);
+	}
+
+	/**
+	 * A transformation applied by a stage: a compiled structural element and the kind of reduction. A gradient step has
+	 * two structural elements and computes the max and the min of the neighborhood in the same sweep.
+	 */
+	public static final class Step {
+		private final StructuralElement element;
+		private final StructuralElement lower;
+		private final boolean max;
+
+		private Step(StructuralElement element, StructuralElement lower, boolean max) {
+			this.element = element;
+			this.lower = lower;
+			this.max = max;
+		}
+
+		/**
+		 * Creates a dilation step.
+		 *
+		 * @param element the structural element compiled for the dilation.
+		 * @return the step.
+		 */
+		public static Step dilation(StructuralElement element) {
+			return new Step(element, null, true);
+		}
+
+		/**
+		 * Creates an erotion step.
+		 *
+		 * @param element the structural element compiled for the erotion.
+		 * @return the step.
+		 */
+		public static Step erotion(StructuralElement element) {
+			return new Step(element, null, false);
+		}
+
+		/**
+		 * Creates a morphological gradient step: the dilation minus the erotion, saturated to 0.
+		 *
+		 * @param dilation the structural element compiled for the dilation.
+		 * @param erotion the structural element compiled for the erotion.
+		 * @return the step.
+		 */
+		public static Step gradient(StructuralElement dilation, StructuralElement erotion) {
+			return new Step(dilation, erotion, true);
+		}
+
+		/**
+		 * Gets the compiled structural element of the step.
+		 *
+		 * @return the structural element.
+		 */
+		public StructuralElement getElement() {
+			return element;
+		}
+
+		/**
+		 * Gets the structural element of the erotion of a gradient step.
+		 *
+		 * @return the structural element, or null if the step is not a gradient.
+		 */
+		public StructuralElement getLowerElement() {
+			return lower;
+		}
+
+		/**
+		 * Indicates if the step is a dilation (the max of a gradient step).
+		 *
+		 * @return true for a dilation or a gradient, false for an erotion.
+		 */
+		public boolean isDilation() {
+			return max;
+		}
+
+		/**
+		 * Indicates if the step is a morphological gradient.
+		 *
+		 * @return true if the step has a structural element for the erotion too.
+		 */
+		public boolean isGradient() {
+			return lower != null;
+		}
+	}
+
+	/**
+	 * A sink that combines every processed row with the same row of the source image (e.g., for the top-hat) before
+	 * giving it to another sink. The source rows are kept in a ring as long as the lag between the source rows and the
+	 * processed rows, and the processed rows that arrive before their source row wait in another ring.
+	 */
+	public static final class ResidueSink implements Sink {
+		private final MorphologyEngine.Residue residue;
+		private final Sink sink;
+		private final byte[][] sources;
+		private final byte[][] pending;
+		private final byte[] combined;
+
+		private int lastSource = -1;
+		private int firstPending;
+		private int pendingCount;
+
+		/**
+		 * Creates a sink that combines the rows processed by a chain of stages.
+		 *
+		 * @param residue how the processed rows are combined with the source rows.
+		 * @param rowLength the number of values of a row.
+		 * @param steps the transformations of the chain, used to know the lag between the rows.
+		 * @param sink the receiver of the combined rows.
+		 */
+		public ResidueSink(MorphologyEngine.Residue residue, int rowLength, Step[] steps, Sink sink) {
+			this.residue = residue;
+			this.sink = sink;
+			//Every stage can delay or advance its rows by the extent of its structural elements.
+			int lag = 1;
+			for(Step step : steps) {
+				lag += Math.abs(step.element.minRowOffset()) + Math.abs(step.element.maxRowOffset());
+				if(step.lower != null)
+					lag += Math.abs(step.lower.minRowOffset()) + Math.abs(step.lower.maxRowOffset());
+			}
+			this.sources = new byte[lag][rowLength];
+			this.pending = new byte[lag][rowLength];
+			this.combined = new byte[rowLength];
+		}
+
+		/**
+		 * Receives the next row of the source image. All the rows of the source image must be given in order, before
+		 * pushing them into the chain.
+		 *
+		 * @param data the pixels of the row. The buffer is copied, so it can be reused by the caller.
+		 */
+		public void source(byte[] data) {
+			lastSource++;
+			System.arraycopy(data, 0, sources[lastSource % sources.length], 0, combined.length);
+			while(pendingCount > 0 && firstPending <= lastSource) {
+				emit(firstPending, pending[firstPending % pending.length]);
+				firstPending++;
+				pendingCount--;
+			}
+		}
+
+		@Override
+		public void accept(int row, byte[] data) {
+			if(pendingCount == 0 && row <= lastSource) {
+				emit(row, data);
+				return;
+			}
+			if(pendingCount == pending.length)
+				throw new IllegalStateException("Too many processed rows are waiting for their source rows");
+			if(pendingCount == 0)
+				firstPending = row;
+			System.arraycopy(data, 0, pending[row % pending.length], 0, combined.length);
+			pendingCount++;
+		}
+
+		/**
+		 * Combines a processed row with its source row and gives it to the sink.
+		 *
+		 * @param row the index of the row.
+		 * @param data the pixels of the processed row.
+		 */
+		private void emit(int row, byte[] data) {
+			if(lastSource - row >= sources.length)
+				throw new IllegalStateException("The source row " + row + " is no longer available");
+			System.arraycopy(data, 0, combined, 0, combined.length);
+			residue.apply(sources[row % sources.length], 0, combined, 0, combined.length);
+			sink.accept(row, combined);
+		}
+	}
+
+	private final int rows;
+	private final int cols;
+	private final int channels;
+	private final StructuralElement element;
+	private final StructuralElement lower;
+	private final boolean max;
+	private final int minRowOffset;
+	private final int maxRowOffset;
+	private final int outFrom;
+	private final int outTo;
+	private final Sink sink;
+	//The next stage of a chain, which receives the rows of this one, or null if this stage is the last one.
+	private RollingStage following;
+
+	private final byte[][] window;
+	private final byte[][] lowerWindow;
+	private final byte[] output;
+	private final byte[] lowerOutput;
+	private final byte[] g;
+	private final byte[] h;
+	private final ElementPlan plan;
+	private final byte[] tables;
+	private final int firstInput;
+	private final int lastInput;
+
+	private int received;
+	private int next;
+
+	/**
+	 * Creates a stage that computes the rows outFrom to outTo - 1 of the processed image.
+	 *
+	 * @param rows the number of rows of the whole image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param element the compiled structural element.
+	 * @param max true for a dilation, false for an erotion.
+	 * @param outFrom the first row to compute (inclusive).
+	 * @param outTo the last row to compute (exclusive).
+	 * @param sink the receiver of the processed rows.
+	 */
+	public RollingStage(int rows, int cols, int channels, StructuralElement element, boolean max, int outFrom, int outTo, Sink sink) {
+		this(rows, cols, channels, max ? Step.dilation(element) : Step.erotion(element), outFrom, outTo, sink);
+	}
+
+	/**
+	 * Creates a stage that computes the rows outFrom to outTo - 1 of the processed image.
+	 *
+	 * @param rows the number of rows of the whole image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param step the transformation of the stage.
+	 * @param outFrom the first row to compute (inclusive).
+	 * @param outTo the last row to compute (exclusive).
+	 * @param sink the receiver of the processed rows.
+	 */
+	public RollingStage(int rows, int cols, int channels, Step step, int outFrom, int outTo, Sink sink) {
+		this.rows = rows;
+		this.cols = cols;
+		this.channels = channels;
+		this.element = step.element;
+		this.lower = step.lower;
+		this.max = step.max;
+		this.outFrom = outFrom;
+		this.outTo = outTo;
+		this.sink = sink;
+
+		//The window covers the neighborhoods of both structural elements of a gradient.
+		this.minRowOffset = lower != null ? Math.min(element.minRowOffset(), lower.minRowOffset()) : element.minRowOffset();
+		this.maxRowOffset = lower != null ? Math.max(element.maxRowOffset(), lower.maxRowOffset()) : element.maxRowOffset();
+
+		int rowLength = cols * channels;
+		int height = maxRowOffset - minRowOffset + 1;
+		//An element decomposed into lines stores the table of every row instead of the row (see ElementPlan).
+		this.plan = lower == null ? element.plan() : null;
+		this.tables = plan != null ? new byte[height * plan.tableLength(cols, channels)] : null;
+		this.window = plan != null ? null : new byte[height][rowLength];
+		this.output = new byte[rowLength];
+		this.lowerOutput = lower != null ? new byte[rowLength] : null;
+		if(element.isRectangle() && (lower == null || lower.isRectangle())) {
+			//The rows are stored reduced, so a gradient needs a window for the max and another one for the min.
+			this.lowerWindow = lower != null ? new byte[height][rowLength] : null;
+			int width = element.maxColOffset() - element.minColOffset();
+			if(lower != null)
+				width = Math.max(width, lower.maxColOffset() - lower.minColOffset());
+			this.g = new byte[(cols + width) * channels];
+			this.h = new byte[g.length];
+		}
+		else {
+			this.lowerWindow = null;
+			this.g = null;
+			this.h = null;
+		}
+
+		//Only the rows within the limits of the image are received.
+		this.firstInput = Math.max(0, Math.min(rows, outFrom + minRowOffset));
+		this.lastInput = Math.max(-1, Math.min(rows - 1, outTo - 1 + maxRowOffset));
+		this.received = firstInput - 1;
+		this.next = outFrom;
+	}
+
+	/**
+	 * Creates and starts a chain of stages, where every stage sends its rows to the next one. The rows of the source image
+	 * must be pushed into the returned stage, from its first to its last input row.
+	 *
+	 * @param rows the number of rows of the whole image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param steps the transformations to apply, in order. There must be at least one.
+	 * @param outFrom the first row to compute by the last stage (inclusive).
+	 * @param outTo the last row to compute by the last stage (exclusive).
+	 * @param sink the receiver of the rows processed by the last stage.
+	 * @return the first stage of the chain.
+	 */
+	public static RollingStage chain(int rows, int cols, int channels, Step[] steps, int outFrom, int outTo, Sink sink) {
+		//The stages are created from the last one, since every stage needs to know the rows required by the next one.
+		RollingStage[] stages = new RollingStage[steps.length];
+		for(int n = steps.length - 1; n>=0; n--) {
+			Sink next = sink;
+			if(n < steps.length - 1) {
+				RollingStage following = stages[n + 1];
+				next = (row, data) -> following.push(data);
+				outFrom = following.firstInput();
+				outTo = following.lastInput() + 1;
+			}
+			stages[n] = new RollingStage(rows, cols, channels, steps[n], outFrom, outTo, next);
+			if(n < steps.length - 1)
+				stages[n].following = stages[n + 1];
+		}
+		for(int n = steps.length - 1; n>=0; n--) {
+			stages[n].start();
+		}
+		return stages[0];
+	}
+
+	/**
+	 * Gets the first source row that must be pushed into this stage.
+	 *
+	 * @return the index of the first row.
+	 */
+	public int firstInput() {
+		return firstInput;
+	}
+
+	/**
+	 * Gets the last source row that must be pushed into this stage.
+	 *
+	 * @return the index of the last row. It is lower than the first row if no row is needed.
+	 */
+	public int lastInput() {
+		return lastInput;
+	}
+
+	/**
+	 * Starts the stage, emitting the rows whose neighborhood is completely outside the image. It must be called before
+	 * pushing the first row.
+	 */
+	public void start() {
+		emitReady();
+	}
+
+	/**
+	 * Starts this stage and the following ones of its chain again, for another image of the same size, so a chain can
+	 * process several images without creating its windows again. The rows of the previous image kept in the windows are
+	 * never read, since every row is pushed again before it is used. Like {@link #start()}, it emits the rows whose
+	 * neighborhood is completely outside the image, so the sink must be ready to receive them.
+	 */
+	public void restart() {
+		//The following stages are started first, since this one can emit rows into them, like in chain.
+		if(following != null)
+			following.restart();
+		received = firstInput - 1;
+		next = outFrom;
+		emitReady();
+	}
+
+	/**
+	 * Receives the next row of the source image. The rows must be pushed in order, from {@link #firstInput()} to {@link #lastInput()}.
+	 *
+	 * @param data the pixels of the row. The buffer is copied, so it can be reused by the caller.
+	 */
+	public void push(byte[] data) {
+		received++;
+		if(plan != null) {
+			int slots = maxRowOffset - minRowOffset + 1;
+			plan.table(data, 0, cols, channels, max, tables, Math.floorMod(received, slots) * (tables.length / slots));
+			emitReady();
+			return;
+		}
+		int slot = Math.floorMod(received, window.length);
+		if(g != null) {
+			//The row is stored already reduced with a window as wide as the structural element.
+			MorphologyEngine.runningExtreme(data, 0, channels, cols, 0, cols, channels,
+					element.minColOffset(), element.maxColOffset(), max, g, h, window[slot], 0);
+			if(lowerWindow != null)
+				MorphologyEngine.runningExtreme(data, 0, channels, cols, 0, cols, channels,
+						lower.minColOffset(), lower.maxColOffset(), false, g, h, lowerWindow[slot], 0);
+		}
+		else {
+			System.arraycopy(data, 0, window[slot], 0, window[slot].length);
+		}
+		emitReady();
+	}
+
+	/**
+	 * Computes and emits all the rows whose neighborhood has been received.
+	 */
+	private void emitReady() {
+		while(next < outTo && Math.min(rows - 1, next + maxRowOffset) <= received) {
+			if(plan != null) {
+				plan.reduce(next, rows, cols, channels, max, tables, maxRowOffset - minRowOffset + 1, output, 0);
+			}
+			else if(g != null) {
+				computeRectangle(next, window, element, max, output);
+				if(lower != null)
+					computeRectangle(next, lowerWindow, lower, false, lowerOutput);
+			}
+			else {
+				compute(next, element, max, output);
+				if(lower != null)
+					compute(next, lower, false, lowerOutput);
+			}
+			if(lower != null) {
+				//The gradient is the max minus the min of the neighborhood, saturated to 0.
+				ByteKernels.difference(output, 0, lowerOutput, 0, output, 0, output.length);
+			}
+			sink.accept(next, output);
+			next++;
+		}
+	}
+
+	/**
+	 * Computes an output row visiting every offset of the structural element, adding its height if the element is not flat.
+	 *
+	 * @param i the index of the row to compute.
+	 * @param element the compiled structural element.
+	 * @param max true for computing the max, false for the min.
+	 * @param output the buffer where the row is written.
+	 */
+	private void compute(int i, StructuralElement element, boolean max, byte[] output) {
+		byte identity = max ? 0 : (byte)0xFF;
+		Arrays.fill(output, identity);
+		for(int n = 0; n<element.size(); n++) {
+			int r = i + element.rowOffset(n);
+			if(r < 0 || r >= rows)
+				continue;
+			byte[] row = window[Math.floorMod(r, window.length)];
+			int dq = element.colOffset(n);
+			//Only the columns whose neighbor is within the limits of the image are visited, so no check is needed in the loop.
+			int from = Math.max(0, -dq) * channels;
+			int to = Math.min(cols, cols - dq) * channels;
+			int shift = dq * channels;
+			if(!element.isFlat()) {
+				int height = max ? element.height(n) : -element.height(n);
+				MorphologyEngine.weightedRow(row, shift, output, 0, from, to, height, max);
+				continue;
+			}
+			MorphologyEngine.extremeRow(row, shift, output, 0, from, to, max);
+		}
+	}
+
+	/**
+	 * Computes an output row reducing vertically the rows of a window, which are already reduced horizontally.
+	 *
+	 * @param i the index of the row to compute.
+	 * @param window the window of reduced rows.
+	 * @param element the compiled structural element.
+	 * @param max true for computing the max, false for the min.
+	 * @param output the buffer where the row is written.
+	 */
+	private void computeRectangle(int i, byte[][] window, StructuralElement element, boolean max, byte[] output) {
+		byte identity = max ? 0 : (byte)0xFF;
+		Arrays.fill(output, identity);
+		int from = Math.max(0, i + element.minRowOffset());
+		int to = Math.min(rows - 1, i + element.maxRowOffset());
+		for(int r = from; r<=to; r++) {
+			byte[] row = window[Math.floorMod(r, window.length)];
+			ByteKernels.extreme(output, 0, row, 0, output, 0, output.length, max);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the rows of an image into horizontal bands and processes them in parallel. Every band writes a disjoint set of
+ * rows of the processed image, while it reads the source image beyond its limits (a halo as high as the extent of the
+ * structural element), so the result is the same as processing the whole image in a single thread.
+ * One band is processed in the calling thread and the others are submitted to an executor (the common ForkJoinPool
+ * if none is given).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class RowBands {
+
+	/**
+	 * Processes the whole image in the calling thread.
+	 */
+	public static final RowBands SERIAL = new RowBands(1, null);
+
+	/**
+	 * A task that processes the rows of a band.
+	 */
+	public interface Band {
+		/**
+		 * Processes the rows of a band.
+		 *
+		 * @param index the index of the band, from 0 to {@link RowBands#count(int)} - 1.
+		 * @param from the first row of the band (inclusive).
+		 * @param to the last row of the band (exclusive).
+		 */
+		void process(int index, int from, int to);
+	}
+
+	private final int parallelism;
+	private final ExecutorService executor;
+
+	private RowBands(int parallelism, ExecutorService executor) {
+		this.parallelism = parallelism;
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates a parallel configuration.
+	 *
+	 * @param parallelism the number of bands processed at the same time. Values lower than 2 process the image serially.
+	 * @param executor the executor where the bands are submitted. If it is null, the common ForkJoinPool will be used.
+	 * @return the configuration.
+	 */
+	public static RowBands of(int parallelism, ExecutorService executor) {
+		if(parallelism < 2)
+			return SERIAL;
+		return new RowBands(parallelism, executor);
+	}
+
+	/**
+	 * Gets the number of bands processed at the same time.
+	 *
+	 * @return the parallelism.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Gets the executor where the bands are submitted.
+	 *
+	 * @return the executor, or null if the common ForkJoinPool is used.
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof RowBands))
+			return false;
+		RowBands other = (RowBands)o;
+		return parallelism == other.parallelism && executor == other.executor;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * parallelism + System.identityHashCode(executor);
+	}
+
+	/**
+	 * Gets the number of bands in which an image is split.
+	 *
+	 * @param rows the number of rows of the image.
+	 * @return the number of bands.
+	 */
+	public int count(int rows) {
+		return Math.max(1, Math.min(parallelism, rows));
+	}
+
+	/**
+	 * Splits the rows into bands and processes them, returning when all of them are finished.
+	 * If a band fails, its exception is thrown once all the other bands are finished.
+	 *
+	 * @param rows the number of rows of the image.
+	 * @param band the task that processes every band.
+	 */
+	public void forEach(int rows, Band band) {
+		int count = count(rows);
+		if(count < 2) {
+			band.process(0, 0, rows);
+			return;
+		}
+
+		ExecutorService service = executor != null ? executor : ForkJoinPool.commonPool();
+		List<Future<?>> futures = new ArrayList<>(count - 1);
+		//The first band is left for the calling thread.
+		for(int b = 1; b<count; b++) {
+			int index = b;
+			int from = (int)((long)rows * b / count);
+			int to = (int)((long)rows * (b + 1) / count);
+			futures.add(service.submit(() -> band.process(index, from, to)));
+		}
+
+		RuntimeException failure = null;
+		try {
+			band.process(0, 0, rows / count);
+		} catch(RuntimeException e) {
+			failure = e;
+		}
+
+		boolean interrupted = false;
+		for(Future<?> future : futures) {
+			while(true) {
+				try {
+					future.get();
+					break;
+				} catch(InterruptedException e) {
+					//The bands are still writing the image, so they must be waited for before returning.
+					interrupted = true;
+				} catch(ExecutionException e) {
+					if(failure == null)
+						failure = e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause()
+								: new IllegalStateException(e.getCause());
+					break;
+				}
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		if(failure != null)
+			throw failure;
+	}
+}
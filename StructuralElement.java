@@ -0,0 +1,410 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * A structural element compiled into the list of offsets of its non-zero cells. The morphological transformations
+ * only visit these offsets, so the Mat of the structural element is read once (with a single bulk get) instead of
+ * once for every pixel of the image.
+ * An offset (rowOffsets[n], colOffsets[n]) means that the pixel (i + rowOffsets[n], j + colOffsets[n]) of the source
+ * image takes part in the computation of the pixel (i, j) of the processed image.
+ * When all the cells of the structural element are different from 0 (a rectangle or a line), the element is marked as
+ * rectangular, so the transformation can be separated into a horizontal and a vertical pass.
+ * A non-flat (grayscale) structural element also has a height for every offset, which is added to the pixel in the dilation
+ * and subtracted from it in the erotion. Non-flat elements are never rectangular, since the heights break the separation.
+ * The other flat elements (e.g., a disk or a diamond, see {@link StructuralElements}) are decomposed into horizontal lines
+ * when it needs fewer row reductions than visiting every offset (see {@link ElementPlan}).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class StructuralElement {
+
+	private final int[] rowOffsets;
+	private final int[] colOffsets;
+	private final int[] heights;
+	private final boolean rectangle;
+	private final int minRowOffset;
+	private final int maxRowOffset;
+	private final int minColOffset;
+	private final int maxColOffset;
+	private final ElementPlan plan;
+
+	private StructuralElement(int[] rowOffsets, int[] colOffsets, int[] heights, boolean rectangle) {
+		this.rowOffsets = rowOffsets;
+		this.colOffsets = colOffsets;
+		this.heights = heights;
+		this.rectangle = rectangle && heights == null && rowOffsets.length > 0;
+
+		//The extent of the structural element is stored for the separable transformations.
+		int minRow = 0, maxRow = 0, minCol = 0, maxCol = 0;
+		for(int n = 0; n<rowOffsets.length; n++) {
+			if(n == 0 || rowOffsets[n] < minRow) minRow = rowOffsets[n];
+			if(n == 0 || rowOffsets[n] > maxRow) maxRow = rowOffsets[n];
+			if(n == 0 || colOffsets[n] < minCol) minCol = colOffsets[n];
+			if(n == 0 || colOffsets[n] > maxCol) maxCol = colOffsets[n];
+		}
+		this.minRowOffset = minRow;
+		this.maxRowOffset = maxRow;
+		this.minColOffset = minCol;
+		this.maxColOffset = maxCol;
+		//The offsets of a flat element are decomposed once, so every image processed with it uses the cheapest plan.
+		this.plan = ElementPlan.of(this);
+	}
+
+	/**
+	 * Creates a flat structural element from a list of offsets, e.g., a neighborhood obtained from another structural element.
+	 *
+	 * @param rowOffsets the row offsets.
+	 * @param colOffsets the column offsets, one for every row offset.
+	 * @return the structural element. It is never marked as a rectangle.
+	 */
+	static StructuralElement of(int[] rowOffsets, int[] colOffsets) {
+		return new StructuralElement(rowOffsets, colOffsets, null, false);
+	}
+
+	/**
+	 * Compiles a structural element for a dilation. The offsets are obtained from the reflection of the structural element
+	 * and the reflected anchor point, exactly as the dilation does it (see {@link Dilation#getReflection(Mat)} and
+	 * {@link Dilation#getReflectedPoint(Mat, Point)}).
+	 *
+	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements are flat, so values different from 0 are taken as 1.
+	 *                          Only the first channel of the structural element is considered.
+	 * @param anchorPoint the origin of the structural element.
+	 * @return the compiled structural element.
+	 */
+	public static StructuralElement forDilation(Mat structuralElement, Point anchorPoint) {
+		return forDilation(structuralElement, null, anchorPoint);
+	}
+
+	/**
+	 * Compiles a non-flat structural element for a dilation. The dilation becomes: [f + b](x, y) = max{f(x - s, y - t) + h(s, t)}
+	 * for all (s, t) in b, where h(s, t) is the height of the cell (s, t).
+	 *
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are the cells of the element.
+	 *                          Only the first channel of the structural element is considered.
+	 * @param heights a Mat with the same size as the structural element and the height of every cell (only the cells of the element are used).
+	 *                Only the first channel is considered. If it is null, the structural element is flat.
+	 * @param anchorPoint the origin of the structural element.
+	 * @return the compiled structural element.
+	 */
+	public static StructuralElement forDilation(Mat structuralElement, Mat heights, Point anchorPoint) {
+		Point point = Dilation.getReflectedPoint(structuralElement, anchorPoint);
+		return compile(structuralElement, heights, point, true);
+	}
+
+	/**
+	 * Compiles a structural element for an erotion. The erotion is the complement of the dilation of the complement of the image,
+	 * using the reflected structural element and the reflected anchor point. Since that dilation reflects them again, the
+	 * offsets are obtained from the original structural element and the anchor point obtained after two reflections.
+	 *
+	 * @param structuralElement a Mat object indicating the structural element to be used. All structural elements are flat, so values different from 0 are taken as 1.
+	 *                          Only the first channel of the structural element is considered.
+	 * @param anchorPoint the origin of the structural element.
+	 * @return the compiled structural element.
+	 */
+	public static StructuralElement forErotion(Mat structuralElement, Point anchorPoint) {
+		return forErotion(structuralElement, null, anchorPoint);
+	}
+
+	/**
+	 * Compiles a non-flat structural element for an erotion. The erotion becomes: [f - b](x, y) = min{f(x + s, y + t) - h(s, t)}
+	 * for all (s, t) in b, which is the complement of the dilation of the complement of the image with the reflected element.
+	 *
+	 * @param structuralElement a Mat object indicating the structural element to be used. Values different from 0 are the cells of the element.
+	 *                          Only the first channel of the structural element is considered.
+	 * @param heights a Mat with the same size as the structural element and the height of every cell (only the cells of the element are used).
+	 *                Only the first channel is considered. If it is null, the structural element is flat.
+	 * @param anchorPoint the origin of the structural element.
+	 * @return the compiled structural element.
+	 */
+	public static StructuralElement forErotion(Mat structuralElement, Mat heights, Point anchorPoint) {
+		Point point = Dilation.getReflectedPoint(structuralElement, Dilation.getReflectedPoint(structuralElement, anchorPoint));
+		return compile(structuralElement, heights, point, false);
+	}
+
+	/**
+	 * Compiles a structural element stored in a Java array for a dilation, without the native library of OpenCV
+	 * (see {@link #forDilation(Mat, Mat, Point)}).
+	 *
+	 * @param structuralElement the structural element. Values different from 0 are the cells of the element. Only the first channel is considered.
+	 * @param heights the height of every cell, in row-major order, or null for a flat structural element.
+	 * @param anchorPoint the origin of the structural element.
+	 * @return the compiled structural element.
+	 * @throws IllegalArgumentException if the heights do not have the size of the structural element.
+	 */
+	public static StructuralElement forDilation(ArrayImage structuralElement, int[] heights, Point anchorPoint) {
+		int rows = structuralElement.rows();
+		int cols = structuralElement.cols();
+		Point point = reflect(rows, cols, anchorPoint);
+		return compile(firstChannel(structuralElement.getPixels(), structuralElement.channels()), rows, cols,
+				checkHeights(heights, rows, cols), point, true);
+	}
+
+	/**
+	 * Compiles a structural element stored in a Java array for an erotion, without the native library of OpenCV
+	 * (see {@link #forErotion(Mat, Mat, Point)}).
+	 *
+	 * @param structuralElement the structural element. Values different from 0 are the cells of the element. Only the first channel is considered.
+	 * @param heights the height of every cell, in row-major order, or null for a flat structural element.
+	 * @param anchorPoint the origin of the structural element.
+	 * @return the compiled structural element.
+	 * @throws IllegalArgumentException if the heights do not have the size of the structural element.
+	 */
+	public static StructuralElement forErotion(ArrayImage structuralElement, int[] heights, Point anchorPoint) {
+		int rows = structuralElement.rows();
+		int cols = structuralElement.cols();
+		Point point = reflect(rows, cols, reflect(rows, cols, anchorPoint));
+		return compile(firstChannel(structuralElement.getPixels(), structuralElement.channels()), rows, cols,
+				checkHeights(heights, rows, cols), point, false);
+	}
+
+	/**
+	 * Gets the reflection of a point, exactly as {@link Dilation#getReflectedPoint(Mat, Point)} does it.
+	 *
+	 * @param rows the number of rows of the structural element.
+	 * @param cols the number of columns of the structural element.
+	 * @param anchorPoint the point to reflect.
+	 * @return the reflected point.
+	 */
+	private static Point reflect(int rows, int cols, Point anchorPoint) {
+		return new Point(rows - 1 - anchorPoint.x, cols - 1 - anchorPoint.y);
+	}
+
+	/**
+	 * Compiles the non-zero cells of a structural element into offsets relative to a given point.
+	 *
+	 * @param structuralElement the structural element.
+	 * @param heights the heights of the cells, or null for a flat structural element.
+	 * @param point the origin of the offsets, in the coordinates of the (reflected if required) structural element.
+	 * @param reflect true if the structural element must be reflected before obtaining the offsets.
+	 * @return the compiled structural element.
+	 */
+	private static StructuralElement compile(Mat structuralElement, Mat heights, Point point, boolean reflect) {
+		int rows = structuralElement.rows();
+		int cols = structuralElement.cols();
+		return compile(readFirstChannel(structuralElement), rows, cols, heights != null ? readHeights(heights, rows, cols) : null,
+				point, reflect);
+	}
+
+	/**
+	 * Compiles the non-zero cells of a structural element into offsets relative to a given point.
+	 *
+	 * @param cells the first channel of the cells of the structural element, in row-major order.
+	 * @param rows the number of rows of the structural element.
+	 * @param cols the number of columns of the structural element.
+	 * @param cellHeights the heights of the cells, in row-major order, or null for a flat structural element.
+	 * @param point the origin of the offsets, in the coordinates of the (reflected if required) structural element.
+	 * @param reflect true if the structural element must be reflected before obtaining the offsets.
+	 * @return the compiled structural element.
+	 */
+	private static StructuralElement compile(byte[] cells, int rows, int cols, int[] cellHeights, Point point, boolean reflect) {
+		int x = (int)point.x;
+		int y = (int)point.y;
+
+		int count = 0;
+		for(byte cell : cells) {
+			if(cell != 0x00)
+				count++;
+		}
+
+		int[] rowOffsets = new int[count];
+		int[] colOffsets = new int[count];
+		int[] offsetHeights = cellHeights != null ? new int[count] : null;
+		int n = 0;
+		for(int p = 0; p<rows; p++) {
+			for(int q = 0; q<cols; q++) {
+				//The cell (p, q) of the reflected element is the cell (rows - 1 - p, cols - 1 - q) of the original one.
+				int cell = reflect ? (rows - 1 - p) * cols + (cols - 1 - q) : p * cols + q;
+				if(cells[cell] != 0x00) {
+					rowOffsets[n] = p - y;
+					colOffsets[n] = q - x;
+					//The height goes with its cell, so it is reflected too.
+					if(offsetHeights != null)
+						offsetHeights[n] = cellHeights[cell];
+					n++;
+				}
+			}
+		}
+		return new StructuralElement(rowOffsets, colOffsets, offsetHeights, count == rows * cols);
+	}
+
+	/**
+	 * Reads the first channel of the heights of a non-flat structural element as integers.
+	 *
+	 * @param heights the heights of the cells. Values of any depth are rounded to integers.
+	 * @param rows the number of rows of the structural element.
+	 * @param cols the number of columns of the structural element.
+	 * @return an array with rows * cols heights, in row-major order.
+	 * @throws IllegalArgumentException if the heights do not have the size of the structural element.
+	 */
+	static int[] readHeights(Mat heights, int rows, int cols) {
+		if(heights.rows() != rows || heights.cols() != cols)
+			throw new IllegalArgumentException("The heights must have the size of the structural element: " + rows + "x" + cols);
+		int channels = heights.channels();
+		Mat converted = new Mat();
+		heights.convertTo(converted, CvType.CV_32S);
+		int[] data = new int[rows * cols * channels];
+		if(data.length == 0)
+			return data;
+		converted.get(0, 0, data);
+		if(channels == 1)
+			return data;
+
+		int[] values = new int[rows * cols];
+		for(int n = 0; n<values.length; n++) {
+			values[n] = data[n * channels];
+		}
+		return values;
+	}
+
+	/**
+	 * Checks the heights of a non-flat structural element stored in a Java array.
+	 *
+	 * @param heights the heights of the cells, or null.
+	 * @param rows the number of rows of the structural element.
+	 * @param cols the number of columns of the structural element.
+	 * @return the same heights.
+	 * @throws IllegalArgumentException if the heights do not have the size of the structural element.
+	 */
+	static int[] checkHeights(int[] heights, int rows, int cols) {
+		if(heights != null && heights.length != rows * cols)
+			throw new IllegalArgumentException("The heights must have the size of the structural element: " + rows + "x" + cols);
+		return heights;
+	}
+
+	/**
+	 * Reads the first channel of every cell of a Mat using a single bulk get.
+	 *
+	 * @param src the structural element.
+	 * @return an array with rows * cols values, in row-major order.
+	 */
+	private static byte[] readFirstChannel(Mat src) {
+		int channels = src.channels();
+		byte[] data = new byte[(int)src.total() * channels];
+		if(data.length == 0)
+			return data;
+		src.get(0, 0, data);
+		return firstChannel(data, channels);
+	}
+
+	/**
+	 * Gets the first channel of the values of a structural element.
+	 *
+	 * @param data the values, with the channels interleaved.
+	 * @param channels the number of channels.
+	 * @return the same array if there is only one channel, or a new array with the first channel.
+	 */
+	private static byte[] firstChannel(byte[] data, int channels) {
+		if(channels == 1)
+			return data;
+
+		byte[] cells = new byte[data.length / channels];
+		for(int n = 0; n<cells.length; n++) {
+			cells[n] = data[n * channels];
+		}
+		return cells;
+	}
+
+	/**
+	 * Gets the number of non-zero cells of the structural element.
+	 *
+	 * @return the number of offsets.
+	 */
+	public int size() {
+		return rowOffsets.length;
+	}
+
+	/**
+	 * Gets the row offset of the n-th non-zero cell.
+	 *
+	 * @param n the index of the cell.
+	 * @return the row offset, relative to the processed pixel.
+	 */
+	public int rowOffset(int n) {
+		return rowOffsets[n];
+	}
+
+	/**
+	 * Gets the column offset of the n-th non-zero cell.
+	 *
+	 * @param n the index of the cell.
+	 * @return the column offset, relative to the processed pixel.
+	 */
+	public int colOffset(int n) {
+		return colOffsets[n];
+	}
+
+	/**
+	 * Gets the height of the n-th non-zero cell.
+	 *
+	 * @param n the index of the cell.
+	 * @return the height of the cell, or 0 if the element is flat.
+	 */
+	public int height(int n) {
+		return heights != null ? heights[n] : 0;
+	}
+
+	/**
+	 * Indicates if the structural element is flat, i.e., all its cells have a height of 0.
+	 *
+	 * @return true if the element has no heights.
+	 */
+	public boolean isFlat() {
+		return heights == null;
+	}
+
+	/**
+	 * Indicates if all the cells of the structural element are different from 0, i.e., the element is a rectangle or a line.
+	 * A non-flat element is never a rectangle.
+	 *
+	 * @return true if the element is a non-empty flat rectangle.
+	 */
+	public boolean isRectangle() {
+		return rectangle;
+	}
+
+	/**
+	 * Gets the decomposition of the structural element into horizontal lines.
+	 *
+	 * @return the plan, or null if the element must be applied visiting every offset (or with its separable or weighted transformation).
+	 */
+	ElementPlan plan() {
+		return plan;
+	}
+
+	/**
+	 * Gets the smallest row offset of the structural element.
+	 *
+	 * @return the smallest row offset, or 0 if the element is empty.
+	 */
+	public int minRowOffset() {
+		return minRowOffset;
+	}
+
+	/**
+	 * Gets the largest row offset of the structural element.
+	 *
+	 * @return the largest row offset, or 0 if the element is empty.
+	 */
+	public int maxRowOffset() {
+		return maxRowOffset;
+	}
+
+	/**
+	 * Gets the smallest column offset of the structural element.
+	 *
+	 * @return the smallest column offset, or 0 if the element is empty.
+	 */
+	public int minColOffset() {
+		return minColOffset;
+	}
+
+	/**
+	 * Gets the largest column offset of the structural element.
+	 *
+	 * @return the largest column offset, or 0 if the element is empty.
+	 */
+	public int maxColOffset() {
+		return maxColOffset;
+	}
+}
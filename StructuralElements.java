@@ -0,0 +1,145 @@
+/**
+ * Creates common flat structural elements: disks, diamonds, octagons, crosses and lines. The elements are single-channel
+ * images with 1 in their cells and 0 elsewhere, created without the native library of OpenCV ({@link ArrayImage#toMat()}
+ * gives them as a Mat). All of them are symmetric around their center, which is the default anchor point.
+ * These elements are not rectangles, so they are decomposed into horizontal lines when they are compiled (see
+ * {@link StructuralElement}): e.g., a disk of radius 20 costs about 90 row reductions instead of 1257 (one for every cell).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class StructuralElements {
+
+	private StructuralElements() {
+	}
+
+	/**
+	 * Creates a disk: the cells whose distance to the center is not greater than the radius.
+	 *
+	 * @param radius the radius of the disk, in pixels.
+	 * @return a (2 * radius + 1) x (2 * radius + 1) structural element.
+	 * @throws IllegalArgumentException if the radius is negative.
+	 */
+	public static ArrayImage disk(int radius) {
+		ArrayImage element = square(radius);
+		byte[] cells = element.getPixels();
+		int size = 2 * radius + 1;
+		for(int y = -radius; y<=radius; y++) {
+			for(int x = -radius; x<=radius; x++) {
+				if(x * x + y * y <= radius * radius)
+					cells[(y + radius) * size + x + radius] = 1;
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * Creates a diamond: the cells whose city-block distance (|x| + |y|) to the center is not greater than the radius.
+	 * It is the same as dilating a single pixel radius times with a 3x3 cross.
+	 *
+	 * @param radius the radius of the diamond, in pixels.
+	 * @return a (2 * radius + 1) x (2 * radius + 1) structural element.
+	 * @throws IllegalArgumentException if the radius is negative.
+	 */
+	public static ArrayImage diamond(int radius) {
+		return octagon(radius, radius);
+	}
+
+	/**
+	 * Creates an octagon: a square whose corners are cut at 45 degrees. It is the same as dilating a single pixel
+	 * radius / 2 times with a 3x3 square and the remaining times with a 3x3 cross, so it approximates a disk better than
+	 * a square or a diamond.
+	 *
+	 * @param radius the distance from the center to the sides of the octagon, in pixels.
+	 * @return a (2 * radius + 1) x (2 * radius + 1) structural element.
+	 * @throws IllegalArgumentException if the radius is negative.
+	 */
+	public static ArrayImage octagon(int radius) {
+		return octagon(radius, radius + radius / 2);
+	}
+
+	/**
+	 * Creates an octagon given the max city-block distance of its cells, which cuts the corners of the square.
+	 *
+	 * @param radius the max distance from the center to a cell, in rows or columns.
+	 * @param cityBlock the max city-block distance (|x| + |y|) from the center to a cell.
+	 * @return a (2 * radius + 1) x (2 * radius + 1) structural element.
+	 */
+	private static ArrayImage octagon(int radius, int cityBlock) {
+		ArrayImage element = square(radius);
+		byte[] cells = element.getPixels();
+		int size = 2 * radius + 1;
+		for(int y = -radius; y<=radius; y++) {
+			for(int x = -radius; x<=radius; x++) {
+				if(Math.abs(x) + Math.abs(y) <= cityBlock)
+					cells[(y + radius) * size + x + radius] = 1;
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * Creates a cross: the central row and the central column of a square.
+	 *
+	 * @param radius the length of every arm of the cross, in pixels.
+	 * @return a (2 * radius + 1) x (2 * radius + 1) structural element.
+	 * @throws IllegalArgumentException if the radius is negative.
+	 */
+	public static ArrayImage cross(int radius) {
+		ArrayImage element = square(radius);
+		byte[] cells = element.getPixels();
+		int size = 2 * radius + 1;
+		for(int n = 0; n<size; n++) {
+			cells[radius * size + n] = 1;
+			cells[n * size + radius] = 1;
+		}
+		return element;
+	}
+
+	/**
+	 * Creates a line through the center with a given angle. The line has an odd number of pixels, so its center is a
+	 * pixel: an even length is rounded up. The cells of the line are the pixels closest to the segment, sampled once for
+	 * every row or column it crosses.
+	 *
+	 * @param length the number of pixels of the line.
+	 * @param degrees the angle of the line, counterclockwise from the horizontal (0 degrees is a horizontal line, 90 degrees
+	 *                a vertical one).
+	 * @return a structural element as big as the bounding box of the line.
+	 * @throws IllegalArgumentException if the length is not positive.
+	 */
+	public static ArrayImage line(int length, double degrees) {
+		if(length < 1)
+			throw new IllegalArgumentException("The length of the line must be positive: " + length);
+		double half = (length - 1) / 2.0;
+		double radians = Math.toRadians(degrees);
+		//The rows grow downwards, so a positive angle goes up to the right.
+		int dx = (int)Math.round(half * Math.cos(radians));
+		int dy = (int)Math.round(-half * Math.sin(radians));
+		int rows = 2 * Math.abs(dy) + 1;
+		int cols = 2 * Math.abs(dx) + 1;
+		byte[] cells = new byte[rows * cols];
+
+		//One pixel is sampled for every row or column (the longest of both), so the line has no gaps. Every half of the
+		//line is the reflection of the other one, so the line is symmetric around its center.
+		int steps = Math.max(Math.abs(dx), Math.abs(dy));
+		for(int t = 0; t<=steps; t++) {
+			int x = steps == 0 ? 0 : (int)Math.round((double)dx * t / steps);
+			int y = steps == 0 ? 0 : (int)Math.round((double)dy * t / steps);
+			cells[(Math.abs(dy) + y) * cols + Math.abs(dx) + x] = 1;
+			cells[(Math.abs(dy) - y) * cols + Math.abs(dx) - x] = 1;
+		}
+		return new ArrayImage(rows, cols, 1, cells);
+	}
+
+	/**
+	 * Creates an empty square structural element.
+	 *
+	 * @param radius the distance from the center to the sides of the square.
+	 * @return a (2 * radius + 1) x (2 * radius + 1) element with all its cells at 0.
+	 * @throws IllegalArgumentException if the radius is negative.
+	 */
+	private static ArrayImage square(int radius) {
+		if(radius < 0)
+			throw new IllegalArgumentException("The radius must not be negative: " + radius);
+		return new ArrayImage(2 * radius + 1, 2 * radius + 1, 1);
+	}
+}
@@ -0,0 +1,143 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The vectorized loops of {@link ByteKernels}, written with the Vector API (jdk.incubator.vector). Every iteration
+ * processes a whole SIMD register of bytes and the last values of a row, which do not fill a register, are processed
+ * one by one.
+ * The Vector API only compares signed bytes, so the unsigned values are moved to the signed range flipping their highest
+ * bit (v ^ 0x80 = v - 128), which keeps their order: the max of the flipped values is the flipped max. The additions and the
+ * subtractions give the same bytes in both ranges, so only the comparisons need the flipped values.
+ * The operators are constants in every loop, since the JIT compiler only translates a vector operation into a SIMD
+ * instruction when its operator is known.
+ * This class must only be loaded when the module jdk.incubator.vector is present, so it is only used through ByteKernels.
+ * Since it imports the Vector API, the sources must be compiled with "--add-modules jdk.incubator.vector" (see README.md).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+final class VectorKernels {
+
+	//The widest vector of bytes supported by the processor.
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+	//Flips the highest bit of a byte, moving the unsigned values to the signed range.
+	private static final byte SIGN = (byte)0x80;
+
+	private VectorKernels() {
+	}
+
+	/**
+	 * Gets the number of bytes of a vector.
+	 *
+	 * @return the number of bytes processed by every iteration.
+	 */
+	static int lanes() {
+		return SPECIES.length();
+	}
+
+	/**
+	 * Computes the max (or the min) of two rows of unsigned bytes (see {@link ByteKernels#extreme(byte[], int, byte[], int,
+	 * byte[], int, int, boolean)}).
+	 *
+	 * @param a the first input buffer.
+	 * @param aOffset the index of the first value in the first input buffer.
+	 * @param b the second input buffer.
+	 * @param bOffset the index of the first value in the second input buffer.
+	 * @param dst the output buffer.
+	 * @param dstOffset the index of the first value in the output buffer.
+	 * @param length the number of values.
+	 * @param max true for computing the max, false for the min.
+	 */
+	static void extreme(byte[] a, int aOffset, byte[] b, int bOffset, byte[] dst, int dstOffset, int length, boolean max) {
+		int t = 0;
+		int bound = length > 0 ? SPECIES.loopBound(length) : 0;
+		if(max) {
+			for(; t<bound; t += SPECIES.length()) {
+				ByteVector x = ByteVector.fromArray(SPECIES, a, aOffset + t).lanewise(VectorOperators.XOR, SIGN);
+				ByteVector y = ByteVector.fromArray(SPECIES, b, bOffset + t).lanewise(VectorOperators.XOR, SIGN);
+				x.max(y).lanewise(VectorOperators.XOR, SIGN).intoArray(dst, dstOffset + t);
+			}
+		}
+		else {
+			for(; t<bound; t += SPECIES.length()) {
+				ByteVector x = ByteVector.fromArray(SPECIES, a, aOffset + t).lanewise(VectorOperators.XOR, SIGN);
+				ByteVector y = ByteVector.fromArray(SPECIES, b, bOffset + t).lanewise(VectorOperators.XOR, SIGN);
+				x.min(y).lanewise(VectorOperators.XOR, SIGN).intoArray(dst, dstOffset + t);
+			}
+		}
+		for(; t<length; t++) {
+			dst[dstOffset + t] = MorphologyEngine.extreme(a[aOffset + t], b[bOffset + t], max);
+		}
+	}
+
+	/**
+	 * Reduces a row with a row of source values plus a constant, saturating the sums to 0 and 255 (see
+	 * {@link ByteKernels#weighted(byte[], int, byte[], int, int, int, boolean)}).
+	 * In the signed range the sum is saturated before it is computed: a positive constant is added to the min of the value
+	 * and 127 - height, and a negative one to the max of the value and -128 - height, so the sum never overflows.
+	 *
+	 * @param src the source buffer.
+	 * @param srcOffset the index of the first source value.
+	 * @param dst the buffer of the reduced row, where the result is written.
+	 * @param dstOffset the index of the first value of the reduced row.
+	 * @param length the number of values.
+	 * @param height the constant added to the source values (negative in the erotion).
+	 * @param max true for computing the max, false for the min.
+	 */
+	static void weighted(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length, int height, boolean max) {
+		//A height beyond 255 saturates every value, like a height of 255 does.
+		int h = Math.max(-255, Math.min(255, height));
+		//The saturation is a max for the negative heights and a min for the positive ones: both limits are applied, one of them does nothing.
+		byte lower = (byte)(h < 0 ? -128 - h : -128);
+		byte upper = (byte)(h >= 0 ? 127 - h : 127);
+		int t = 0;
+		int bound = length > 0 ? SPECIES.loopBound(length) : 0;
+		if(max) {
+			for(; t<bound; t += SPECIES.length()) {
+				ByteVector v = ByteVector.fromArray(SPECIES, src, srcOffset + t).lanewise(VectorOperators.XOR, SIGN)
+						.max(lower).min(upper).add((byte)h);
+				ByteVector d = ByteVector.fromArray(SPECIES, dst, dstOffset + t).lanewise(VectorOperators.XOR, SIGN);
+				d.max(v).lanewise(VectorOperators.XOR, SIGN).intoArray(dst, dstOffset + t);
+			}
+		}
+		else {
+			for(; t<bound; t += SPECIES.length()) {
+				ByteVector v = ByteVector.fromArray(SPECIES, src, srcOffset + t).lanewise(VectorOperators.XOR, SIGN)
+						.max(lower).min(upper).add((byte)h);
+				ByteVector d = ByteVector.fromArray(SPECIES, dst, dstOffset + t).lanewise(VectorOperators.XOR, SIGN);
+				d.min(v).lanewise(VectorOperators.XOR, SIGN).intoArray(dst, dstOffset + t);
+			}
+		}
+		for(; t<length; t++) {
+			int v = Math.min(255, Math.max(0, (src[srcOffset + t] & 0xFF) + height));
+			if(max ? v > (dst[dstOffset + t] & 0xFF) : v < (dst[dstOffset + t] & 0xFF))
+				dst[dstOffset + t] = (byte)v;
+		}
+	}
+
+	/**
+	 * Subtracts a row of unsigned bytes from another, saturating the differences to 0 (see {@link ByteKernels#difference(
+	 * byte[], int, byte[], int, byte[], int, int)}). The difference is computed as max(a, b) - b, which is 0 when b is greater.
+	 *
+	 * @param a the buffer of the minuend.
+	 * @param aOffset the index of the first minuend.
+	 * @param b the buffer of the subtrahend.
+	 * @param bOffset the index of the first subtrahend.
+	 * @param dst the output buffer.
+	 * @param dstOffset the index of the first value in the output buffer.
+	 * @param length the number of values.
+	 */
+	static void difference(byte[] a, int aOffset, byte[] b, int bOffset, byte[] dst, int dstOffset, int length) {
+		int t = 0;
+		int bound = length > 0 ? SPECIES.loopBound(length) : 0;
+		for(; t<bound; t += SPECIES.length()) {
+			ByteVector x = ByteVector.fromArray(SPECIES, a, aOffset + t).lanewise(VectorOperators.XOR, SIGN);
+			ByteVector y = ByteVector.fromArray(SPECIES, b, bOffset + t).lanewise(VectorOperators.XOR, SIGN);
+			x.max(y).sub(y).intoArray(dst, dstOffset + t);
+		}
+		for(; t<length; t++) {
+			dst[dstOffset + t] = (byte)Math.max(0, (a[aOffset + t] & 0xFF) - (b[bOffset + t] & 0xFF));
+		}
+	}
+}
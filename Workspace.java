@@ -0,0 +1,158 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the buffers used by the engine, so they can be reused when the same transformation is applied to several images
+ * of the same size (e.g., the frames of a video). A buffer is only allocated again when the required length changes, so
+ * every slot must be requested with a single length for a given image size: two buffers with different lengths use two slots.
+ * A workspace must be used by one transformation at a time. The buffers of the bands of rows are stored separately,
+ * so every band can use its own buffers while the bands are processed in parallel.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public final class Workspace {
+
+	//The buffers of the whole image.
+	static final int SOURCE = 0;
+	static final int RESULT = 1;
+	static final int INTERMEDIATE = 2;
+	static final int HORIZONTAL = 3;
+	static final int SECOND_INTERMEDIATE = 4;
+	//The input of a step extended with a border mode, and its result.
+	static final int EXTENDED = 5;
+	static final int EXTENDED_RESULT = 6;
+	//The rows read and written by the binary kernel through the buffers of the images, and the source row of a residue.
+	static final int BINARY_ROW = 7;
+	static final int BINARY_SOURCE_ROW = 8;
+	//The buffers of the whole image packed as bits (see BinaryMorphology).
+	static final int PACKED_SOURCE = 0;
+	static final int PACKED_RESULT = 1;
+	static final int PACKED_INTERMEDIATE = 2;
+	static final int PACKED_HORIZONTAL = 3;
+	static final int PACKED_LOWER = 4;
+	//The buffers of every band.
+	static final int G = 0;
+	static final int H = 1;
+	static final int ROW = 2;
+	static final int STRIP = 3;
+	static final int TABLES = 4;
+	//The vertical pass of the separable kernel has its own buffers, since they are as long as the band instead of the row.
+	static final int G_VERTICAL = 5;
+	static final int H_VERTICAL = 6;
+	//The packed buffers of every band.
+	static final int PACKED_WINDOW = 0;
+
+	//Indicates if the workspace is being used by a transformation, so it is not used by another one at the same time.
+	boolean inUse;
+
+	private final byte[][] buffers = new byte[9][];
+	private byte[][][] bandBuffers = new byte[7][0][];
+	private final long[][] packedBuffers = new long[5][];
+	private long[][][] packedBandBuffers = new long[1][0][];
+	//The chains of rolling stages of every band, started again for every image of the same size.
+	private MorphologyEngine.RollingBand[] rollingBands = new MorphologyEngine.RollingBand[0];
+
+	/**
+	 * Gets a buffer of the whole image.
+	 *
+	 * @param slot the buffer to get.
+	 * @param length the length of the buffer.
+	 * @return a buffer with the given length. Its content is undefined.
+	 */
+	byte[] get(int slot, int length) {
+		byte[] buffer = buffers[slot];
+		if(buffer == null || buffer.length != length) {
+			buffer = new byte[length];
+			buffers[slot] = buffer;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Prepares the buffers of the bands. It must be called before processing the bands, from the calling thread.
+	 *
+	 * @param count the number of bands.
+	 */
+	void prepareBands(int count) {
+		if(bandBuffers[0].length < count) {
+			for(int slot = 0; slot<bandBuffers.length; slot++) {
+				bandBuffers[slot] = Arrays.copyOf(bandBuffers[slot], count);
+			}
+			for(int slot = 0; slot<packedBandBuffers.length; slot++) {
+				packedBandBuffers[slot] = Arrays.copyOf(packedBandBuffers[slot], count);
+			}
+			rollingBands = Arrays.copyOf(rollingBands, count);
+		}
+	}
+
+	/**
+	 * Gets a buffer of a band.
+	 *
+	 * @param slot the buffer to get.
+	 * @param band the index of the band.
+	 * @param length the length of the buffer.
+	 * @return a buffer with the given length. Its content is undefined.
+	 */
+	byte[] get(int slot, int band, int length) {
+		byte[] buffer = bandBuffers[slot][band];
+		if(buffer == null || buffer.length != length) {
+			buffer = new byte[length];
+			bandBuffers[slot][band] = buffer;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Gets the chain of rolling stages of a band, creating it if the band had another one (see
+	 * {@link MorphologyEngine.RollingBand}).
+	 *
+	 * @param band the index of the band.
+	 * @param rows the number of rows of the image.
+	 * @param cols the number of columns of the image.
+	 * @param channels the number of channels of the image.
+	 * @param steps the transformations to apply, in order.
+	 * @param from the first row of the band (inclusive).
+	 * @param to the last row of the band (exclusive).
+	 * @return the chain of the band.
+	 */
+	MorphologyEngine.RollingBand getRolling(int band, int rows, int cols, int channels, RollingStage.Step[] steps, int from, int to) {
+		MorphologyEngine.RollingBand rolling = rollingBands[band];
+		if(rolling == null || !rolling.matches(rows, cols, channels, steps, from, to)) {
+			rolling = new MorphologyEngine.RollingBand(rows, cols, channels, steps, from, to);
+			rollingBands[band] = rolling;
+		}
+		return rolling;
+	}
+
+	/**
+	 * Gets a packed buffer of the whole image.
+	 *
+	 * @param slot the buffer to get.
+	 * @param length the length of the buffer.
+	 * @return a buffer with the given length. Its content is undefined.
+	 */
+	long[] getPacked(int slot, int length) {
+		long[] buffer = packedBuffers[slot];
+		if(buffer == null || buffer.length != length) {
+			buffer = new long[length];
+			packedBuffers[slot] = buffer;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Gets a packed buffer of a band.
+	 *
+	 * @param slot the buffer to get.
+	 * @param band the index of the band.
+	 * @param length the length of the buffer.
+	 * @return a buffer with the given length. Its content is undefined.
+	 */
+	long[] getPacked(int slot, int band, int length) {
+		long[] buffer = packedBandBuffers[slot][band];
+		if(buffer == null || buffer.length != length) {
+			buffer = new long[length];
+			packedBandBuffers[slot][band] = buffer;
+		}
+		return buffer;
+	}
+}
@@ -0,0 +1,119 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that applying a compiled {@link MorphologicalOperator} to several images of the same size allocates no new
+ * buffers: after the first image, every buffer must be taken from the {@link Workspace} of the thread, including the
+ * stages of the rolling windows (see {@link RollingStage}). Every combination of transformation, structural element (a
+ * rectangle, a line and a disk, so the separable kernel, the rolling window and the decomposition into lines are all used),
+ * number of channels and image (a gray image and a binary one, which is packed into bits) is applied three times to the
+ * same image, both to a Java array and through the buffers of {@link ArrayImage}, and the bytes allocated by the third
+ * application are measured with the allocation counter of the thread. A few hundred bytes are allowed for the small
+ * objects of the bands (e.g., the lambdas and the views of the buffers), but not a buffer of the image or a row.
+ *
+ * To run it, compile this class together with the sources of the project and the OpenCV jar, and run the main method.
+ * It exits with status 1 if any combination allocates more than the limit, so it can be used as a check of the build.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+public class AllocationCheck {
+
+	//The bytes that an application can allocate without being a regression.
+	private static final long LIMIT = 1024;
+	private static final int SIZE = 512;
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		if(!threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("The allocated memory of the threads cannot be measured in this JVM");
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		List<String> failures = new ArrayList<>();
+		int checked = 0;
+		for(MorphologicalOperator.Type type : MorphologicalOperator.Type.values()) {
+			for(String shape : new String[] { "square", "line", "disk" }) {
+				for(int channels : new int[] { 1, 3 }) {
+					for(boolean binary : new boolean[] { false, true }) {
+						MorphologicalOperator operator = MorphologicalOperator.compile(type, createElement(shape), null, null, RowBands.SERIAL);
+						byte[] src = createImage(channels, binary);
+						byte[] dst = new byte[src.length];
+						String name = type + " " + shape + " " + channels + " channels " + (binary ? "binary" : "gray");
+
+						long allocated = measure(threads, () -> operator.apply(src, dst, SIZE, SIZE, channels));
+						checked++;
+						if(allocated > LIMIT)
+							failures.add(name + " array: " + allocated + " bytes");
+
+						ArrayImage image = new ArrayImage(SIZE, SIZE, channels, src);
+						ArrayImage processed = new ArrayImage(SIZE, SIZE, channels, dst);
+						allocated = measure(threads, () -> operator.apply(image, processed));
+						checked++;
+						if(allocated > LIMIT)
+							failures.add(name + " buffers: " + allocated + " bytes");
+					}
+				}
+			}
+		}
+
+		System.out.println(checked + " combinations checked, " + failures.size() + " allocate more than " + LIMIT + " bytes");
+		for(String failure : failures) {
+			System.out.println("  " + failure);
+		}
+		if(!failures.isEmpty())
+			System.exit(1);
+	}
+
+	/**
+	 * Measures the bytes allocated by the third application of a transformation. The first application allocates the
+	 * buffers of the workspace and the second one checks that they are reused.
+	 *
+	 * @param threads the bean of the threads of the JVM.
+	 * @param application the application of the transformation.
+	 * @return the bytes allocated by the calling thread during the third application.
+	 */
+	private static long measure(com.sun.management.ThreadMXBean threads, Runnable application) {
+		application.run();
+		application.run();
+		long before = threads.getCurrentThreadAllocatedBytes();
+		application.run();
+		return threads.getCurrentThreadAllocatedBytes() - before;
+	}
+
+	/**
+	 * Creates a flat structural element of 15 pixels.
+	 *
+	 * @param shape square, line (horizontal) or disk.
+	 * @return the structural element.
+	 */
+	private static ArrayImage createElement(String shape) {
+		if(shape.equals("disk"))
+			return StructuralElements.disk(7);
+		int rows = shape.equals("square") ? 15 : 1;
+		byte[] cells = new byte[rows * 15];
+		Arrays.fill(cells, (byte)1);
+		return new ArrayImage(rows, 15, 1, cells);
+	}
+
+	/**
+	 * Creates an image with random values.
+	 *
+	 * @param channels the number of channels of the image.
+	 * @param binary true for an image whose pixels are only 0 and 255, false for a gray image.
+	 * @return the pixels of the image.
+	 */
+	private static byte[] createImage(int channels, boolean binary) {
+		byte[] pixels = new byte[SIZE * SIZE * channels];
+		new Random(42).nextBytes(pixels);
+		if(binary) {
+			for(int n = 0; n<pixels.length; n++) {
+				pixels[n] = pixels[n] < 0 ? (byte)255 : 0;
+			}
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,105 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the images deeper than 8 bits (see {@link DepthMorphology}), through a compiled
+ * {@link MorphologicalOperator} in the calling thread, next to the same 8-bit image. A transformation of a single pass and
+ * one combined with the source are measured with a separable and a decomposed structural element. The signed 16-bit and
+ * the 64-bit images are measured with "-p depth=16S,64F".
+ * The default parameters give 12 runs of about 20 s (about 4 minutes). See {@link MorphologyBenchmark} for how to run it.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DepthBenchmark {
+
+	@Param({"Dilation", "TopHat"})
+	public String transformation;
+
+	@Param({"2048"})
+	public int size;
+
+	@Param({"1"})
+	public int channels;
+
+	@Param({"15"})
+	public int elementSize;
+
+	@Param({"square", "disk"})
+	public String shape;
+
+	//The depth of the image: 8U, 16U, 16S, 32F or 64F.
+	@Param({"8U", "16U", "32F"})
+	public String depth;
+
+	private MorphologicalOperator operator;
+	private Mat src;
+	private Mat dst;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		//The random 8-bit values are converted, so every depth processes the same image.
+		Mat image = MorphologyBenchmark.createImage(size, channels, false);
+		src = new Mat();
+		image.convertTo(src, CvType.makeType(parseDepth(depth), channels));
+		image.release();
+		dst = new Mat();
+		Mat structuralElement = MorphologyBenchmark.createElement(shape, elementSize);
+		Dilation dilation = MorphologyBenchmark.createTransformation(transformation, src, structuralElement);
+		operator = MorphologicalOperator.compile(dilation.getType(), structuralElement, null, RowBands.SERIAL);
+	}
+
+	/**
+	 * Measures a compiled operator writing into the same destination every time.
+	 *
+	 * @return the processed image.
+	 */
+	@Benchmark
+	public Mat operator() {
+		operator.apply(src, dst);
+		return dst;
+	}
+
+	/**
+	 * Gets the OpenCV depth of a parameter.
+	 *
+	 * @param name 8U, 16U, 16S, 32F or 64F.
+	 * @return the depth.
+	 */
+	private static int parseDepth(String name) {
+		switch(name) {
+		case "16U":
+			return CvType.CV_16U;
+		case "16S":
+			return CvType.CV_16S;
+		case "32F":
+			return CvType.CV_32F;
+		case "64F":
+			return CvType.CV_64F;
+		default:
+			return CvType.CV_8U;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the kernels of the 8-bit images, through a compiled {@link MorphologicalOperator} in the calling
+ * thread: the gray images with the vectorized and the scalar loops (see {@link ByteKernels}), and the binary images, which
+ * are packed into bits (see {@link BinaryMorphology}) and do not use those loops. A small and a large structural element
+ * of a separable and a decomposed shape are measured, since the kernel is chosen by the shape.
+ * The loops are chosen in every forked JVM with the system property of {@link ByteKernels#KERNELS_PROPERTY}, before the
+ * first transformation. JMH forks a JVM for every combination of parameters, so both loops are measured in the same run.
+ * If the vectorized loops are asked for but the JVM cannot use them (e.g., a processor without SIMD registers of 128 bits),
+ * the benchmark fails instead of measuring the scalar ones.
+ * The default parameters give 16 runs of about 20 s (about 6 minutes). See {@link MorphologyBenchmark} for how to run it.
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+
+	@Param({"Dilation"})
+	public String transformation;
+
+	@Param({"2048"})
+	public int size;
+
+	@Param({"1"})
+	public int channels;
+
+	@Param({"3", "31"})
+	public int elementSize;
+
+	@Param({"square", "disk"})
+	public String shape;
+
+	//gray: random values. binary: only 0 and 255, which are packed into bits.
+	@Param({"gray", "binary"})
+	public String image;
+
+	//vector: the loops of the Vector API. scalar: the loops of Java bytes.
+	@Param({"vector", "scalar"})
+	public String kernels;
+
+	private MorphologicalOperator operator;
+	private Mat src;
+	private Mat dst;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		System.setProperty(ByteKernels.KERNELS_PROPERTY, kernels);
+		if(ByteKernels.isVectorized() != kernels.equals("vector"))
+			throw new IllegalStateException("The " + kernels + " kernels cannot be used in this JVM (see ByteKernels)");
+
+		src = MorphologyBenchmark.createImage(size, channels, image.equals("binary"));
+		dst = new Mat();
+		Mat structuralElement = MorphologyBenchmark.createElement(shape, elementSize);
+		Dilation dilation = MorphologyBenchmark.createTransformation(transformation, src, structuralElement);
+		operator = MorphologicalOperator.compile(dilation.getType(), structuralElement, null, RowBands.SERIAL);
+	}
+
+	/**
+	 * Measures a compiled operator writing into the same destination every time.
+	 *
+	 * @return the processed image.
+	 */
+	@Benchmark
+	public Mat operator() {
+		operator.apply(src, dst);
+		return dst;
+	}
+}
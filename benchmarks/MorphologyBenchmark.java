@@ -0,0 +1,210 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the morphological transformations, measured both through the perform method of the transformation
+ * classes and through a compiled {@link MorphologicalOperator} writing into a reused destination. This is the overview:
+ * the transformations with different costs (a single pass, two passes, the rolling window of the gradient and the
+ * combination with the source of the top-hat), a separable and a decomposed structural element, and one or all the
+ * processors. The dilation gives the cost of the erotion too, and the closing and the black-hat the ones of the opening
+ * and the top-hat, since they only swap the max and the min. The kernels are measured by {@link KernelBenchmark} and the
+ * deeper images by {@link DepthBenchmark}.
+ * The default parameters give 32 runs of about 20 s (about 11 minutes). Every parameter takes more values with the "-p"
+ * option of JMH, e.g., "-p size=512,2048,8192 -p shape=square,line,cross,disk,diamond", but the runs are the product of
+ * all of them.
+ * The main method runs the three benchmarks with the GC profiler, so the allocation rate (gc.alloc.rate.norm) is reported
+ * next to the time of every benchmark.
+ *
+ * To run them, compile this class together with the sources of the project, the OpenCV jar and JMH (jmh-core and
+ * jmh-generator-annprocess as annotation processor), and run the main method with the OpenCV native library in
+ * java.library.path. Any JMH option can be used instead of the main method, e.g., "MorphologyBenchmark -p mode=serial".
+ * The sources must be compiled with "--add-modules jdk.incubator.vector" (see README.md). The forked JVM loads that
+ * module, so the vectorized kernels are measured (see {@link ByteKernels}).
+ *
+ * @author Brian Kostadinov Shalon Isaac Medina
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MorphologyBenchmark {
+
+	@Param({"Dilation", "Opening", "Gradient", "TopHat"})
+	public String transformation;
+
+	@Param({"2048"})
+	public int size;
+
+	@Param({"1"})
+	public int channels;
+
+	@Param({"15"})
+	public int elementSize;
+
+	@Param({"square", "disk"})
+	public String shape;
+
+	//gray: random values. binary: only 0 and 255, which are packed into bits (see BinaryMorphology).
+	@Param({"gray"})
+	public String image;
+
+	//serial: the calling thread only. parallel: one band of rows per available processor.
+	@Param({"serial", "parallel"})
+	public String mode;
+
+	private Dilation dilation;
+	private MorphologicalOperator operator;
+	private Mat src;
+	private Mat dst;
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(MorphologyBenchmark.class.getSimpleName())
+				.include(KernelBenchmark.class.getSimpleName())
+				.include(DepthBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		src = createImage(size, channels, image.equals("binary"));
+		dst = new Mat();
+
+		Mat structuralElement = createElement(shape, elementSize);
+		int parallelism = mode.equals("parallel") ? Runtime.getRuntime().availableProcessors() : 1;
+		dilation = createTransformation(transformation, src, structuralElement);
+		dilation.setParallelism(parallelism);
+		operator = MorphologicalOperator.compile(dilation.getType(), structuralElement, null, RowBands.of(parallelism, null));
+	}
+
+	/**
+	 * Measures the perform method, which creates a new Mat for the processed image.
+	 *
+	 * @return the processed image.
+	 */
+	@Benchmark
+	public Mat perform() {
+		dilation.perform();
+		return dilation.getProcessedImage();
+	}
+
+	/**
+	 * Measures a compiled operator writing into the same destination every time.
+	 *
+	 * @return the processed image.
+	 */
+	@Benchmark
+	public Mat operator() {
+		operator.apply(src, dst);
+		return dst;
+	}
+
+	/**
+	 * Creates an 8-bit square image.
+	 *
+	 * @param size the number of rows and columns.
+	 * @param channels the number of channels.
+	 * @param binary true for a binary image: white rectangles of random sizes over a black background, covering about 40%
+	 *               of the image, so the packed rows have both long runs and edges. False for random values, so the data
+	 *               does not favor any transformation.
+	 * @return the image.
+	 */
+	static Mat createImage(int size, int channels, boolean binary) {
+		Random random = new Random(42);
+		Mat image = new Mat(size, size, CvType.makeType(CvType.CV_8U, channels));
+		if(binary) {
+			image.setTo(new Scalar(0, 0, 0));
+			int maxSide = Math.max(2, size / 16);
+			for(int n = 0; n<size * size / (maxSide * maxSide / 2); n++) {
+				int row = random.nextInt(size);
+				int col = random.nextInt(size);
+				int rows = Math.min(size - row, 1 + random.nextInt(maxSide));
+				int cols = Math.min(size - col, 1 + random.nextInt(maxSide));
+				image.submat(row, row + rows, col, col + cols).setTo(new Scalar(255, 255, 255));
+			}
+			return image;
+		}
+		byte[] pixels = new byte[size * size * channels];
+		random.nextBytes(pixels);
+		image.put(0, 0, pixels);
+		return image;
+	}
+
+	/**
+	 * Creates the transformation to measure.
+	 *
+	 * @param name the name of the transformation class.
+	 * @param src the image to process.
+	 * @param structuralElement the structural element.
+	 * @return the transformation, with the anchor point in the center of the structural element.
+	 */
+	static Dilation createTransformation(String name, Mat src, Mat structuralElement) {
+		Point anchorPoint = new Point((structuralElement.cols() - 1) / 2, (structuralElement.rows() - 1) / 2);
+		switch(name) {
+		case "Erotion":
+			return new Erotion(src, structuralElement, anchorPoint);
+		case "Opening":
+			return new Opening(src, structuralElement, anchorPoint);
+		case "Closing":
+			return new Closing(src, structuralElement, anchorPoint);
+		case "Gradient":
+			return new Gradient(src, structuralElement, anchorPoint);
+		case "TopHat":
+			return new TopHat(src, structuralElement, anchorPoint);
+		case "BlackHat":
+			return new BlackHat(src, structuralElement, anchorPoint);
+		default:
+			return new Dilation(src, structuralElement, anchorPoint);
+		}
+	}
+
+	/**
+	 * Creates a flat structural element.
+	 *
+	 * @param shape square, line (horizontal), cross, disk or diamond.
+	 * @param size the size of the structural element.
+	 * @return the structural element.
+	 */
+	static Mat createElement(String shape, int size) {
+		if(shape.equals("square"))
+			return Mat.ones(size, size, CvType.CV_8UC1);
+		if(shape.equals("line"))
+			return Mat.ones(1, size, CvType.CV_8UC1);
+
+		int radius = (size - 1) / 2;
+		if(shape.equals("cross"))
+			return StructuralElements.cross(radius).toMat();
+		if(shape.equals("diamond"))
+			return StructuralElements.diamond(radius).toMat();
+		return StructuralElements.disk(radius).toMat();
+	}
+}